@@ -0,0 +1,139 @@
+package com.securenotes.benchmarks;
+
+import com.securenotes.utils.CryptoEngine;
+import com.securenotes.utils.DataKey;
+import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.KeyResolver;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//payloads go from a short title up to the 60 000 char limit of Notes.description
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionBenchmark {
+
+    private static final byte[] KEY = "MySecret-key-APP".getBytes();
+    private static final int OWNER = 1;
+
+    @Param({"100", "1000", "10000", "60000"})
+    public int payloadChars;
+
+    private String plaintext;
+    private String ciphertext;
+    private String legacyCiphertext;
+    private byte[] plaintextBytes;
+    private byte[] ciphertextBytes;
+    private ByteBuffer plaintextBuffer;
+    private ByteBuffer ciphertextBuffer;
+    private ByteBuffer outputBuffer;
+    private CryptoEngine engine;
+
+    @Setup
+    public void setup() throws Exception {
+        //a fixed data key instead of DataKeyService, so encrypt/decrypt measure the cipher and not the key lookup
+        byte[] dataKey = new byte[32];
+        new SecureRandom().nextBytes(dataKey);
+        DataKey key = new DataKey(OWNER, 1, new SecretKeySpec(dataKey, "AES"));
+        EncryptionUtil.setKeyResolver(new KeyResolver() {
+            @Override
+            public DataKey currentKey(int ownerId) {
+                return key;
+            }
+
+            @Override
+            public DataKey key(int ownerId, int generation) {
+                return key;
+            }
+        });
+
+        plaintext = randomText(payloadChars);
+        ciphertext = EncryptionUtil.encrypt(OWNER, plaintext);
+        engine = EncryptionUtil.engine();
+        plaintextBytes = plaintext.getBytes(StandardCharsets.UTF_8);
+        ciphertextBytes = engine.encrypt(plaintextBytes);
+        legacyCiphertext = Base64.getEncoder().encodeToString(ciphertextBytes);
+
+        plaintextBuffer = ByteBuffer.allocate(plaintextBytes.length);
+        plaintextBuffer.put(plaintextBytes).flip();
+        ciphertextBuffer = ByteBuffer.allocate(ciphertextBytes.length);
+        ciphertextBuffer.put(ciphertextBytes).flip();
+        outputBuffer = ByteBuffer.allocate(engine.encryptedSize(plaintextBytes.length));
+    }
+
+    //the implementation EncryptionUtil had before the engine, kept as the baseline
+    @Benchmark
+    public String legacyEncrypt() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"));
+        return Base64.getEncoder().encodeToString(cipher.doFinal(plaintext.getBytes()));
+    }
+
+    @Benchmark
+    public String legacyDecrypt() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(KEY, "AES"));
+        return new String(cipher.doFinal(Base64.getDecoder().decode(legacyCiphertext)));
+    }
+
+    //AES/GCM with the owner's data key
+    @Benchmark
+    public String encrypt() throws Exception {
+        return EncryptionUtil.encrypt(OWNER, plaintext);
+    }
+
+    @Benchmark
+    public String decrypt() throws Exception {
+        return EncryptionUtil.decrypt(ciphertext);
+    }
+
+    @Benchmark
+    public byte[] encryptBytes() throws Exception {
+        return engine.encrypt(plaintextBytes);
+    }
+
+    @Benchmark
+    public byte[] decryptBytes() throws Exception {
+        return engine.decrypt(ciphertextBytes);
+    }
+
+    @Benchmark
+    public int encryptByteBuffer() throws Exception {
+        plaintextBuffer.rewind();
+        outputBuffer.clear();
+        return engine.encrypt(plaintextBuffer, outputBuffer);
+    }
+
+    @Benchmark
+    public int decryptByteBuffer() throws Exception {
+        ciphertextBuffer.rewind();
+        outputBuffer.clear();
+        return engine.decrypt(ciphertextBuffer, outputBuffer);
+    }
+
+    private static String randomText(int length) {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int wordLength = 2 + random.nextInt(8);
+            for (int i = 0; i < wordLength && text.length() < length; i++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            if (text.length() < length) {
+                text.append(' ');
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,155 @@
+package com.securenotes.benchmarks;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Closed loop load driver for comparing the platform thread and virtual thread modes of the running app.
+Every connection sends a request, waits for the response and sends the next one until the duration is over,
+so N connections means N requests in flight. Run it once against the app started normally and once against the
+app started with VIRTUAL_THREADS=true, with the same arguments.
+
+java -cp benchmarks/target/benchmarks.jar com.securenotes.benchmarks.HttpConcurrencyComparison \
+    --url=http://localhost:8080/notes/list --token=<jwt> --connections=1000,2500,5000,10000 --duration=30
+ */
+public class HttpConcurrencyComparison {
+
+    //latency histogram buckets are 1 ms wide up to 10 s, slower responses go into the last bucket
+    private static final int BUCKETS = 10_001;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        URI uri = URI.create(options.getOrDefault("url", "http://localhost:8080/notes/list"));
+        String token = options.get("token");
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30")));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "5")));
+        List<Integer> levels = new ArrayList<>();
+        for (String level : options.getOrDefault("connections", "1000,2500,5000,10000").split(",")) {
+            levels.add(Integer.parseInt(level.trim()));
+        }
+
+        System.out.printf("%-12s %10s %8s %12s %8s %8s %8s %8s%n",
+                "connections", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (int connections : levels) {
+            run(uri, token, connections, warmup, false);
+            Result result = run(uri, token, connections, duration, true);
+            System.out.printf("%-12d %10d %8d %12.1f %8d %8d %8d %8d%n",
+                    connections, result.requests(), result.errors(), result.requests() / (double) duration.toSeconds(),
+                    result.percentile(0.50), result.percentile(0.90), result.percentile(0.99), result.max());
+        }
+    }
+
+    private static Result run(URI uri, String token, int connections, Duration duration, boolean record) throws Exception {
+        ExecutorService callbacks = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        //a fresh client per level, so every level opens its own connections
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .executor(callbacks)
+                .build();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60)).GET();
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        HttpRequest request = builder.build();
+
+        Result result = new Result();
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<CompletableFuture<Void>> loops = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            loops.add(loop(client, request, deadline, record ? result : null));
+        }
+        CompletableFuture.allOf(loops.toArray(new CompletableFuture[0])).join();
+        callbacks.shutdownNow();
+        return result;
+    }
+
+    //one request after the other on the same connection slot, completes done once the deadline has passed
+    private static CompletableFuture<Void> loop(HttpClient client, HttpRequest request, long deadline, Result result) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        next(client, request, deadline, result, done);
+        return done;
+    }
+
+    private static void next(HttpClient client, HttpRequest request, long deadline, Result result, CompletableFuture<Void> done) {
+        if (System.nanoTime() >= deadline) {
+            done.complete(null);
+            return;
+        }
+        long start = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    if (result != null) {
+                        result.record((System.nanoTime() - start) / 1_000_000, error == null && response.statusCode() == 200);
+                    }
+                    next(client, request, deadline, result, done);
+                });
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 2) {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        return options;
+    }
+
+    private static class Result {
+        private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        private void record(long millis, boolean success) {
+            latencies.incrementAndGet((int) Math.min(millis, BUCKETS - 1));
+            (success ? ok : failed).increment();
+        }
+
+        private long requests() {
+            return ok.sum() + failed.sum();
+        }
+
+        private long errors() {
+            return failed.sum();
+        }
+
+        private long percentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += latencies.get(i);
+            }
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += latencies.get(i);
+                if (seen >= rank && seen > 0) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+
+        private long max() {
+            for (int i = BUCKETS - 1; i >= 0; i--) {
+                if (latencies.get(i) > 0) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.securenotes.benchmarks;
+
+import com.securenotes.utils.TokenBucketTable;
+import com.securenotes.utils.TokenBucketTable.Limit;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+//allow path of RateLimitFilter: hashing the client identity and taking a token, per request.
+//Run with -t 4 (or more) to see the lock striping under contention
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RateLimitBenchmark {
+
+    //distinct clients, e.g. IPs seen within the idle timeout
+    @Param({"100", "10000"})
+    public int clients;
+
+    private TokenBucketTable table;
+    private Limit limit;
+    private String[] addresses;
+
+    @Setup
+    public void setup() {
+        table = new TokenBucketTable(64, 512, Duration.ofHours(1));
+        //high enough that every request is allowed
+        limit = new Limit(1_000_000_000L, Duration.ofSeconds(1));
+        addresses = new String[clients];
+        for (int i = 0; i < clients; i++) {
+            addresses[i] = "10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        int next;
+    }
+
+    @Benchmark
+    public long acquire(Client client) {
+        String address = addresses[client.next++ % addresses.length];
+        return table.tryAcquire(TokenBucketTable.hash(1, address), limit, System.nanoTime());
+    }
+}
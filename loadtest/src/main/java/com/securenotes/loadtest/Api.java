@@ -0,0 +1,99 @@
+package com.securenotes.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/*
+Blocking HTTP calls against the app, one shared HttpClient (it pools connections), JSON through the application's
+own DTOs so the load test breaks at compile time when an endpoint changes.
+ */
+class Api {
+
+    static final String DEVICE_ID_HEADER = "X-Device-Id";
+    static final String UNLOCK_TOKEN_HEADER = "X-Note-Unlock-Token";
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    final ObjectMapper objectMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private final String baseUrl;
+    private final HttpClient client;
+
+    Api(String baseUrl) {
+        this.baseUrl = baseUrl;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    HttpRequest.Builder request(String path, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(TIMEOUT);
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder;
+    }
+
+    HttpRequest.BodyPublisher json(Object body) {
+        try {
+            return HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Response send(HttpRequest.Builder builder) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        return new Response(response.statusCode(), response.body(), response.headers().firstValue("Retry-After").orElse(null));
+    }
+
+    //for seeding: waits out 429 and 503 (the hashing pool is busy), fails on anything else that isn't 2xx
+    Response sendOrRetry(HttpRequest.Builder builder) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            Response response = send(builder);
+            if (response.ok()) {
+                return response;
+            }
+            if ((response.status() != 429 && response.status() != 503) || attempt == 20) {
+                throw new IllegalStateException(builder.build().method() + " " + builder.build().uri().getPath()
+                        + " failed with " + response.status() + ": " + response.body());
+            }
+            long retryAfter = response.retryAfter() == null ? 1 : Long.parseLong(response.retryAfter());
+            Thread.sleep(Math.min(retryAfter, 5) * 1000);
+        }
+    }
+
+    <T> T read(Response response, Class<T> type) {
+        try {
+            return objectMapper.readValue(response.body(), type);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    record Response(int status, String body, String retryAfter) {
+        boolean ok() {
+            return status >= 200 && status < 300;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.securenotes.loadtest;
+
+import com.securenotes.dto.CreateNoteRequest;
+import com.securenotes.dto.CreateTaskRequest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+Synthetic users, notes and tasks. Everything is derived from the seed, so two runs with the same options load the same
+data and their reports can be compared.
+Sizes follow a log-normal distribution around the median: most notes are a few hundred characters, a few are long,
+capped at the 60 000 char limit. Text is drawn from a made up vocabulary with Zipf frequencies, like real text a few
+words are in almost every note and most are rare, so searches range from matching nearly everything to matching
+a handful of notes.
+ */
+class Dataset {
+
+    static final String USER_PASSWORD = "loadtest-Passw0rd";
+    static final String NOTE_PASSWORD = "loadtest-note";
+    static final int MAX_NOTE_CHARS = 60_000;
+
+    private static final String[] SYLLABLES = {"ka", "lo", "mi", "ne", "ru", "sa", "to", "vi", "da", "fe", "go", "hu",
+            "ja", "ki", "ly", "mo", "nu", "pe", "qui", "ra", "si", "tu", "ve", "wo", "xa", "yo", "ze", "bri", "cla", "dro"};
+
+    private final long seed;
+    private final String[] vocabulary;
+    private final double[] zipfCdf;
+    private final double noteMu;
+    private final double noteSigma;
+    private final double securedFraction;
+
+    Dataset(long seed, int vocabularySize, int medianNoteChars, double noteSigma, double securedFraction) {
+        this.seed = seed;
+        this.noteMu = Math.log(medianNoteChars);
+        this.noteSigma = noteSigma;
+        this.securedFraction = securedFraction;
+
+        Random random = new Random(seed);
+        this.vocabulary = new String[vocabularySize];
+        for (int i = 0; i < vocabularySize; i++) {
+            StringBuilder word = new StringBuilder();
+            int syllables = 2 + random.nextInt(3);
+            for (int s = 0; s < syllables; s++) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            //the rank keeps words unique
+            vocabulary[i] = word.append(Integer.toString(i, 36)).toString();
+        }
+        //P(rank k) proportional to 1 / k
+        this.zipfCdf = new double[vocabularySize];
+        double total = 0;
+        for (int i = 0; i < vocabularySize; i++) {
+            total += 1.0 / (i + 1);
+            zipfCdf[i] = total;
+        }
+        for (int i = 0; i < vocabularySize; i++) {
+            zipfCdf[i] /= total;
+        }
+    }
+
+    String email(int user) {
+        return "user" + user + "@loadtest.local";
+    }
+
+    String name(int user) {
+        return "Load Test User " + user;
+    }
+
+    //the same user always gets the same notes, whatever the number of users
+    List<CreateNoteRequest> notes(int user, int count) {
+        Random random = random(user, 1);
+        List<CreateNoteRequest> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CreateNoteRequest note = new CreateNoteRequest();
+            note.setTitle(text(random, 10 + random.nextInt(50)));
+            note.setDescription(text(random, noteLength(random)));
+            if (random.nextDouble() < securedFraction) {
+                note.setPassword(NOTE_PASSWORD);
+            }
+            notes.add(note);
+        }
+        return notes;
+    }
+
+    List<CreateTaskRequest> tasks(int user, int count) {
+        Random random = random(user, 2);
+        List<CreateTaskRequest> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CreateTaskRequest task = new CreateTaskRequest();
+            task.setTitle(text(random, 10 + random.nextInt(40)));
+            //tasks are plain varchar(255) columns
+            task.setDescription(text(random, 20 + random.nextInt(220)));
+            task.setCompleted(random.nextInt(3) == 0);
+            task.setDueDate(LocalDate.of(2025, 1, 1).plusDays(random.nextInt(730)));
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    //new text for an edit, sized like a seeded note
+    String description(Random random) {
+        return text(random, noteLength(random));
+    }
+
+    String searchTerm(Random random) {
+        return word(random);
+    }
+
+    int noteLength(Random random) {
+        double length = Math.exp(noteMu + noteSigma * random.nextGaussian());
+        return (int) Math.max(20, Math.min(MAX_NOTE_CHARS, length));
+    }
+
+    private String text(Random random, int chars) {
+        StringBuilder text = new StringBuilder(chars + 16);
+        int sentence = 0;
+        while (text.length() < chars) {
+            String word = word(random);
+            if (sentence == 0) {
+                text.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            } else {
+                text.append(word);
+            }
+            sentence++;
+            if (sentence > 6 && random.nextInt(8) == 0) {
+                text.append(random.nextInt(6) == 0 ? ".\n" : ". ");
+                sentence = 0;
+            } else {
+                text.append(' ');
+            }
+        }
+        text.setLength(chars);
+        return text.toString().trim();
+    }
+
+    private String word(Random random) {
+        double u = random.nextDouble();
+        int low = 0;
+        int high = zipfCdf.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (zipfCdf[mid] < u) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return vocabulary[low];
+    }
+
+    private Random random(int user, int stream) {
+        return new Random(seed * 31 + user * 1_000_003L + stream);
+    }
+}
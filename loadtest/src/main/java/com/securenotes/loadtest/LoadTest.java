@@ -0,0 +1,148 @@
+package com.securenotes.loadtest;
+
+import com.securenotes.SecureNoteTakingApplication;
+import com.securenotes.loadtest.Seeder.Session;
+import com.securenotes.loadtest.Workload.Operation;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+End-to-end load test: boots the application in this JVM against an in-memory H2 database and the SMTP stand-in,
+seeds users, notes and tasks through the API, runs the mixed workload and writes the report.
+
+java -jar loadtest/target/loadtest.jar --users=20 --notes=100 --tasks=20 --clients=16 --rate=200 --duration=60 \
+    --report=reports/$(git rev-parse --short HEAD) --baseline=reports/main/report.json
+
+The options and their defaults are read at the top of main. Any option with a dot in its name is an application property,
+e.g. --spring.datasource.url=jdbc:mysql://... to run against MySQL or --securenotes.note-cache.enabled=true.
+The rate limits are off, every client comes from 127.0.0.1.
+With --securenotes.sql-budget.strict=true every request over its SQL statement budget fails, and the exit code is 1
+when any operation failed, so a run can gate a build.
+ */
+public class LoadTest {
+
+    private static final String DEFAULT_MIX = "list=40,search=25,edit=15,unlock=10,login=5,tasks=5";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new TreeMap<>();
+        //throwaway master and email digest keys, the data only lives as long as the run
+        byte[] masterKey = new byte[32];
+        byte[] emailDigestKey = new byte[32];
+        SecureRandom random = new SecureRandom();
+        random.nextBytes(masterKey);
+        random.nextBytes(emailDigestKey);
+        List<String> appArgs = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--management.server.port=",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER,VALUE;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.mail.host=127.0.0.1",
+                "--spring.mail.username=loadtest",
+                "--spring.mail.password=loadtest",
+                "--securenotes.mail.starttls=false",
+                "--securenotes.mail-outbox.poll-interval=PT1S",
+                "--securenotes.rate-limit.enabled=false",
+                "--spring.main.banner-mode=off",
+                "--logging.level.org.springframework=WARN",
+                "--logging.level.org.hibernate=WARN",
+                "--logging.level.com.securenotes=WARN",
+                "--securenotes.encryption.master-keys=loadtest:" + Base64.getEncoder().encodeToString(masterKey),
+                "--securenotes.encryption.master-key-id=loadtest",
+                "--securenotes.auth.email-digest-key=" + Base64.getEncoder().encodeToString(emailDigestKey)));
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 3) {
+                throw new IllegalArgumentException("Options look like --name=value: " + arg);
+            }
+            String name = arg.substring(2, separator);
+            if (name.contains(".")) {
+                appArgs.add(arg);
+            }
+            options.put(name, arg.substring(separator + 1));
+        }
+
+        int users = Integer.parseInt(options.getOrDefault("users", "20"));
+        int notes = Integer.parseInt(options.getOrDefault("notes", "100"));
+        int tasks = Integer.parseInt(options.getOrDefault("tasks", "20"));
+        double secured = Double.parseDouble(options.getOrDefault("secured", "0.05"));
+        int medianChars = Integer.parseInt(options.getOrDefault("median-chars", "600"));
+        double sizeSigma = Double.parseDouble(options.getOrDefault("size-sigma", "1.0"));
+        int vocabulary = Integer.parseInt(options.getOrDefault("vocabulary", "5000"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        int seedThreads = Integer.parseInt(options.getOrDefault("seed-threads", "4"));
+        int clients = Integer.parseInt(options.getOrDefault("clients", "16"));
+        //operations per second over all clients, 0 = as fast as the clients get answers
+        double rate = Double.parseDouble(options.getOrDefault("rate", "100"));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "15")));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "60")));
+        Map<Operation, Integer> mix = Workload.parseMix(options.getOrDefault("mix", DEFAULT_MIX));
+        int editBatch = Integer.parseInt(options.getOrDefault("edit-batch", "5"));
+        Duration smtpDelay = Duration.ofMillis(Long.parseLong(options.getOrDefault("smtp-delay-ms", "0")));
+        Path reportDirectory = Path.of(options.getOrDefault("report", "loadtest-report"));
+        Path baseline = options.containsKey("baseline") ? Path.of(options.get("baseline")) : null;
+        long errors;
+
+        try (SmtpStandIn smtp = new SmtpStandIn(smtpDelay)) {
+            appArgs.add("--spring.mail.port=" + smtp.port());
+            long bootStart = System.nanoTime();
+            ConfigurableApplicationContext context = SpringApplication.run(SecureNoteTakingApplication.class, appArgs.toArray(new String[0]));
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            System.out.printf("Application started on port %d in %d ms%n", port, (System.nanoTime() - bootStart) / 1_000_000);
+
+            try {
+                Api api = new Api("http://127.0.0.1:" + port);
+                Dataset dataset = new Dataset(seed, vocabulary, medianChars, sizeSigma, secured);
+                Seeder seeder = new Seeder(api, smtp, dataset);
+                long seedStart = System.nanoTime();
+                System.out.printf("Seeding %d users with %d notes and %d tasks each%n", users, notes, tasks);
+                List<Session> sessions = seeder.seed(users, notes, tasks, seedThreads);
+                long seedMillis = (System.nanoTime() - seedStart) / 1_000_000;
+                System.out.printf("Seeded in %d ms, %d mails through the SMTP stand-in%n", seedMillis, smtp.messages());
+
+                Workload workload = new Workload(api, dataset, sessions, mix, editBatch, seed);
+                Report report = new Report(workload.operations());
+                System.out.printf("Running %s with %d clients at %s for %d s after %d s warmup%n", workload.operations().stream().map(operation -> operation.label).toList(), clients,
+                        rate > 0 ? rate + " ops/s" : "full speed", duration.toSeconds(), warmup.toSeconds());
+                workload.run(clients, rate, warmup, duration, report);
+
+                Map<String, Object> run = new LinkedHashMap<>();
+                run.put("finished", Instant.now().toString());
+                run.put("java", System.getProperty("java.vm.name") + " " + System.getProperty("java.runtime.version"));
+                run.put("processors", Runtime.getRuntime().availableProcessors());
+                run.put("maxHeapMb", Runtime.getRuntime().maxMemory() / (1024 * 1024));
+                run.put("options", options);
+
+                Map<String, Object> data = new LinkedHashMap<>();
+                data.put("users", sessions.size());
+                data.put("notes", seeder.notes());
+                data.put("securedNotes", sessions.stream().mapToInt(session -> session.securedIds().length).sum());
+                data.put("tasks", users * tasks);
+                data.put("noteChars", seeder.noteChars());
+                data.put("seedMillis", seedMillis);
+
+                report.write(reportDirectory, run, data, duration, baseline);
+                errors = report.errors();
+            } finally {
+                context.close();
+            }
+        }
+        if (errors > 0) {
+            System.out.printf("%d operations failed%n", errors);
+        }
+        //scheduled jobs and the mail executor keep non-daemon threads around
+        System.exit(errors > 0 ? 1 : 0);
+    }
+}
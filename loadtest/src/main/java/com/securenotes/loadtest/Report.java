@@ -0,0 +1,190 @@
+package com.securenotes.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.securenotes.loadtest.Workload.Operation;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Latency and throughput per operation, in HdrHistograms (3 significant digits, so p99.9 of a few hundred
+microseconds is as exact as p50 of a few seconds).
+Writes to the report directory:
+  report.json   run options, dataset, and per operation count, errors, ops/s and latency percentiles in ms,
+                keys always in the same order, so two reports can be compared with plain diff, or with --baseline
+  report.txt    the same as a table, with the comparison to the baseline when there is one
+  <op>.hgrm     full percentile distribution of the latency, for the HdrHistogram plotter
+ */
+class Report {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+
+    Report(List<Operation> operations) {
+        for (Operation operation : operations) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    void record(Operation operation, long latencyNanos, long serviceNanos, boolean ok) {
+        Stats operationStats = stats.get(operation);
+        operationStats.latency.recordValue(latencyNanos);
+        operationStats.service.recordValue(serviceNanos);
+        if (!ok) {
+            operationStats.errors.increment();
+        }
+        operationStats.count.increment();
+    }
+
+    long operations() {
+        return stats.values().stream().mapToLong(s -> s.count.sum()).sum();
+    }
+
+    long errors() {
+        return stats.values().stream().mapToLong(s -> s.errors.sum()).sum();
+    }
+
+    void write(Path directory, Map<String, Object> run, Map<String, Object> dataset, Duration duration, Path baseline) throws IOException {
+        Files.createDirectories(directory);
+        double seconds = duration.toNanos() / 1_000_000_000.0;
+
+        Map<String, Object> operations = new LinkedHashMap<>();
+        Histogram all = null;
+        long totalErrors = 0;
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            Histogram latency = entry.getValue().latency.getIntervalHistogram();
+            Histogram service = entry.getValue().service.getIntervalHistogram();
+            long errors = entry.getValue().errors.sum();
+            totalErrors += errors;
+            if (all == null) {
+                all = latency.copy();
+            } else {
+                all.add(latency);
+            }
+
+            Map<String, Object> operation = new LinkedHashMap<>();
+            operation.put("count", latency.getTotalCount());
+            operation.put("errors", errors);
+            operation.put("throughput", round(latency.getTotalCount() / seconds));
+            operation.put("latencyMs", percentiles(latency));
+            operation.put("serviceTimeMs", percentiles(service));
+            operations.put(entry.getKey().label, operation);
+
+            ByteArrayOutputStream hgrm = new ByteArrayOutputStream();
+            try (PrintStream out = new PrintStream(hgrm, true, StandardCharsets.UTF_8)) {
+                latency.outputPercentileDistribution(out, NANOS_PER_MILLI);
+            }
+            Files.write(directory.resolve(entry.getKey().label + ".hgrm"), hgrm.toByteArray());
+        }
+
+        Map<String, Object> totals = new LinkedHashMap<>();
+        totals.put("count", all == null ? 0 : all.getTotalCount());
+        totals.put("errors", totalErrors);
+        totals.put("throughput", all == null ? 0 : round(all.getTotalCount() / seconds));
+        totals.put("latencyMs", all == null ? Map.of() : percentiles(all));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("run", run);
+        report.put("dataset", dataset);
+        report.put("totals", totals);
+        report.put("operations", operations);
+
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        Path json = directory.resolve("report.json");
+        objectMapper.writeValue(json.toFile(), report);
+
+        JsonNode current = objectMapper.valueToTree(report);
+        JsonNode previous = baseline == null ? null : objectMapper.readTree(baseline.toFile());
+        String table = table(current, previous);
+        Files.writeString(directory.resolve("report.txt"), table);
+        System.out.print(table);
+        System.out.println("Report written to " + json.toAbsolutePath());
+    }
+
+    private static Map<String, Object> percentiles(Histogram histogram) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES) {
+            values.put("p" + (percentile == Math.rint(percentile) ? Integer.toString((int) percentile) : Double.toString(percentile)),
+                    millis(histogram.getValueAtPercentile(percentile)));
+        }
+        values.put("max", millis(histogram.getMaxValue()));
+        values.put("mean", round(histogram.getMean() / NANOS_PER_MILLI));
+        return values;
+    }
+
+    private static String table(JsonNode current, JsonNode previous) {
+        StringWriter text = new StringWriter();
+        text.append(String.format("%-8s %8s %7s %9s %9s %9s %9s %9s %9s%n",
+                "op", "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        current.path("operations").fields().forEachRemaining(entry -> row(text, entry.getKey(), entry.getValue()));
+        row(text, "total", current.path("totals"));
+
+        if (previous != null) {
+            text.append(String.format("%nChange against the baseline (negative latency / positive ops/s is better)%n"));
+            text.append(String.format("%-8s %9s %9s %9s %9s%n", "op", "ops/s", "p50", "p99", "p99.9"));
+            current.path("operations").fields().forEachRemaining(entry ->
+                    delta(text, entry.getKey(), entry.getValue(), previous.path("operations").path(entry.getKey())));
+            delta(text, "total", current.path("totals"), previous.path("totals"));
+        }
+        return text.toString();
+    }
+
+    private static void row(StringWriter text, String name, JsonNode operation) {
+        JsonNode latency = operation.path("latencyMs");
+        text.append(String.format("%-8s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", name,
+                operation.path("count").asLong(), operation.path("errors").asLong(), operation.path("throughput").asDouble(),
+                latency.path("p50").asDouble(), latency.path("p90").asDouble(), latency.path("p99").asDouble(),
+                latency.path("p99.9").asDouble(), latency.path("max").asDouble()));
+    }
+
+    private static void delta(StringWriter text, String name, JsonNode current, JsonNode previous) {
+        if (previous.isMissingNode()) {
+            text.append(String.format("%-8s %9s%n", name, "new"));
+            return;
+        }
+        text.append(String.format("%-8s %9s %9s %9s %9s%n", name,
+                change(current.path("throughput"), previous.path("throughput")),
+                change(current.path("latencyMs").path("p50"), previous.path("latencyMs").path("p50")),
+                change(current.path("latencyMs").path("p99"), previous.path("latencyMs").path("p99")),
+                change(current.path("latencyMs").path("p99.9"), previous.path("latencyMs").path("p99.9"))));
+    }
+
+    private static String change(JsonNode current, JsonNode previous) {
+        if (previous.asDouble() == 0) {
+            return "-";
+        }
+        return String.format("%+.1f%%", (current.asDouble() - previous.asDouble()) * 100 / previous.asDouble());
+    }
+
+    private static double millis(long nanos) {
+        return round(nanos / NANOS_PER_MILLI);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private static final class Stats {
+        private final Recorder latency = new Recorder(3);
+        private final Recorder service = new Recorder(3);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder count = new LongAdder();
+    }
+}
@@ -0,0 +1,155 @@
+package com.securenotes.loadtest;
+
+import com.securenotes.dto.CreateNoteRequest;
+import com.securenotes.dto.CreateTaskRequest;
+import com.securenotes.dto.LoginRequest;
+import com.securenotes.dto.LoginResponse;
+import com.securenotes.dto.NoteImportResponse;
+import com.securenotes.dto.NoteSummaryResponse;
+import com.securenotes.dto.NotesPageResponse;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Loads the dataset through the public API, the way real users would have: signup, the otp from the SMTP stand-in,
+verify, login, then the notes through /notes/import and the tasks one by one. Secured notes get their password
+hashed on import like any other, so a dataset with many of them takes a while to load.
+ */
+class Seeder {
+
+    //the workload logs in under another device id, so its logins don't revoke these sessions
+    static final String SEED_DEVICE = "loadtest-seed";
+
+    private static final Duration OTP_TIMEOUT = Duration.ofSeconds(90);
+    private static final int PAGE_SIZE = 100;
+
+    private final Api api;
+    private final SmtpStandIn smtp;
+    private final Dataset dataset;
+    private final AtomicLong noteChars = new AtomicLong();
+    private final AtomicInteger seededNotes = new AtomicInteger();
+
+    Seeder(Api api, SmtpStandIn smtp, Dataset dataset) {
+        this.api = api;
+        this.smtp = smtp;
+        this.dataset = dataset;
+    }
+
+    List<Session> seed(int users, int notesPerUser, int tasksPerUser, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Session>> futures = new ArrayList<>(users);
+            for (int user = 0; user < users; user++) {
+                int index = user;
+                futures.add(executor.submit(() -> seedUser(index, notesPerUser, tasksPerUser)));
+            }
+            List<Session> sessions = new ArrayList<>(users);
+            for (Future<Session> future : futures) {
+                sessions.add(future.get());
+                if (sessions.size() % 10 == 0 || sessions.size() == users) {
+                    System.out.printf("  seeded %d/%d users%n", sessions.size(), users);
+                }
+            }
+            return sessions;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    long noteChars() {
+        return noteChars.get();
+    }
+
+    int notes() {
+        return seededNotes.get();
+    }
+
+    private Session seedUser(int user, int notesPerUser, int tasksPerUser) throws Exception {
+        String email = dataset.email(user);
+        Map<String, String> signup = new HashMap<>();
+        signup.put("name", dataset.name(user));
+        signup.put("email", email);
+        signup.put("password", Dataset.USER_PASSWORD);
+        signup.put("role", "USER");
+        api.sendOrRetry(api.request("/auth/signup", null)
+                .header("Content-Type", "application/json")
+                .POST(api.json(signup)));
+
+        String otp = smtp.awaitOtp(email, OTP_TIMEOUT);
+        Api.Response verified = api.sendOrRetry(api.request("/auth/verify-account?email=" + Api.encode(email) + "&otp=" + otp, null)
+                .PUT(HttpRequest.BodyPublishers.noBody()));
+        if (!verified.body().startsWith("OTP verified")) {
+            throw new IllegalStateException("Unable to verify " + email + ": " + verified.body());
+        }
+
+        String token = login(api, email, SEED_DEVICE);
+
+        List<CreateNoteRequest> notes = dataset.notes(user, notesPerUser);
+        if (!notes.isEmpty()) {
+            StringBuilder ndjson = new StringBuilder();
+            for (CreateNoteRequest note : notes) {
+                ndjson.append(api.objectMapper.writeValueAsString(note)).append('\n');
+                noteChars.addAndGet(note.getDescription().length());
+            }
+            NoteImportResponse imported = api.read(api.sendOrRetry(api.request("/notes/import", token)
+                    .header("Content-Type", "application/x-ndjson")
+                    .POST(HttpRequest.BodyPublishers.ofString(ndjson.toString()))), NoteImportResponse.class);
+            if (imported.getFailed() > 0) {
+                throw new IllegalStateException("Import for " + email + " failed for " + imported.getFailed() + " notes");
+            }
+            seededNotes.addAndGet((int) imported.getImported());
+        }
+
+        for (CreateTaskRequest task : dataset.tasks(user, tasksPerUser)) {
+            api.sendOrRetry(api.request("/task/create", token)
+                    .header("Content-Type", "application/json")
+                    .POST(api.json(task)));
+        }
+
+        List<Integer> noteIds = new ArrayList<>();
+        List<Integer> securedIds = new ArrayList<>();
+        collect(token, "/notes/list", noteIds, securedIds);
+        collect(token, "/notes/listSecured", noteIds, securedIds);
+        return new Session(user, email, token, toArray(noteIds), toArray(securedIds));
+    }
+
+    static String login(Api api, String email, String deviceId) throws IOException, InterruptedException {
+        LoginRequest login = new LoginRequest();
+        login.setEmail(email);
+        login.setPassword(Dataset.USER_PASSWORD);
+        return api.read(api.sendOrRetry(api.request("/auth/login", null)
+                .header("Content-Type", "application/json")
+                .header(Api.DEVICE_ID_HEADER, deviceId)
+                .POST(api.json(login))), LoginResponse.class).getToken();
+    }
+
+    private void collect(String token, String path, List<Integer> noteIds, List<Integer> securedIds) throws IOException, InterruptedException {
+        String cursor = null;
+        do {
+            String query = "?size=" + PAGE_SIZE + (cursor == null ? "" : "&cursor=" + Api.encode(cursor));
+            NotesPageResponse page = api.read(api.sendOrRetry(api.request(path + query, token).GET()), NotesPageResponse.class);
+            for (NoteSummaryResponse note : page.getNotes()) {
+                (note.isSecured() ? securedIds : noteIds).add(note.getNotesId());
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        return ids.stream().distinct().mapToInt(Integer::intValue).toArray();
+    }
+
+    record Session(int user, String email, String token, int[] noteIds, int[] securedIds) {
+    }
+}
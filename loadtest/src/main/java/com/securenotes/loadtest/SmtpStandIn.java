@@ -0,0 +1,154 @@
+package com.securenotes.loadtest;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+Just enough SMTP for JavaMail to deliver to: plain text, no TLS, no AUTH, every message accepted.
+Mails are not kept, only the otp of the last mail to every recipient, so the seeder can verify the accounts it signs up
+the same way a user would. An optional delay per message stands in for a slow mail provider.
+ */
+class SmtpStandIn implements Closeable {
+
+    //EmailUtil.otpEmailBody
+    private static final Pattern OTP = Pattern.compile("<strong>(\\d+)</strong>");
+
+    private final ServerSocket serverSocket;
+    private final Duration delay;
+    private final Map<String, String> otps = new ConcurrentHashMap<>();
+    private final AtomicLong messages = new AtomicLong();
+
+    SmtpStandIn(Duration delay) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.delay = delay;
+        Thread acceptor = new Thread(this::accept, "smtp-stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    long messages() {
+        return messages.get();
+    }
+
+    //waits for a mail to the address, the outbox sends in batches so this can take up to its poll interval
+    String awaitOtp(String email, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        String key = email.toLowerCase(Locale.ROOT);
+        while (System.nanoTime() < deadline) {
+            String otp = otps.remove(key);
+            if (otp != null) {
+                return otp;
+            }
+            Thread.sleep(50);
+        }
+        throw new IllegalStateException("No otp mail for " + email + " within " + timeout.toSeconds() + " s");
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread session = new Thread(() -> session(socket), "smtp-stand-in-session");
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException e) {
+                //closed
+            }
+        }
+    }
+
+    private void session(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+            reply(out, "220 localhost SMTP stand-in");
+            List<String> recipients = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() < 4 ? line.toUpperCase(Locale.ROOT) : line.substring(0, 4).toUpperCase(Locale.ROOT);
+                switch (command) {
+                    case "EHLO", "HELO" -> reply(out, "250 localhost");
+                    case "MAIL" -> {
+                        recipients.clear();
+                        reply(out, "250 OK");
+                    }
+                    case "RCPT" -> {
+                        recipients.add(address(line));
+                        reply(out, "250 OK");
+                    }
+                    case "DATA" -> {
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        String otp = readData(in);
+                        if (!delay.isZero()) {
+                            Thread.sleep(delay.toMillis());
+                        }
+                        if (otp != null) {
+                            recipients.forEach(recipient -> otps.put(recipient, otp));
+                        }
+                        messages.incrementAndGet();
+                        reply(out, "250 OK");
+                    }
+                    case "QUIT" -> {
+                        reply(out, "221 Bye");
+                        return;
+                    }
+                    default -> reply(out, "250 OK");
+                }
+            }
+        } catch (IOException e) {
+            //client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String readData(BufferedReader in) throws IOException {
+        StringBuilder body = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null && !line.equals(".")) {
+            //quoted-printable soft line breaks
+            body.append(line.endsWith("=") ? line.substring(0, line.length() - 1) : line);
+        }
+        Matcher matcher = OTP.matcher(body);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static String address(String line) {
+        int start = line.indexOf('<');
+        int end = line.indexOf('>', start + 1);
+        String address = start >= 0 && end > start ? line.substring(start + 1, end) : line.substring(line.indexOf(':') + 1).trim();
+        return address.toLowerCase(Locale.ROOT);
+    }
+
+    private static void reply(Writer out, String line) throws IOException {
+        out.write(line);
+        out.write("\r\n");
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
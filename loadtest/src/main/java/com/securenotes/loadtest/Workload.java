@@ -0,0 +1,251 @@
+package com.securenotes.loadtest;
+
+import com.securenotes.dto.CreateNoteRequest;
+import com.securenotes.dto.LoginRequest;
+import com.securenotes.loadtest.Seeder.Session;
+
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+The mixed workload. Every client is a thread that takes the next slot of a shared schedule, waits for its start time,
+picks an operation by weight and a random seeded user, and runs it.
+With a target rate the schedule has one slot every 1/rate seconds whatever the responses do (open model), and latency
+is measured from the slot's start time, not from when the request was actually sent. So when the app falls behind,
+the time requests spend waiting for a free client counts too, instead of the clients quietly slowing down to what the
+app can take (coordinated omission). Service time, from send to response, is recorded next to it.
+Without a rate (--rate=0) every client sends its next request as soon as the previous one is answered (closed model),
+which measures the throughput limit and then latency equals service time.
+ */
+class Workload {
+
+    enum Operation {
+        //POST /auth/login, BCrypt verify plus the token writes
+        LOGIN("login"),
+        //GET /notes/list, first page of 20
+        LIST("list"),
+        //GET /notes/search/{term}, term drawn from the same word frequencies as the notes
+        SEARCH("search"),
+        //POST /notes/unlock/{id} then GET /notes/getByIdPassword/{id} with the unlock token
+        UNLOCK("unlock"),
+        //edit-batch PUT /notes/update/{id} back to back, timed as one operation
+        EDIT("edit"),
+        //GET /task/list
+        TASKS("tasks");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        static Operation of(String label) {
+            for (Operation operation : values()) {
+                if (operation.label.equals(label)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation " + label);
+        }
+    }
+
+    //device id of the logins done by the workload, so they don't revoke the seeded sessions
+    private static final String WORKLOAD_DEVICE = "loadtest-workload";
+
+    private final Api api;
+    private final Dataset dataset;
+    private final List<Session> sessions;
+    private final List<Session> securedSessions;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final int editBatch;
+    private final long seed;
+
+    Workload(Api api, Dataset dataset, List<Session> sessions, Map<Operation, Integer> mix, int editBatch, long seed) {
+        this.api = api;
+        this.dataset = dataset;
+        this.sessions = sessions;
+        this.securedSessions = sessions.stream().filter(session -> session.securedIds().length > 0).toList();
+        this.editBatch = editBatch;
+        this.seed = seed;
+
+        Map<Operation, Integer> weights = new LinkedHashMap<>(mix);
+        if (securedSessions.isEmpty() && weights.remove(Operation.UNLOCK) != null) {
+            System.out.println("No secured notes were seeded, leaving unlock out of the mix");
+        }
+        if (sessions.stream().allMatch(session -> session.noteIds().length == 0) && weights.remove(Operation.EDIT) != null) {
+            System.out.println("No notes were seeded, leaving edit out of the mix");
+        }
+        weights.values().removeIf(weight -> weight <= 0);
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("The mix has no operations left to run");
+        }
+        this.operations = weights.keySet().toArray(new Operation[0]);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += weights.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    List<Operation> operations() {
+        return List.of(operations);
+    }
+
+    //"list=40,search=25,unlock=10,edit=15,login=5,tasks=5"
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("[=:]");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Mix entries look like list=40: " + entry);
+            }
+            weights.put(Operation.of(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+
+    void run(int clients, double rate, Duration warmup, Duration duration, Report report) throws InterruptedException {
+        long intervalNanos = rate > 0 ? (long) (1_000_000_000L / rate) : 0;
+        long start = System.nanoTime();
+        long measureStart = start + warmup.toNanos();
+        long end = measureStart + duration.toNanos();
+        AtomicLong slots = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>(clients);
+        for (int client = 0; client < clients; client++) {
+            Random random = new Random(seed * 7919 + client);
+            Thread thread = new Thread(() -> client(random, slots, start, intervalNanos, measureStart, end, report), "loadtest-client-" + client);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        Thread progress = new Thread(() -> progress(report, measureStart, end), "loadtest-progress");
+        progress.setDaemon(true);
+        progress.start();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        progress.interrupt();
+    }
+
+    private void client(Random random, AtomicLong slots, long start, long intervalNanos, long measureStart, long end, Report report) {
+        while (true) {
+            long intended = intervalNanos > 0 ? start + slots.getAndIncrement() * intervalNanos : System.nanoTime();
+            if (intended >= end) {
+                return;
+            }
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = pick(random);
+            long sent = System.nanoTime();
+            boolean ok;
+            try {
+                ok = execute(operation, random);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                ok = false;
+            }
+            long done = System.nanoTime();
+            if (intended >= measureStart) {
+                report.record(operation, done - intended, done - sent, ok);
+            }
+        }
+    }
+
+    private Operation pick(Random random) {
+        int ticket = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (ticket < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private boolean execute(Operation operation, Random random) throws Exception {
+        return switch (operation) {
+            case LOGIN -> login(session(random));
+            case LIST -> api.send(api.request("/notes/list?size=20", session(random).token()).GET()).ok();
+            case SEARCH -> api.send(api.request("/notes/search/" + Api.encode(dataset.searchTerm(random)),
+                    session(random).token()).GET()).ok();
+            case UNLOCK -> unlock(securedSessions.get(random.nextInt(securedSessions.size())), random);
+            case EDIT -> edit(session(random), random);
+            case TASKS -> api.send(api.request("/task/list", session(random).token()).GET()).ok();
+        };
+    }
+
+    private Session session(Random random) {
+        return sessions.get(random.nextInt(sessions.size()));
+    }
+
+    private boolean login(Session session) throws Exception {
+        LoginRequest login = new LoginRequest();
+        login.setEmail(session.email());
+        login.setPassword(Dataset.USER_PASSWORD);
+        return api.send(api.request("/auth/login", null)
+                .header("Content-Type", "application/json")
+                .header(Api.DEVICE_ID_HEADER, WORKLOAD_DEVICE)
+                .POST(api.json(login))).ok();
+    }
+
+    private boolean unlock(Session session, Random random) throws Exception {
+        int notesId = session.securedIds()[random.nextInt(session.securedIds().length)];
+        Api.Response unlocked = api.send(api.request("/notes/unlock/" + notesId + "?password=" + Api.encode(Dataset.NOTE_PASSWORD),
+                session.token()).POST(HttpRequest.BodyPublishers.noBody()));
+        if (!unlocked.ok()) {
+            return false;
+        }
+        String unlockToken = api.objectMapper.readTree(unlocked.body()).path("unlockToken").asText();
+        return api.send(api.request("/notes/getByIdPassword/" + notesId, session.token())
+                .header(Api.UNLOCK_TOKEN_HEADER, unlockToken)
+                .GET()).ok();
+    }
+
+    private boolean edit(Session session, Random random) throws Exception {
+        if (session.noteIds().length == 0) {
+            session = sessions.stream().filter(s -> s.noteIds().length > 0).findFirst().orElseThrow();
+        }
+        boolean ok = true;
+        for (int i = 0; i < editBatch; i++) {
+            int notesId = session.noteIds()[random.nextInt(session.noteIds().length)];
+            CreateNoteRequest note = new CreateNoteRequest();
+            note.setTitle(dataset.searchTerm(random) + " " + dataset.searchTerm(random));
+            note.setDescription(dataset.description(random));
+            ok &= api.send(api.request("/notes/update/" + notesId, session.token())
+                    .header("Content-Type", "application/json")
+                    .PUT(api.json(note))).ok();
+        }
+        return ok;
+    }
+
+    private static void progress(Report report, long measureStart, long end) {
+        try {
+            while (System.nanoTime() < end) {
+                Thread.sleep(10_000);
+                long now = System.nanoTime();
+                if (now > measureStart) {
+                    System.out.printf("  %4d s: %d operations, %d errors%n",
+                            (now - measureStart) / 1_000_000_000L, report.operations(), report.errors());
+                } else {
+                    System.out.printf("  warming up, %d s left%n", (measureStart - now) / 1_000_000_000L);
+                }
+            }
+        } catch (InterruptedException e) {
+            //done
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.securenotes.config;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+import org.hibernate.cache.spi.entry.CacheEntry;
+import org.hibernate.cache.spi.support.AbstractReadWriteAccess;
+
+import java.io.Serializable;
+
+/*
+Approximate heap bytes of a second-level cache entry, so a region can be bounded by memory instead of entry count.
+Read-write regions hold an Item around the disassembled entity state, or a soft lock while a transaction writes the row.
+Only the byte arrays and strings of the state are counted at their length, everything else at a flat rate, which
+is close enough when the large columns (the note ciphertext) dominate.
+ */
+public class CacheEntryWeigher implements Weigher<Object, Object>, Serializable {
+
+    //object headers, the key, the Item and the state array of an entry with no large columns
+    private static final int ENTRY_OVERHEAD = 256;
+    private static final int FIELD_OVERHEAD = 16;
+
+    @Override
+    public int weigh(Object key, Object value) {
+        if (value instanceof AbstractReadWriteAccess.Item item) {
+            value = item.getValue();
+        }
+        long weight = ENTRY_OVERHEAD;
+        if (value instanceof CacheEntry entry && entry.getDisassembledState() != null) {
+            for (Serializable field : entry.getDisassembledState()) {
+                weight += FIELD_OVERHEAD;
+                if (field instanceof byte[] bytes) {
+                    weight += bytes.length;
+                } else if (field instanceof String string) {
+                    //compact strings, the ciphertext is Base64 so one byte per char
+                    weight += string.length();
+                }
+            }
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+}
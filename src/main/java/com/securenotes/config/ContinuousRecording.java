@@ -0,0 +1,84 @@
+package com.securenotes.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+Always-on flight recording, for when the JVM flags can't be changed. Same as starting the JVM with
+-XX:StartFlightRecording:settings=default,settings=securenotes.jfc: the JDK default settings plus the securenotes.*
+events, kept on disk as a ring of max-age / max-size. Nothing is written out until someone asks:
+    jcmd <pid> JFR.dump name=securenotes filename=notes.jfr
+and on exit, when a destination is set.
+ */
+@Component
+public class ContinuousRecording {
+
+    private static final Logger log = LoggerFactory.getLogger(ContinuousRecording.class);
+    private static final String NAME = "securenotes";
+
+    private final boolean enabled;
+    private final Duration maxAge;
+    private final long maxSizeBytes;
+    private final String destination;
+    private Recording recording;
+
+    public ContinuousRecording(@Value("${securenotes.jfr.enabled:false}") boolean enabled,
+                               @Value("${securenotes.jfr.max-age:6h}") Duration maxAge,
+                               @Value("${securenotes.jfr.max-size-mb:250}") long maxSizeMb,
+                               @Value("${securenotes.jfr.destination:}") String destination) {
+        this.enabled = enabled;
+        this.maxAge = maxAge;
+        this.maxSizeBytes = maxSizeMb * 1024 * 1024;
+        this.destination = destination;
+    }
+
+    @PostConstruct
+    public void start() throws IOException, ParseException {
+        if (!enabled) {
+            return;
+        }
+        Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+        try (Reader reader = new InputStreamReader(new ClassPathResource("securenotes.jfc").getInputStream(), StandardCharsets.UTF_8)) {
+            settings.putAll(Configuration.create(reader).getSettings());
+        }
+        recording = new Recording(settings);
+        recording.setName(NAME);
+        recording.setToDisk(true);
+        recording.setMaxAge(maxAge);
+        recording.setMaxSize(maxSizeBytes);
+        if (!destination.isBlank()) {
+            recording.setDestination(Path.of(destination));
+            recording.setDumpOnExit(true);
+        }
+        recording.start();
+        log.info("Flight recording '{}' started, keeping the last {} min up to {} MB", NAME, maxAge.toMinutes(), maxSizeBytes / (1024 * 1024));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recording != null) {
+            //closing without stop() discards the data, stop() writes it to the destination first
+            if (recording.getDestination() != null) {
+                recording.stop();
+            }
+            recording.close();
+        }
+    }
+}
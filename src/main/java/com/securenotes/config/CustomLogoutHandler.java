@@ -2,6 +2,9 @@ package com.securenotes.config;
 
 import com.securenotes.model.Token;
 import com.securenotes.repository.TokenRepository;
+import com.securenotes.utils.HashUtil;
+import com.securenotes.utils.JWTUtils;
+import com.securenotes.utils.TokenVerificationCache;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,6 +18,12 @@ public class CustomLogoutHandler implements LogoutHandler {
     @Autowired
     TokenRepository tokenRepository;
 
+    @Autowired
+    TokenVerificationCache tokenVerificationCache;
+
+    @Autowired
+    JWTUtils jwtUtils;
+
     @Override
     public void logout(HttpServletRequest request, HttpServletResponse response, Authentication authentication) {
         String authHeader = request.getHeader("Authorization");
@@ -24,10 +33,14 @@ public class CustomLogoutHandler implements LogoutHandler {
 
         String token = authHeader.substring(7);
 
+        //revoke in memory first, so the token stops working even if the database update below fails
+        String tokenHash = HashUtil.sha256Hex(token);
+        tokenVerificationCache.revoke(tokenHash, jwtUtils.maxExpiresAt());
+
         //get stored token from database and make it loggedOut - true
 
         try {
-            Token storedToken = tokenRepository.findByToken(token).orElse(null);
+            Token storedToken = tokenRepository.findByTokenHash(tokenHash).orElse(null);
             if (storedToken != null) {
                 storedToken.setLoggedOut(true);
                 tokenRepository.save(storedToken);
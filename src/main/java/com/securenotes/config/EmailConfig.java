@@ -1,18 +1,30 @@
 package com.securenotes.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 
 import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class EmailConfig {
 
+    @Autowired
+    Environment environment;
+
     @Value("${spring.mail.host}")
     private String emailHost;
 
@@ -25,6 +37,13 @@ public class EmailConfig {
     @Value("${spring.mail.password}")
     private String emailPassword;
 
+    @Value("${securenotes.mail.starttls:true}")
+    private boolean startTls;
+
+    //without timeouts a hanging SMTP server would block the outbox dispatcher forever
+    @Value("${securenotes.mail.timeout-millis:10000}")
+    private String timeoutMillis;
+
 
     @Bean
     public JavaMailSender getJavaMailSender(){
@@ -35,13 +54,26 @@ public class EmailConfig {
         javaMailSender.setUsername(emailUsername);
 
         Properties properties = javaMailSender.getJavaMailProperties();
-        properties.put("mail.smtp.starttls.enable","true");
+        properties.put("mail.smtp.starttls.enable", String.valueOf(startTls));
+        properties.put("mail.smtp.connectiontimeout", timeoutMillis);
+        properties.put("mail.smtp.timeout", timeoutMillis);
+        properties.put("mail.smtp.writetimeout", timeoutMillis);
         return  javaMailSender;
 
     }
 
+    //with spring.threads.virtual.enabled=true on Java 21 every task gets its own virtual thread, like Tomcat's handlers
+    //executor.* metrics with name=mail: queued tasks, active threads, task duration and time spent waiting in the queue
     @Bean
-    public ExecutorService executorService() {
-        return Executors.newFixedThreadPool(5); // Adjust the pool size as needed
+    public ExecutorService executorService(MeterRegistry meterRegistry) {
+        ExecutorService executorService;
+        if (Threading.VIRTUAL.isActive(environment)) {
+            //no core threads and no keep alive, so this is a thread per task executor that still compiles on Java 17
+            executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                    new VirtualThreadTaskExecutor("mail-").getVirtualThreadFactory());
+        } else {
+            executorService = Executors.newFixedThreadPool(5); // Adjust the pool size as needed
+        }
+        return ExecutorServiceMetrics.monitor(meterRegistry, executorService, "mail");
     }
 }
@@ -1,6 +1,11 @@
 package com.securenotes.config;
 
+import com.securenotes.utils.FlightEvents.TokenValidationEvent;
+import com.securenotes.utils.HashUtil;
 import com.securenotes.utils.JWTUtils;
+import com.securenotes.utils.TokenVerificationCache;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -12,6 +17,7 @@ import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.web.filter.OncePerRequestFilter;
 
@@ -25,6 +31,9 @@ public class JWTAuthFilter extends OncePerRequestFilter {
     @Autowired
     UserDetailsService userDetailsService;
 
+    @Autowired
+    TokenVerificationCache tokenVerificationCache;
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
 
@@ -33,6 +42,7 @@ public class JWTAuthFilter extends OncePerRequestFilter {
         final String authHeader = request.getHeader("Authorization");
         final String jwtToken;
         final String userEmail;
+        final Claims claims;
 
         if(authHeader == null || authHeader.isBlank()){
             filterChain.doFilter(request,response);
@@ -40,27 +50,71 @@ public class JWTAuthFilter extends OncePerRequestFilter {
         }
 
         jwtToken = authHeader.substring(7);
-        userEmail = jwtUtils.extractUsername(jwtToken);
-
-//step 2: if user exists and there is no existing authentication in security context holder
-
-        if(userEmail != null && SecurityContextHolder.getContext().getAuthentication() == null){
-            UserDetails userDetails = userDetailsService.loadUserByUsername(userEmail);
+        TokenValidationEvent event = new TokenValidationEvent();
+        event.begin();
+
+        //step 2: token verified before and not revoked since - authenticate without touching the database
+        final String tokenDigest = HashUtil.sha256Hex(jwtToken);
+        UserDetails cachedUserDetails = tokenVerificationCache.get(tokenDigest);
+        if(cachedUserDetails != null && SecurityContextHolder.getContext().getAuthentication() == null){
+            authenticate(cachedUserDetails, request);
+            commit(event, true, true);
+            filterChain.doFilter(request, response);
+            return;
+        }
 
-            if(jwtUtils.isTokenValid(jwtToken,userDetails)){
-                SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+        try {
+            claims = jwtUtils.extractAllClaims(jwtToken);
+        } catch (JwtException | IllegalArgumentException e) {
+            //expired or tampered token, the request stays unauthenticated - /auth/refresh must still be reachable
+            commit(event, false, false);
+            filterChain.doFilter(request, response);
+            return;
+        }
+        userEmail = claims.getSubject();
 
-                UsernamePasswordAuthenticationToken token = new UsernamePasswordAuthenticationToken(
-                        userDetails,null,userDetails.getAuthorities()
-                );
+//step 3: if user exists and there is no existing authentication in security context holder
 
-                token.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+        if(userEmail != null && SecurityContextHolder.getContext().getAuthentication() == null){
+            UserDetails userDetails;
+            try {
+                userDetails = userDetailsService.loadUserByUsername(userEmail);
+            } catch (UsernameNotFoundException e) {
+                //user is gone, the request just stays unauthenticated
+                commit(event, false, false);
+                filterChain.doFilter(request, response);
+                return;
+            }
 
-                securityContext.setAuthentication(token);
-                SecurityContextHolder.setContext(securityContext);
+            boolean valid = jwtUtils.isTokenValid(jwtToken, claims, userDetails);
+            if(valid){
+                authenticate(userDetails, request);
+                tokenVerificationCache.put(tokenDigest, userDetails, claims.getExpiration());
             }
+            commit(event, false, valid);
 
         }
         filterChain.doFilter(request, response);
     }
+
+    private static void commit(TokenValidationEvent event, boolean cached, boolean valid){
+        if(event.shouldCommit()){
+            event.cached = cached;
+            event.valid = valid;
+            event.commit();
+        }
+    }
+
+    private void authenticate(UserDetails userDetails, HttpServletRequest request){
+        SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+
+        UsernamePasswordAuthenticationToken token = new UsernamePasswordAuthenticationToken(
+                userDetails,null,userDetails.getAuthorities()
+        );
+
+        token.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+
+        securityContext.setAuthentication(token);
+        SecurityContextHolder.setContext(securityContext);
+    }
 }
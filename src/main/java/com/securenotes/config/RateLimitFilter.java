@@ -0,0 +1,256 @@
+package com.securenotes.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.securenotes.utils.JWTUtils;
+import com.securenotes.utils.TokenBucketTable;
+import com.securenotes.utils.TokenBucketTable.Limit;
+import io.micrometer.core.instrument.Counter;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/*
+Admission control for the endpoints that cost the most per request: login (BCrypt), refresh (mints tokens), signup and
+otp mails (BCrypt and SMTP) and search (decrypts every matching note). Runs before JWTAuthFilter, so a flood is turned
+away before any database lookup or hashing happens.
+Every group has a bucket per client IP, and a bucket per user as well where the request names one: the email
+parameter of regenerate-otp, the email in the login body, or the subject of the bearer token for search. Search is
+keyed on the subject and not on the token, a client could otherwise start over with a fresh bucket after every
+/auth/refresh. The subject is only taken from a token with a valid signature, so nobody can spend another user's bucket.
+A request has to get a token from each of its buckets, otherwise it is answered with 429 and Retry-After.
+Any other path returns after two string comparisons.
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    //hash seeds, so the same string as IP and as user never share a bucket
+    private static final long IP_SEED = 1;
+    private static final long USER_SEED = 2;
+
+    //a login body is a few hundred bytes, anything longer is passed on without a per-user check
+    private static final int MAX_LOGIN_BODY = 4096;
+
+    private final JWTUtils jwtUtils;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final TokenBucketTable buckets;
+    private final Group login;
+    private final Group refresh;
+    private final Group mail;
+    private final Group search;
+
+    public RateLimitFilter(MeterRegistry meterRegistry, JWTUtils jwtUtils, ObjectMapper objectMapper,
+                           @Value("${securenotes.rate-limit.enabled:true}") boolean enabled,
+                           @Value("${securenotes.rate-limit.stripes:64}") int stripes,
+                           @Value("${securenotes.rate-limit.buckets-per-stripe:512}") int bucketsPerStripe,
+                           @Value("${securenotes.rate-limit.idle-timeout:1h}") Duration idleTimeout,
+                           @Value("${securenotes.rate-limit.login.per-ip:20/1m}") String loginPerIp,
+                           @Value("${securenotes.rate-limit.login.per-user:10/5m}") String loginPerUser,
+                           @Value("${securenotes.rate-limit.refresh.per-ip:30/1m}") String refreshPerIp,
+                           @Value("${securenotes.rate-limit.mail.per-ip:10/1m}") String mailPerIp,
+                           @Value("${securenotes.rate-limit.mail.per-user:3/5m}") String mailPerUser,
+                           @Value("${securenotes.rate-limit.search.per-ip:120/1m}") String searchPerIp,
+                           @Value("${securenotes.rate-limit.search.per-user:60/1m}") String searchPerUser) {
+        this.jwtUtils = jwtUtils;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.buckets = new TokenBucketTable(stripes, bucketsPerStripe, idleTimeout);
+        this.login = new Group("login", 1, Limit.parse(loginPerIp), Limit.parse(loginPerUser), meterRegistry);
+        this.mail = new Group("mail", 2, Limit.parse(mailPerIp), Limit.parse(mailPerUser), meterRegistry);
+        this.search = new Group("search", 3, Limit.parse(searchPerIp), Limit.parse(searchPerUser), meterRegistry);
+        this.refresh = new Group("refresh", 4, Limit.parse(refreshPerIp), null, meterRegistry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        Group group = enabled ? group(request) : null;
+        if (group == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        long now = System.nanoTime();
+        long waitNanos = buckets.tryAcquire(group.key(IP_SEED, request.getRemoteAddr()), group.perIp, now);
+        if (waitNanos == 0 && group.perUser != null) {
+            String user;
+            if (group == search) {
+                user = tokenSubject(request);
+            } else if (group == login) {
+                LoginBodyRequest loginRequest = new LoginBodyRequest(request);
+                request = loginRequest;
+                user = loginEmail(loginRequest);
+            } else {
+                user = request.getParameter("email");
+            }
+            if (user != null) {
+                waitNanos = buckets.tryAcquire(group.key(USER_SEED, group == search ? user : user.toLowerCase()), group.perUser, now);
+            }
+        }
+        if (waitNanos == 0) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        group.rejected.increment();
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"message\":\"Too many requests, please retry in " + retryAfter + " seconds.\"}");
+    }
+
+    private Group group(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith("/auth/")) {
+            String method = request.getMethod();
+            if (path.equals("/auth/login") && method.equals("POST")) {
+                return login;
+            }
+            if (path.equals("/auth/refresh") && method.equals("POST")) {
+                return refresh;
+            }
+            if ((path.equals("/auth/signup") && method.equals("POST")) || (path.equals("/auth/regenerate-otp") && method.equals("PUT"))) {
+                return mail;
+            }
+            return null;
+        }
+        return path.startsWith("/notes/search/") ? search : null;
+    }
+
+    //null for a missing or invalid token, JWTAuthFilter leaves such a request unauthenticated anyway
+    private String tokenSubject(HttpServletRequest request) {
+        String authHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return null;
+        }
+        try {
+            return jwtUtils.extractAllClaims(authHeader.substring(7)).getSubject();
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    //null when the body is too long or not a login request, the controller answers those
+    private String loginEmail(LoginBodyRequest request) throws IOException {
+        byte[] body = request.readPrefix(MAX_LOGIN_BODY);
+        if (body == null) {
+            return null;
+        }
+        try {
+            JsonNode email = objectMapper.readTree(body).get("email");
+            return email != null && email.isTextual() ? email.asText().trim() : null;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    //reads the start of the body for the email and replays it to the controller, followed by whatever wasn't read
+    private static final class LoginBodyRequest extends HttpServletRequestWrapper {
+        private ServletInputStream body;
+
+        private LoginBodyRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        //the whole body if it is at most limit bytes, otherwise null
+        private byte[] readPrefix(int limit) throws IOException {
+            ServletInputStream original = super.getInputStream();
+            byte[] prefix = original.readNBytes(limit + 1);
+            body = new ReplayInputStream(prefix, original);
+            return prefix.length > limit ? null : prefix;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            return body != null ? body : super.getInputStream();
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(),
+                    encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8));
+        }
+    }
+
+    private static final class ReplayInputStream extends ServletInputStream {
+        private final ByteArrayInputStream prefix;
+        private final ServletInputStream rest;
+
+        private ReplayInputStream(byte[] prefix, ServletInputStream rest) {
+            this.prefix = new ByteArrayInputStream(prefix);
+            this.rest = rest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = prefix.read();
+            return b != -1 ? b : rest.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int read = prefix.read(buffer, offset, length);
+            return read != -1 ? read : rest.read(buffer, offset, length);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return prefix.available() == 0 && rest.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return prefix.available() > 0 || rest.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            rest.setReadListener(readListener);
+        }
+    }
+
+    private static final class Group {
+        private final long seed;
+        private final Limit perIp;
+        private final Limit perUser;
+        private final Counter rejected;
+
+        private Group(String name, long id, Limit perIp, Limit perUser, MeterRegistry meterRegistry) {
+            this.seed = id << 8;
+            this.perIp = perIp;
+            this.perUser = perUser;
+            this.rejected = Counter.builder("securenotes.rate.limit.rejected").tag("group", name).register(meterRegistry);
+        }
+
+        private long key(long kind, String value) {
+            return TokenBucketTable.hash(seed | kind, value);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.securenotes.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.spi.CachingProvider;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/*
+Hibernate second-level cache for User, Notes and Tasks, in local Caffeine caches behind JCache. Entities are cached
+read-write, so a transaction that changes a row locks its entry until commit and readers go to the database
+meanwhile. Only what hibernate has in the entity is cached, the encrypted columns stay ciphertext.
+Every region is created here with its own size limit (notes by bytes, the rest by entries), hibernate is told to fail on any region it doesn't find, so
+a new @Cache entity needs its region added below. Entries also expire after the ttl, which bounds how stale another
+instance's cache can be after a write it didn't see, and writes that bypass hibernate (the JdbcTemplate updates of
+KeyRotationService and NoteStorageMigrationService) evict the rows they changed.
+Statistics are on for the region hit ratios, hibernate-micrometer turns them into the hibernate.* metrics.
+ */
+@Configuration
+public class SecondLevelCacheConfig {
+
+    public static final String USERS = "users";
+    public static final String NOTES = "notes";
+    public static final String TASKS = "tasks";
+
+    @Value("${securenotes.l2-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${securenotes.l2-cache.ttl:10m}")
+    private Duration ttl;
+
+    @Value("${securenotes.l2-cache.users.max-entries:10000}")
+    private long userEntries;
+
+    //a note entry holds the whole encrypted description, from a few hundred bytes up to 256KB, so the region is
+    //bounded by the bytes CacheEntryWeigher counts instead of the number of notes
+    @Value("${securenotes.l2-cache.notes.max-bytes:67108864}")
+    private long noteBytes;
+
+    @Value("${securenotes.l2-cache.tasks.max-entries:10000}")
+    private long taskEntries;
+
+    @Value("${securenotes.l2-cache.query.max-entries:10000}")
+    private long queryEntries;
+
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCache() {
+        return properties -> {
+            if (!enabled) {
+                return;
+            }
+            CachingProvider provider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+            CacheManager cacheManager = provider.getCacheManager(provider.getDefaultURI(), getClass().getClassLoader());
+            createRegion(cacheManager, USERS, userEntries, ttl);
+            createWeighedRegion(cacheManager, NOTES, noteBytes, ttl);
+            createRegion(cacheManager, TASKS, taskEntries, ttl);
+            createRegion(cacheManager, RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME, queryEntries, ttl);
+            //one entry per table with the time it was last written, must outlive the query results it checks
+            createRegion(cacheManager, RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME, 0, null);
+
+            properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+            properties.put(AvailableSettings.USE_QUERY_CACHE, true);
+            properties.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+            //hibernate closes it on shutdown
+            properties.put(ConfigSettings.CACHE_MANAGER, cacheManager);
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+            properties.put(AvailableSettings.GENERATE_STATISTICS, true);
+        };
+    }
+
+    private static void createRegion(CacheManager cacheManager, String name, long maxEntries, Duration ttl) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        if (maxEntries > 0) {
+            configuration.setMaximumSize(OptionalLong.of(maxEntries));
+        }
+        createRegion(cacheManager, name, configuration, ttl);
+    }
+
+    private static void createWeighedRegion(CacheManager cacheManager, String name, long maxBytes, Duration ttl) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setMaximumWeight(OptionalLong.of(maxBytes));
+        configuration.setWeigherFactory(Optional.of(new FactoryBuilder.SingletonFactory<>(new CacheEntryWeigher())));
+        createRegion(cacheManager, name, configuration, ttl);
+    }
+
+    private static void createRegion(CacheManager cacheManager, String name,
+                                     CaffeineConfiguration<Object, Object> configuration, Duration ttl) {
+        if (ttl != null) {
+            configuration.setExpireAfterWrite(OptionalLong.of(ttl.toNanos()));
+        }
+        if (cacheManager.getCache(name) != null) {
+            cacheManager.destroyCache(name);
+        }
+        cacheManager.createCache(name, configuration);
+    }
+}
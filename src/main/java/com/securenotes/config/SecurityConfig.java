@@ -1,7 +1,13 @@
 package com.securenotes.config;
 
 import com.securenotes.service.OurUserDetailService;
+import com.securenotes.utils.PooledPasswordEncoder;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -15,9 +21,12 @@ import org.springframework.security.config.annotation.web.configurers.AbstractHt
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
+import java.time.Duration;
+
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
@@ -30,19 +39,54 @@ public class SecurityConfig {
     @Autowired
     JWTAuthFilter jwtAuthFilter;
 
+    @Autowired
+    RateLimitFilter rateLimitFilter;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    //0 means one hashing thread per cpu core
+    @Value("${securenotes.password-hashing.threads:0}")
+    private int hashingThreads;
+
+    @Value("${securenotes.password-hashing.queue-capacity:64}")
+    private int hashingQueueCapacity;
+
+    @Value("${securenotes.password-hashing.max-wait:2s}")
+    private Duration hashingMaxWait;
+
+    //MANAGEMENT_PORT, defaults to the app port
+    @Value("${management.server.port:}")
+    private String managementPort;
+
+    @Value("${server.port:8080}")
+    private String serverPort;
+
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
 
         http.csrf(AbstractHttpConfigurer::disable)
                 .cors(Customizer.withDefaults())
-                .authorizeHttpRequests(request -> request.requestMatchers("/auth/**").permitAll()
+                .authorizeHttpRequests(request -> request
+                        //the async dispatch that completes a streamed response (/notes/export) carries no token,
+                        //the request itself was already authorized on the way in
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+                        .requestMatchers("/auth/**").permitAll()
+                        .requestMatchers("/actuator/health").permitAll()
+                        //the rest of the actuator (metrics, prometheus) only answers on a management port of its own,
+                        //which is not public. Signup is open, so a token alone must not be enough to read the metrics
+                        .requestMatchers(this::isActuatorOnManagementPort).permitAll()
+                        .requestMatchers("/actuator/**").denyAll()
                         .requestMatchers("/user/**").hasAuthority("USER")
                         .requestMatchers("/notes/**").hasAuthority("USER")
                         .requestMatchers("/task/**").hasAuthority("USER")
                         .anyRequest().authenticated())
 
                 .sessionManagement(manager -> manager.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
-                .authenticationProvider(authenticationProvider()).addFilterBefore(
+                .authenticationProvider(authenticationProvider())
+                //same position, the rate limit runs first because it is added first
+                .addFilterBefore(rateLimitFilter, UsernamePasswordAuthenticationFilter.class)
+                .addFilterBefore(
                     jwtAuthFilter, UsernamePasswordAuthenticationFilter.class
                 ).logout(l->l.logoutUrl("/logout")
                         .addLogoutHandler(logoutHandler)
@@ -51,6 +95,21 @@ public class SecurityConfig {
                         ));
         return http.build();
     }
+    private boolean isActuatorOnManagementPort(HttpServletRequest request) {
+        if (managementPort.isBlank() || managementPort.equals(serverPort) || !request.getRequestURI().startsWith("/actuator/")) {
+            return false;
+        }
+        return request.getLocalPort() == Integer.parseInt(managementPort);
+    }
+
+    //the rate limit filter only runs inside the security chain, not a second time as a plain servlet filter
+    @Bean
+    public FilterRegistrationBean<RateLimitFilter> rateLimitFilterRegistration(RateLimitFilter filter) {
+        FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(filter);
+        registration.setEnabled(false);
+        return registration;
+    }
+
     //authentication impl
 //    @Bean
 //    public DaoAuthenticationProvider getDaoAuthProvider() {
@@ -74,9 +133,11 @@ public class SecurityConfig {
 AuthenticationProvider is a broader interface for any class that performs user authentication, allowing for various authentication methods beyond usernames and passwords.
      */
 
+    //all BCrypt work, including the DaoAuthenticationProvider check on login, runs on the bounded hashing pool
     @Bean
-    public BCryptPasswordEncoder passwordEncoder(){
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(){
+        int threads = hashingThreads > 0 ? hashingThreads : Runtime.getRuntime().availableProcessors();
+        return new PooledPasswordEncoder(new BCryptPasswordEncoder(), threads, hashingQueueCapacity, hashingMaxWait, meterRegistry);
     }
 
     @Bean
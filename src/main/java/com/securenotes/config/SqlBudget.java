@@ -0,0 +1,18 @@
+package com.securenotes.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+//most SQL statements one request to this endpoint may run whatever the data, including the token and user lookups
+//of JWTAuthFilter when they miss the caches, see SqlBudgetFilter
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SqlBudget {
+
+    //still counted, for endpoints that work through their input in batches
+    int UNLIMITED = Integer.MAX_VALUE;
+
+    int value();
+}
@@ -0,0 +1,118 @@
+package com.securenotes.config;
+
+import com.securenotes.utils.SqlStatementCounter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+SQL statement budget per endpoint, the guard against N+1 queries coming back. Runs in front of the spring security
+chain, so the token and user lookups of JWTAuthFilter count towards the request too.
+Every request is counted by SqlStatementCounter, once it is mapped the interceptor gives it the @SqlBudget of its
+controller method, or securenotes.sql-budget.default. When the request is done the count goes to
+securenotes.sql.statements{handler} and going over the budget increments securenotes.sql.budget.exceeded{handler}
+and logs a warning with the count.
+With securenotes.sql-budget.strict=true the statement over the budget fails the request with a 500 instead, meant for
+the load test and local runs, not production.
+Statements of a StreamingResponseBody run after the request thread let go and are not counted.
+ */
+@Slf4j
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class SqlBudgetFilter extends OncePerRequestFilter implements WebMvcConfigurer {
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final boolean strict;
+    private final int defaultBudget;
+    private final ConcurrentMap<Method, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    public SqlBudgetFilter(MeterRegistry meterRegistry,
+                           @Value("${securenotes.sql-budget.enabled:true}") boolean enabled,
+                           @Value("${securenotes.sql-budget.strict:false}") boolean strict,
+                           @Value("${securenotes.sql-budget.default:10}") int defaultBudget) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.strict = strict;
+        this.defaultBudget = defaultBudget;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        if (!enabled) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        try (SqlStatementCounter.Scope scope = SqlStatementCounter.open(strict)) {
+            filterChain.doFilter(request, response);
+            if (scope.assigned()) {
+                Endpoint endpoint = endpoints.get(request.getAttribute(Endpoint.class.getName()));
+                endpoint.statements.record(scope.statements());
+                if (scope.exceeded()) {
+                    endpoint.exceeded.increment();
+                    log.warn("{} {} ran {} SQL statements, its budget is {}", request.getMethod(), request.getRequestURI(), scope.statements(), scope.budget());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                SqlStatementCounter.Scope scope = SqlStatementCounter.current();
+                if (scope != null && handler instanceof HandlerMethod handlerMethod) {
+                    Endpoint endpoint = endpoints.computeIfAbsent(handlerMethod.getMethod(), method -> new Endpoint(handlerMethod));
+                    request.setAttribute(Endpoint.class.getName(), handlerMethod.getMethod());
+                    scope.assign(endpoint.name, endpoint.budget);
+                }
+                return true;
+            }
+        });
+    }
+
+    private final class Endpoint {
+        private final String name;
+        private final int budget;
+        private final DistributionSummary statements;
+        private final Counter exceeded;
+
+        private Endpoint(HandlerMethod handlerMethod) {
+            this.name = handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName();
+            SqlBudget annotation = handlerMethod.getMethodAnnotation(SqlBudget.class);
+            this.budget = annotation != null ? annotation.value() : defaultBudget;
+            this.statements = DistributionSummary.builder("securenotes.sql.statements")
+                    .description("SQL statements run by one request")
+                    .tag("handler", name)
+                    .serviceLevelObjectives(1, 2, 3, 5, 8, 13, 21, 34, 55, 89)
+                    .register(meterRegistry);
+            this.exceeded = Counter.builder("securenotes.sql.budget.exceeded")
+                    .description("Requests that ran more SQL statements than the @SqlBudget of their endpoint")
+                    .tag("handler", name)
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.securenotes.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+/*
+A virtual thread that blocks inside a synchronized block (or a native frame) pins its carrier thread, and with
+only one carrier per core a few pinned threads can stall every request. The JavaMail SMTP transport synchronizes
+around its socket I/O, and older JDBC drivers do the same, so those are the paths to watch.
+This streams the JDK's jdk.VirtualThreadPinned JFR event in process, logs where the pinning happened and records
+it as a timer. Only active in virtual thread mode.
+ */
+@Component
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadPinningMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int LOGGED_FRAMES = 8;
+
+    private final Timer pinned;
+    private final Duration threshold;
+    private RecordingStream recordingStream;
+
+    public VirtualThreadPinningMonitor(MeterRegistry meterRegistry,
+                                       @Value("${securenotes.virtual-threads.pinning-threshold:20ms}") Duration threshold) {
+        this.threshold = threshold;
+        this.pinned = Timer.builder("securenotes.virtual.thread.pinned").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        recordingStream = new RecordingStream();
+        recordingStream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+        recordingStream.startAsync();
+        log.info("Watching for virtual threads pinned longer than {} ms", threshold.toMillis());
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinned.record(event.getDuration());
+        String frames = event.getStackTrace() == null ? "no stack trace" : event.getStackTrace().getFrames().stream()
+                .limit(LOGGED_FRAMES)
+                .map(this::frame)
+                .collect(Collectors.joining("\n\tat "));
+        log.warn("Virtual thread pinned its carrier for {} ms\n\tat {}", event.getDuration().toMillis(), frames);
+    }
+
+    private String frame(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recordingStream != null) {
+            recordingStream.close();
+        }
+    }
+}
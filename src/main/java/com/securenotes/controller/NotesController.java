@@ -1,96 +1,173 @@
 package com.securenotes.controller;
 
+import com.securenotes.config.SqlBudget;
 import com.securenotes.dto.CreateNoteRequest;
+import com.securenotes.dto.NoteImportResponse;
+import com.securenotes.dto.NoteUnlockResponse;
+import com.securenotes.dto.NoteView;
+import com.securenotes.dto.NotesPageResponse;
 import com.securenotes.dto.NotesResponse;
-import com.securenotes.model.Notes;
-import com.securenotes.model.User;
+import com.securenotes.model.UserPrincipal;
 import com.securenotes.repository.NotesRepository;
+import com.securenotes.service.ExportService;
+import com.securenotes.service.NoteImportService;
 import com.securenotes.service.NotesService;
-import com.securenotes.service.OurUserDetailService;
-import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.SecurityUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("notes")
 public class NotesController {
 
+    private static final String UNLOCK_TOKEN_HEADER = "X-Note-Unlock-Token";
+
     @Autowired
     NotesService notesService;
 
     @Autowired
-    OurUserDetailService ourUserDetailService;
+    ExportService exportService;
+
+    @Autowired
+    NoteImportService noteImportService;
 
     @PostMapping("/add")
+    @SqlBudget(8)
     public ResponseEntity<NotesResponse> addNote(@RequestBody CreateNoteRequest createNoteRequest) throws Exception {
-        Notes notes = notesService.addNote(createNoteRequest);
-        NotesResponse notesResponse = new NotesResponse();
-        notesResponse.setNotesId(notes.getNotesId());
-        notesResponse.setTitle(EncryptionUtil.decrypt(notes.getTitle()));
-        notesResponse.setDescription(EncryptionUtil.decrypt(notes.getDescription()));
-        notesResponse.setCreatedOn(notes.getCreatedOn());
-        notesResponse.setUpdatedOn(notes.getUpdatedOn());
+        NotesResponse notesResponse = notesService.addNote(createNoteRequest);
 
         return ResponseEntity.ok(notesResponse );
     }
 
     @GetMapping("/getAll")
-    public List<Notes> getAll(){
+    @SqlBudget(4)
+    public List<NoteView> getAll(){
         return notesService.getAllNotes();
     }
 
     @GetMapping("/getAllSecuredNotes")
-    public List<NotesResponse>getAllSecured(){
+    @SqlBudget(4)
+    public List<NoteView>getAllSecured(){
         return notesService.getAllSecuredNotes();
     }
 
+    @GetMapping("/list")
+    @SqlBudget(4)
+    public ResponseEntity<NotesPageResponse> list(@RequestParam(required = false) String cursor,
+                                                  @RequestParam(defaultValue = "20") int size) throws Exception {
+        return ResponseEntity.ok(notesService.getNotesPage(cursor, size, false));
+    }
+
+    @GetMapping("/listSecured")
+    @SqlBudget(4)
+    public ResponseEntity<NotesPageResponse> listSecured(@RequestParam(required = false) String cursor,
+                                                         @RequestParam(defaultValue = "20") int size) throws Exception {
+        return ResponseEntity.ok(notesService.getNotesPage(cursor, size, true));
+    }
+
     @GetMapping("/get/{id}")
-    public Notes getById(@PathVariable("id") int id) throws Exception {
+    @SqlBudget(4)
+    public NoteView getById(@PathVariable("id") int id) throws Exception {
         return notesService.getNoteById(id);
     }
 
     @DeleteMapping("/delete/{id}")
-    public ResponseEntity<Notes>deleteNote(@PathVariable("id")int id) throws Exception {
+    @SqlBudget(6)
+    public ResponseEntity<NoteView>deleteNote(@PathVariable("id")int id) throws Exception {
         return ResponseEntity.ok(notesService.delete(id));
     }
 
     @DeleteMapping("deleteSecureNote/{id}")
-    public ResponseEntity<Notes>deleteSecureNote(@PathVariable("id")int id, @RequestParam(required = true) String password) throws Exception {
+    @SqlBudget(6)
+    public ResponseEntity<NoteView>deleteSecureNote(@PathVariable("id")int id, @RequestParam(required = false) String password,
+                                                 @RequestHeader(value = UNLOCK_TOKEN_HEADER, required = false) String unlockToken) throws Exception {
 
-        return ResponseEntity.ok(notesService.deleteSecuredNote(id, password));
+        return ResponseEntity.ok(notesService.deleteSecuredNote(id, password, unlockToken));
     }
 
     @PutMapping("/update/{id}")
+    @SqlBudget(7)
     public ResponseEntity<NotesResponse>updateNote(@PathVariable("id")int id,  @RequestBody CreateNoteRequest createNoteRequest) throws Exception {
         return ResponseEntity.ok(notesService.update(id, createNoteRequest));
     }
 
     @PutMapping("updateSecureNote/{id}")
+    @SqlBudget(7)
     public ResponseEntity<NotesResponse>updateSecureNote(@PathVariable("id")int id,
-                                                 @RequestParam(required = true) String password,
+                                                 @RequestParam(required = false) String password,
+                                                 @RequestHeader(value = UNLOCK_TOKEN_HEADER, required = false) String unlockToken,
                                                  @RequestBody CreateNoteRequest createNoteRequest) throws Exception {
 
 
-        return ResponseEntity.ok(notesService.updateSecuredNote(id, password, createNoteRequest));
+        return ResponseEntity.ok(notesService.updateSecuredNote(id, password, unlockToken, createNoteRequest));
     }
 
     @PutMapping("/setpassword/{id}")
+    @SqlBudget(6)
     public ResponseEntity<NotesResponse> setPasswordForNote(@PathVariable int id, @RequestBody CreateNoteRequest createNoteRequest) throws Exception {
         return ResponseEntity.ok(notesService.setPasswordForNote(id,createNoteRequest));
     }
 
+    //checks the note password once, the returned unlock token can then be sent instead of the password
+    @PostMapping("/unlock/{id}")
+    @SqlBudget(4)
+    public ResponseEntity<NoteUnlockResponse> unlock(@PathVariable int id, @RequestParam String password) {
+        return ResponseEntity.ok(notesService.unlock(id, password));
+    }
+
     @GetMapping("/getByIdPassword/{id}")
-    public ResponseEntity<NotesResponse> getNoteByIdAndPassword(@PathVariable int id, @RequestParam String password) throws Exception {
-        return ResponseEntity.ok(notesService.getNoteByIdAndPassword(id, password));
+    @SqlBudget(4)
+    public ResponseEntity<NotesResponse> getNoteByIdAndPassword(@PathVariable int id, @RequestParam(required = false) String password,
+                                                                @RequestHeader(value = UNLOCK_TOKEN_HEADER, required = false) String unlockToken) throws Exception {
+        return ResponseEntity.ok(notesService.getNoteByIdAndPassword(id, password, unlockToken));
+    }
+
+    //all notes and tasks of the user as NDJSON, one object per line, streamed while it is read from the database
+    @GetMapping("/export")
+    @SqlBudget(4)
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "false") boolean gzip) {
+        //the body is written on another thread, without the security context
+        int userId = SecurityUtils.currentUser().getUserId();
+
+        StreamingResponseBody body = outputStream -> {
+            if (gzip) {
+                //syncFlush, so flushing the export pushes the compressed bytes out too
+                try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 8192, true)) {
+                    exportService.export(userId, gzipOutputStream);
+                }
+            } else {
+                exportService.export(userId, outputStream);
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"securenotes-export.ndjson" + (gzip ? ".gz\"" : "\""))
+                .body(body);
+    }
+
+    //bulk import, the body is a JSON array of notes or NDJSON (one note object per line) and is read as a stream
+    @PostMapping(value = "/import", consumes = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson"})
+    @SqlBudget(SqlBudget.UNLIMITED)
+    public ResponseEntity<NoteImportResponse> importNotes(InputStream inputStream) throws IOException {
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
+
+        return ResponseEntity.ok(noteImportService.importNotes(loggedInUser.getUserId(), inputStream));
     }
 
     @GetMapping("/search/{searchKey}")
+    @SqlBudget(5)
     public ResponseEntity<List<NotesResponse>>search(@PathVariable("searchKey")String searchKey) throws Exception {
-        User loggedInUser = (User)ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
 
         return ResponseEntity.ok(notesService.search(searchKey, loggedInUser.getUserId()));
     }
@@ -1,6 +1,8 @@
 package com.securenotes.controller;
 
+import com.securenotes.config.SqlBudget;
 import com.securenotes.dto.CreateTaskRequest;
+import com.securenotes.dto.TaskPageResponse;
 import com.securenotes.dto.TaskResponse;
 import com.securenotes.model.Tasks;
 import com.securenotes.service.TaskService;
@@ -18,6 +20,7 @@ public class TaskController {
     TaskService taskService;
 
     @PostMapping("/create")
+    @SqlBudget(5)
     public ResponseEntity<TaskResponse>createTask(@RequestBody CreateTaskRequest createTaskRequest){
         Tasks tasks = taskService.create(createTaskRequest);
         TaskResponse  taskResponse = TaskResponse.to(tasks);
@@ -25,6 +28,7 @@ public class TaskController {
     }
 
     @GetMapping("/getById/{id}")
+    @SqlBudget(4)
     public ResponseEntity<TaskResponse>getById(@PathVariable ("id")int id){
         Tasks tasks = taskService.getById(id);
         TaskResponse taskResponse = TaskResponse.to(tasks);
@@ -32,6 +36,7 @@ public class TaskController {
     }
 
     @GetMapping("/getAll")
+    @SqlBudget(4)
     public List<TaskResponse> getAll(){
         List<Tasks> tasks = taskService.getAllTasks();
         List<TaskResponse> taskResponse = TaskResponse.toList(tasks);
@@ -39,13 +44,25 @@ public class TaskController {
     }
 
     @GetMapping("/getByCompletion")
+    @SqlBudget(4)
     public List<TaskResponse>getTasksByCompletionStatus(@RequestParam(name = "isCompleted") boolean isCompleted){
         List<Tasks> tasks = taskService.getAllByCompletion(isCompleted);
         return TaskResponse.toList(tasks);
     }
 
+    //due = overdue | today | week, pass nextCursor back as cursor for the next page
+    @GetMapping("/list")
+    @SqlBudget(4)
+    public ResponseEntity<TaskPageResponse> list(@RequestParam(required = false) Boolean completed,
+                                                 @RequestParam(required = false) String due,
+                                                 @RequestParam(required = false) String cursor,
+                                                 @RequestParam(defaultValue = "20") int size){
+        return ResponseEntity.ok(taskService.getTasksPage(completed, due, cursor, size));
+    }
+
 
     @PutMapping("/update/{id}")
+    @SqlBudget(5)
     public ResponseEntity<TaskResponse> update(@PathVariable("id")int id, @RequestBody CreateTaskRequest createTaskRequest){
         Tasks tasks = taskService.getById(id);
         tasks = taskService.update(id,createTaskRequest);
@@ -54,6 +71,7 @@ public class TaskController {
     }
 
     @DeleteMapping("/delete/{id}")
+    @SqlBudget(5)
     public ResponseEntity<TaskResponse>delete(@PathVariable("id") int id){
         Tasks tasks = taskService.getById(id);
         tasks = taskService.delete(id);
@@ -62,6 +80,7 @@ public class TaskController {
     }
 
     @DeleteMapping("/delete/all")
+    @SqlBudget(4)
     public int deleteAll(){
         return taskService.deleteAll();
     }
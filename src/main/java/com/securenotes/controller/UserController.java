@@ -1,22 +1,27 @@
 package com.securenotes.controller;
 
+import com.securenotes.config.SqlBudget;
 import com.securenotes.dto.CreateUserRequest;
 import com.securenotes.dto.LoginRequest;
 import com.securenotes.dto.LoginResponse;
 import com.securenotes.dto.UserResponse;
+import com.securenotes.exceptions.HashingCapacityExceededException;
+import com.securenotes.exceptions.InvalidRefreshTokenException;
 import com.securenotes.model.User;
 import com.securenotes.repository.UserRepository;
 import com.securenotes.service.UserService;
 import com.securenotes.utils.EncryptionUtil;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.AuthenticationException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.logging.Logger;
@@ -24,8 +29,13 @@ import java.util.logging.Logger;
 @RestController
 @RequestMapping("/auth")
 public class UserController {
+
+    //optional client chosen id of the device, each device gets its own refresh token family
+    private static final String DEVICE_ID_HEADER = "X-Device-Id";
+    private static final int MAX_DEVICE_ID_LENGTH = 64;
+
     @Autowired
-    private BCryptPasswordEncoder passwordEncoder;
+    private PasswordEncoder passwordEncoder;
 
     @Autowired
     private UserRepository userRepository;
@@ -37,19 +47,24 @@ public class UserController {
     private UserService userService;
 
     @PostMapping("/signup")
+    @SqlBudget(6)
     public ResponseEntity<UserResponse>signUp(@RequestBody CreateUserRequest createUserRequest) throws Exception {
-        String encryptedEmail = EncryptionUtil.encrypt(createUserRequest.getEmail());
-        User existingUser = userRepository.findByEmail(encryptedEmail);
-        if(existingUser != null){
-            UserResponse userResponse = new UserResponse();
-            userResponse.setMessage("Email Already Exists!");
+        UserResponse userResponse = new UserResponse();
+        userResponse.setMessage("Email Already Exists!");
+        if(userService.emailExists(createUserRequest.getEmail())){
             return ResponseEntity.badRequest().body(userResponse);
         }
 
-        return ResponseEntity.ok(userService.create(createUserRequest));
+        try {
+            return ResponseEntity.ok(userService.create(createUserRequest));
+        } catch (DataIntegrityViolationException e) {
+            //a concurrent signup with the same address won the unique emailDigest index
+            return ResponseEntity.badRequest().body(userResponse);
+        }
     }
 
     @PutMapping("/verify-account")
+    @SqlBudget(4)
     public ResponseEntity<String> verifyAccount(@RequestParam String email,
                                                 @RequestParam String otp) throws Exception {
 
@@ -57,17 +72,19 @@ public class UserController {
     }
 
     @PutMapping("/regenerate-otp")
+    @SqlBudget(5)
     public ResponseEntity<String> regenerateOtp(@RequestParam String email) throws Exception {
         return ResponseEntity.ok(userService.regenerateOtp(email));
     }
 
     @PostMapping("/login")
-    public ResponseEntity<LoginResponse> login(@RequestBody LoginRequest loginRequest) {
+    @SqlBudget(7)
+    public ResponseEntity<LoginResponse> login(@RequestBody LoginRequest loginRequest,
+                                               @RequestHeader(value = DEVICE_ID_HEADER, required = false) String deviceId) {
         LoginResponse loginResponse = new LoginResponse();
         try {
-            // Encrypt the email for lookup
-            String encryptedEmail = EncryptionUtil.encrypt(loginRequest.getEmail().toLowerCase());
-            User user = userRepository.findByEmail(encryptedEmail);
+            // Look up the user by email digest
+            User user = userService.findByEmail(loginRequest.getEmail());
 
             // Check if the user is active
             if (!user.isActive()) {
@@ -77,13 +94,16 @@ public class UserController {
             }
 
             // Authenticate user credentials
-            authenticateUser(encryptedEmail, loginRequest.getPassword());
+            authenticateUser(user.getUsername(), loginRequest.getPassword());
 
             // Process login and return response
-            return ResponseEntity.ok(userService.login(loginRequest));
+            return ResponseEntity.ok(userService.login(loginRequest, normalizeDeviceId(deviceId)));
         } catch (AuthenticationException e) {
             loginResponse.setMessage("Invalid email or password.");
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(loginResponse);
+        } catch (HashingCapacityExceededException e) {
+            loginResponse.setMessage(e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").body(loginResponse);
         } catch (Exception e) {
 
             loginResponse.setMessage("An unexpected error occurred. Please try again later.");
@@ -91,10 +111,34 @@ public class UserController {
         }
     }
 
+    //new access and refresh token for a refresh token from login or an earlier refresh, without the password
+    @PostMapping("/refresh")
+    @SqlBudget(5)
+    public ResponseEntity<LoginResponse> refresh(@RequestBody LoginRequest loginRequest) {
+        LoginResponse loginResponse = new LoginResponse();
+        if (loginRequest.getRefreshToken() == null || loginRequest.getRefreshToken().isBlank()) {
+            loginResponse.setMessage("Refresh token is required.");
+            return ResponseEntity.badRequest().body(loginResponse);
+        }
+        try {
+            return ResponseEntity.ok(userService.refresh(loginRequest.getRefreshToken()));
+        } catch (InvalidRefreshTokenException e) {
+            loginResponse.setMessage(e.getMessage());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(loginResponse);
+        }
+    }
+
     private void authenticateUser(String email, String password) throws AuthenticationException {
         authenticationManager.authenticate(new UsernamePasswordAuthenticationToken(email, password));
     }
 
+    private static String normalizeDeviceId(String deviceId) {
+        if (deviceId == null || deviceId.isBlank() || deviceId.length() > MAX_DEVICE_ID_LENGTH) {
+            return null;
+        }
+        return deviceId.trim();
+    }
+
 //    @PostMapping("/login")
 //    public ResponseEntity<LoginResponse>login(@RequestBody LoginRequest loginRequest) throws Exception {
 //        String encryptedEmail = EncryptionUtil.encrypt(loginRequest.getEmail());
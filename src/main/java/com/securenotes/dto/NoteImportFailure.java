@@ -0,0 +1,16 @@
+package com.securenotes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class NoteImportFailure {
+    private int batch;
+    //1 based position of the first affected row in the uploaded stream
+    private long firstRow;
+    private int rows;
+    private String error;
+}
@@ -0,0 +1,20 @@
+package com.securenotes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class NoteImportResponse {
+    private long imported;
+    private long failed;
+    private int batches;
+    private long elapsedMillis;
+    private double rowsPerSecond;
+    //only the first securenotes.import.max-reported-failures are listed, failed still counts all of them
+    private List<NoteImportFailure> failures;
+}
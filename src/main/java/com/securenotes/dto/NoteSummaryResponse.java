@@ -0,0 +1,52 @@
+package com.securenotes.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.securenotes.repository.NoteSummary;
+import com.securenotes.utils.EncryptionUtil;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@JsonInclude(value = JsonInclude.Include.NON_NULL)
+public class NoteSummaryResponse {
+    public static final int PREVIEW_LENGTH = 120;
+
+    private int notesId;
+    private String title;
+    private String preview;
+    private boolean secured;
+    private Date createdOn;
+    private Date updatedOn;
+
+    //secured notes only show their title, the preview stays encrypted
+    public static NoteSummaryResponse to(NoteSummary noteSummary) throws Exception {
+        return NoteSummaryResponse.builder()
+                .notesId(noteSummary.getNotesId())
+                .title(EncryptionUtil.decrypt(noteSummary.getTitle()))
+                .preview(noteSummary.isSecured() || noteSummary.getPreview() == null
+                        ? null : EncryptionUtil.decrypt(noteSummary.getPreview()))
+                .secured(noteSummary.isSecured())
+                .createdOn(noteSummary.getCreatedOn())
+                .updatedOn(noteSummary.getUpdatedOn())
+                .build();
+    }
+
+    public static String previewOf(String description) {
+        if (description == null) {
+            return "";
+        }
+        int end = Math.min(description.length(), PREVIEW_LENGTH);
+        //don't cut a surrogate pair in half
+        if (end < description.length() && Character.isHighSurrogate(description.charAt(end - 1))) {
+            end--;
+        }
+        return description.substring(0, end);
+    }
+}
@@ -0,0 +1,19 @@
+package com.securenotes.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(value = JsonInclude.Include.NON_NULL)
+public class NoteUnlockResponse {
+    private int notesId;
+    //send back in the X-Note-Unlock-Token header instead of the note password
+    private String unlockToken;
+    private Date expiresAt;
+}
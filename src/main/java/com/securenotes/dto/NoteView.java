@@ -0,0 +1,98 @@
+package com.securenotes.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.securenotes.model.Notes;
+import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.NoteCodec;
+
+import java.util.Date;
+
+/*
+Before: notes were decrypted field by field up front (and the entity overwritten with plaintext) whether or not the
+field ended up in the response. Locked notes had their description decrypted and then encrypted again just to
+return ciphertext.
+After: a view over the encrypted entity. title and description are decrypted the first time their getter is called
+and the result is kept, so serializing only decrypts what is actually written out. The description of a locked note
+is never decrypted or returned. Only notes whose password was checked are created with unlocked().
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"notesId", "title", "description", "secured", "message", "createdOn", "updatedOn"})
+public class NoteView {
+
+    private final Notes notes;
+    private final boolean unlocked;
+    private String title;
+    private String description;
+    private String message;
+
+    private NoteView(Notes notes, boolean unlocked, String title, String description) {
+        this.notes = notes;
+        this.unlocked = unlocked;
+        this.title = title;
+        this.description = description;
+    }
+
+    public static NoteView of(Notes notes) {
+        return new NoteView(notes, false, null, null);
+    }
+
+    //the caller already checked the note password, the description of a secured note is readable too
+    public static NoteView unlocked(Notes notes) {
+        return new NoteView(notes, true, null, null);
+    }
+
+    //plaintext the caller already has (just decrypted or cached), nothing is decrypted again
+    public static NoteView of(Notes notes, String title, String description) {
+        return new NoteView(notes, false, title, description);
+    }
+
+    public int getNotesId() {
+        return notes.getNotesId();
+    }
+
+    public String getTitle() {
+        if (title == null && notes.getTitle() != null) {
+            try {
+                title = EncryptionUtil.decrypt(notes.getTitle());
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to decrypt the title of note " + notes.getNotesId(), e);
+            }
+        }
+        return title;
+    }
+
+    public String getDescription() {
+        if (isSecured() && !unlocked) {
+            return null;
+        }
+        if (description == null) {
+            try {
+                description = NoteCodec.readDescription(notes);
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to decrypt the description of note " + notes.getNotesId(), e);
+            }
+        }
+        return description;
+    }
+
+    public boolean isSecured() {
+        return notes.getPassword() != null && !notes.getPassword().isEmpty();
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public Date getCreatedOn() {
+        return notes.getCreatedOn();
+    }
+
+    public Date getUpdatedOn() {
+        return notes.getUpdatedOn();
+    }
+}
@@ -3,6 +3,7 @@ package com.securenotes.dto;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.securenotes.model.Notes;
 import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.NoteCodec;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -43,7 +44,7 @@ public class NotesResponse {
         return NotesResponse.builder()
                 .notesId(notes.getNotesId())
                 .title(EncryptionUtil.decrypt(notes.getTitle()))
-                .description(EncryptionUtil.decrypt(notes.getDescription()))
+                .description(NoteCodec.readDescription(notes))
                 .createdOn(notes.getCreatedOn())
                 .updatedOn(notes.getUpdatedOn())
                 .build();
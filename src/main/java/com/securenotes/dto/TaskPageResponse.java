@@ -0,0 +1,18 @@
+package com.securenotes.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(value = JsonInclude.Include.NON_NULL)
+public class TaskPageResponse {
+    private List<TaskResponse> tasks;
+    //pass back as ?cursor= to get the next page, null on the last page
+    private String nextCursor;
+}
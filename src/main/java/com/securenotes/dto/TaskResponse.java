@@ -10,6 +10,7 @@ import java.util.List;
 
 @Data
 public class TaskResponse {
+    private int taskId;
     private String title;
     private String description;
     private boolean completed;
@@ -18,6 +19,7 @@ public class TaskResponse {
 
      public static TaskResponse to(Tasks task){
         TaskResponse taskDTO =  new TaskResponse();
+        taskDTO.setTaskId(task.getTaskId());
         taskDTO.setTitle(task.getTitle());
         taskDTO.setDescription(task.getDescription());
         taskDTO.setCompleted(task.isCompleted());
@@ -0,0 +1,45 @@
+package com.securenotes.exceptions;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+//responses are written here directly, an error dispatch to /error would be turned into a 403 by spring security
+@RestControllerAdvice
+public class ApiExceptionHandler {
+
+    @ExceptionHandler(HashingCapacityExceededException.class)
+    public ResponseEntity<String> hashingCapacityExceeded(HashingCapacityExceededException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(e.getMessage());
+    }
+
+    //an import runs for seconds to minutes, no point in retrying right away
+    @ExceptionHandler(ImportCapacityExceededException.class)
+    public ResponseEntity<String> importCapacityExceeded(ImportCapacityExceededException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "10")
+                .body(e.getMessage());
+    }
+
+    @ExceptionHandler(UnlockCapacityExceededException.class)
+    public ResponseEntity<String> unlockCapacityExceeded(UnlockCapacityExceededException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.getMessage());
+    }
+
+    @ExceptionHandler(NoteTooLargeException.class)
+    public ResponseEntity<String> noteTooLarge(NoteTooLargeException e) {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(e.getMessage());
+    }
+
+    //only thrown with securenotes.sql-budget.strict=true
+    @ExceptionHandler(SqlBudgetExceededException.class)
+    public ResponseEntity<String> sqlBudgetExceeded(SqlBudgetExceededException e) {
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+    }
+}
@@ -0,0 +1,7 @@
+package com.securenotes.exceptions;
+
+public class ImportCapacityExceededException extends RuntimeException {
+    public ImportCapacityExceededException(String message) {
+        super(message);
+    }
+}
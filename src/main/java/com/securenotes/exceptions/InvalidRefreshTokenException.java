@@ -0,0 +1,7 @@
+package com.securenotes.exceptions;
+
+public class InvalidRefreshTokenException extends RuntimeException {
+    public InvalidRefreshTokenException(String message) {
+        super(message);
+    }
+}
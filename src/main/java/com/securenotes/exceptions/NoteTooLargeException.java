@@ -0,0 +1,7 @@
+package com.securenotes.exceptions;
+
+public class NoteTooLargeException extends RuntimeException {
+    public NoteTooLargeException(String message) {
+        super(message);
+    }
+}
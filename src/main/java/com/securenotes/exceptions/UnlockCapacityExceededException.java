@@ -0,0 +1,15 @@
+package com.securenotes.exceptions;
+
+public class UnlockCapacityExceededException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public UnlockCapacityExceededException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
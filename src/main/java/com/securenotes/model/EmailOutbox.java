@@ -0,0 +1,40 @@
+package com.securenotes.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Data
+@Table(indexes = @Index(name = "idx_email_outbox_due", columnList = "status, nextAttemptAt, emailOutboxId"))
+public class EmailOutbox {
+
+    public enum Status {
+        PENDING,
+        //gave up after the max number of attempts, kept for inspection instead of being retried forever
+        DEAD
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long emailOutboxId;
+
+    //recipient and body are stored encrypted, the body contains the otp
+    @Column(length = 512)
+    private String recipient;
+    private String subject;
+    @Column(length = 8192)
+    private String body;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private Status status;
+
+    private int attempts;
+    private LocalDateTime createdAt;
+    private LocalDateTime nextAttemptAt;
+
+    @Column(length = 512)
+    private String lastError;
+}
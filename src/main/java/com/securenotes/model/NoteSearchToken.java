@@ -0,0 +1,35 @@
+package com.securenotes.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//one row per (note, hashed term) - no plaintext terms are ever stored
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(indexes = {
+        @Index(name = "idx_search_token_user_hash", columnList = "userId, tokenHash"),
+        @Index(name = "idx_search_token_notes", columnList = "notesId")
+})
+public class NoteSearchToken {
+    //a note has dozens of terms and prefixes, so token ids are allocated in bigger blocks than note ids
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "note_search_token_id")
+    @TableGenerator(name = "note_search_token_id", table = "id_generator", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "note_search_token", allocationSize = 500)
+    private long searchTokenId;
+
+    private int notesId;
+
+    private int userId;
+
+    @Column(length = 22, nullable = false)
+    private String tokenHash;
+}
@@ -1,29 +1,52 @@
 package com.securenotes.model;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.securenotes.config.SecondLevelCacheConfig;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
 import java.util.Date;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = SecondLevelCacheConfig.NOTES)
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
+@Table(indexes = @Index(name = "idx_notes_user_updated", columnList = "userId, updatedOn, notesId"))
 public class Notes {
+    //table generated ids are handed out in blocks of 50 without a round trip, unlike IDENTITY they let hibernate
+    //batch the inserts. IdGeneratorSeeder moves the counter past the ids that were generated with IDENTITY before
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "notes_id")
+    @TableGenerator(name = "notes_id", table = "id_generator", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "notes", allocationSize = 50)
     private int notesId;
 
+    //ciphertext of a 255 char title plus the data key header, needs more than the default 255
+    @Column(length = 512)
     private String title;
+    //only rows written before descriptionData existed keep the Base64 ciphertext here, see NoteCodec
     @Column(length = 60000)
     private String description;
 
+    //NoteCodec envelope: header byte + AES of the (usually DEFLATE compressed) description, stored as raw bytes
+    @JsonIgnore
+    @Column(length = 262144)
+    private byte[] descriptionData;
+
+    //encrypted start of the description, so list views don't have to fetch and decrypt the whole body
+    @Column(length = 1024)
+    private String preview;
+
     @CreationTimestamp
     private Date createdOn;
 
@@ -33,5 +56,8 @@ public class Notes {
     private int userId;
     private String password;
 
+    //generation of the owner's data key title, description and preview are encrypted with, null for the hard-coded key
+    private Integer keyGeneration;
+
 
 }
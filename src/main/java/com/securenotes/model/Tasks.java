@@ -1,11 +1,14 @@
 package com.securenotes.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.securenotes.config.SecondLevelCacheConfig;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -14,10 +17,13 @@ import java.time.LocalDateTime;
 import java.util.Date;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = SecondLevelCacheConfig.TASKS)
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
+@Table(indexes = @Index(name = "idx_tasks_user_completed_due", columnList = "userId, completed, dueDate, taskId"))
 public class Tasks {
 
     @Id
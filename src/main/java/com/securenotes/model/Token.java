@@ -3,16 +3,27 @@ package com.securenotes.model;
 import jakarta.persistence.*;
 import lombok.Data;
 
+import java.time.LocalDateTime;
+
 @Entity
 @Data
+@Table(indexes = {
+        @Index(name = "ux_token_hash", columnList = "tokenHash", unique = true),
+        @Index(name = "idx_token_expires_at", columnList = "expiresAt"),
+        @Index(name = "idx_token_refresh_hash", columnList = "refreshTokenHash"),
+        @Index(name = "idx_token_family", columnList = "family")
+})
 public class Token {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private int tokenId;
 
-    private String token;
-    private String refreshToken;
+    //SHA-256 hex of the jwt - the raw tokens are never stored, and the fixed width digest keeps the lookup index small
+    @Column(length = 64)
+    private String tokenHash;
+    @Column(length = 64)
+    private String refreshTokenHash;
 
     @ManyToOne//many tokens can be generated by a user
     @JoinColumn(name="userId")//foreign key
@@ -20,4 +31,17 @@ public class Token {
 
     private boolean isLoggedOut;
 
+    private LocalDateTime expiresAt;
+
+    //one row per login session: /auth/refresh replaces both hashes in place, so the family id stays the same
+    //while the tokens rotate (see UserService.refresh)
+    @Column(length = 36)
+    private String family;
+
+    //X-Device-Id sent on login, a new login on the same device ends that device's previous session only
+    @Column(length = 64)
+    private String deviceId;
+
+    private LocalDateTime refreshExpiresAt;
+
 }
@@ -1,9 +1,12 @@
 package com.securenotes.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.securenotes.config.SecondLevelCacheConfig;
 import jakarta.annotation.Nullable;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 import org.springframework.security.core.GrantedAuthority;
@@ -18,6 +21,8 @@ import java.util.Date;
 import java.util.List;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = SecondLevelCacheConfig.USERS)
 @Getter
 @Setter
 @NoArgsConstructor
@@ -25,6 +30,7 @@ import java.util.List;
 @Builder
 //@JsonIgnoreProperties("tokens")
 //@Table(name = "users")
+@Table(indexes = @Index(name = "ux_user_email_digest", columnList = "emailDigest", unique = true))
 public class User  implements UserDetails {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -33,9 +39,17 @@ public class User  implements UserDetails {
     @Column(nullable = false)
     private String name;
 
-    @Column(nullable = false, unique = true)
+    //randomized encryption, lookups go through emailDigest
+    @Column(nullable = false)
     private String email;
 
+    //keyed HMAC of the normalized email (BlindIndexUtil.emailDigest), also the username in tokens
+    @Column(length = 43)
+    private String emailDigest;
+
+    //generation of the system data key name and email are encrypted with, null for the hard-coded key
+    private Integer keyGeneration;
+
     private String role;
 
     private String otp;
@@ -64,7 +78,8 @@ public class User  implements UserDetails {
 
     @Override
     public String getUsername(){
-        return email;
+        //rows from before the digest column keep the old email ciphertext as username until they are migrated
+        return emailDigest != null ? emailDigest : email;
     }
 
     @Override
@@ -0,0 +1,31 @@
+package com.securenotes.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.util.Date;
+
+//a data key of one owner (a user, or EncryptionUtil.SYSTEM_OWNER), stored only wrapped by a master key
+@Entity
+@Data
+@Table(indexes = @Index(name = "ux_user_key_owner_generation", columnList = "ownerId, generation", unique = true))
+public class UserKey {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long userKeyId;
+
+    private int ownerId;
+
+    private int generation;
+
+    //iv + AES/GCM of the data key under the master key, the owner and generation are authenticated with it
+    @Column(length = 64, nullable = false)
+    private byte[] wrappedKey;
+
+    //id of the master key in MasterKeyRing that wrapped it
+    @Column(length = 64, nullable = false)
+    private String masterKeyId;
+
+    private Date createdOn;
+}
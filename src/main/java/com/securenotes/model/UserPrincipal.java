@@ -0,0 +1,48 @@
+package com.securenotes.model;
+
+import lombok.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.List;
+
+//immutable snapshot of a User kept in the security context and the user cache, so the JPA entity (and its lazy
+//tokens collection) never leaves the persistence layer with the request
+@Value
+public class UserPrincipal implements UserDetails {
+    int userId;
+    String username;
+    String password;
+    String role;
+
+    public static UserPrincipal from(User user) {
+        return new UserPrincipal(user.getUserId(), user.getUsername(), user.getPassword(), user.getRole());
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return List.of(new SimpleGrantedAuthority(role));
+    }
+
+    @Override
+    public boolean isAccountNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isAccountNonLocked() {
+        return true;
+    }
+
+    @Override
+    public boolean isCredentialsNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+}
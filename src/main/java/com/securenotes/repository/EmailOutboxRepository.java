@@ -0,0 +1,20 @@
+package com.securenotes.repository;
+
+import com.securenotes.model.EmailOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface EmailOutboxRepository extends JpaRepository<EmailOutbox, Long> {
+
+    @Query("select e from EmailOutbox e where e.status = :status and e.nextAttemptAt <= :now order by e.emailOutboxId")
+    List<EmailOutbox> findDue(EmailOutbox.Status status, LocalDateTime now, Pageable pageable);
+
+    long countByStatus(EmailOutbox.Status status);
+
+    @Query("select min(e.createdAt) from EmailOutbox e where e.status = :status")
+    LocalDateTime findOldestCreatedAt(EmailOutbox.Status status);
+}
@@ -0,0 +1,10 @@
+package com.securenotes.repository;
+
+//a note whose description is still stored as a Base64 string, see NoteStorageMigrationService
+public interface LegacyNoteDescription {
+    int getNotesId();
+
+    int getUserId();
+
+    String getDescription();
+}
@@ -0,0 +1,28 @@
+package com.securenotes.repository;
+
+import com.securenotes.model.NoteSearchToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface NoteSearchTokenRepository extends JpaRepository<NoteSearchToken, Long> {
+
+    //ids of the notes that contain every one of the given hashed terms
+    @Query("select t.notesId from NoteSearchToken t where t.userId = :userId and t.tokenHash in :tokenHashes " +
+            "group by t.notesId having count(distinct t.tokenHash) = :tokenCount")
+    List<Integer> findNotesIdsMatchingAll(int userId, Collection<String> tokenHashes, long tokenCount);
+
+    @Query("select coalesce(max(t.searchTokenId), 0) from NoteSearchToken t")
+    long findMaxSearchTokenId();
+
+    @Transactional
+    @Modifying
+    @Query("delete from NoteSearchToken t where t.notesId = :notesId")
+    int deleteAllByNotesId(int notesId);
+}
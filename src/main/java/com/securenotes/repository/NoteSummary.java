@@ -0,0 +1,18 @@
+package com.securenotes.repository;
+
+import java.util.Date;
+
+//list view of a note - title and preview are still encrypted, the description is never fetched
+public interface NoteSummary {
+    int getNotesId();
+
+    String getTitle();
+
+    String getPreview();
+
+    boolean isSecured();
+
+    Date getCreatedOn();
+
+    Date getUpdatedOn();
+}
@@ -1,15 +1,21 @@
 package com.securenotes.repository;
 
 import com.securenotes.model.Notes;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 @Repository
 public interface NotesRepository extends JpaRepository<Notes, Integer> {
-    Notes findByNotesId(int notesId);
+    //em.find underneath, so a note read recently comes from the second-level cache instead of a select
+    default Notes findByNotesId(int notesId) {
+        return findById(notesId).orElse(null);
+    }
 
     @Query("SELECT n FROM Notes n WHERE n.userId = :loggedInUserId and (n.password IS NULL or n.password = '')" )
     List<Notes> findAllNotesWithoutPasswordByUserId(int loggedInUserId);
@@ -22,6 +28,44 @@ public interface NotesRepository extends JpaRepository<Notes, Integer> {
     @Query("select n from Notes n where n.userId = :userId ")
     List<Notes> findAllNotesByUserId(int userId);
 
+    @Query("select n from Notes n where n.userId = :loggedInUserId and n.notesId in :notesIds " +
+            "and (n.password is null or n.password = '') order by n.notesId")
+    List<Notes> findAllNotesWithoutPasswordByUserIdAndNotesIdIn(int loggedInUserId, Collection<Integer> notesIds);
+
+    //unsecured notes that have no search index entries yet
+    @Query("select n from Notes n where n.notesId > :afterNotesId and (n.password is null or n.password = '') " +
+            "and not exists (select t.searchTokenId from NoteSearchToken t where t.notesId = n.notesId) order by n.notesId")
+    List<Notes> findUnindexedNotes(int afterNotesId, Pageable pageable);
+
+    //keyset pages over (userId, updatedOn, notesId), newest first - the first page and the pages after a cursor
+    @Query("select n.notesId as notesId, n.title as title, n.preview as preview, n.createdOn as createdOn, n.updatedOn as updatedOn, " +
+            "case when (n.password is null or n.password = '') then false else true end as secured " +
+            "from Notes n where n.userId = :userId " +
+            "and (:securedOnly = false or (n.password is not null and n.password != '')) " +
+            "order by n.updatedOn desc, n.notesId desc")
+    List<NoteSummary> findNoteSummaries(int userId, boolean securedOnly, Pageable pageable);
+
+    @Query("select n.notesId as notesId, n.title as title, n.preview as preview, n.createdOn as createdOn, n.updatedOn as updatedOn, " +
+            "case when (n.password is null or n.password = '') then false else true end as secured " +
+            "from Notes n where n.userId = :userId " +
+            "and (n.updatedOn < :updatedOn or (n.updatedOn = :updatedOn and n.notesId < :notesId)) " +
+            "and (:securedOnly = false or (n.password is not null and n.password != '')) " +
+            "order by n.updatedOn desc, n.notesId desc")
+    List<NoteSummary> findNoteSummariesAfter(int userId, boolean securedOnly, Date updatedOn, int notesId, Pageable pageable);
+
+    //descriptions that are still Base64 strings, oldest first
+    @Query("select n.notesId as notesId, n.userId as userId, n.description as description from Notes n " +
+            "where n.notesId > :afterNotesId and n.descriptionData is null and n.description is not null order by n.notesId")
+    List<LegacyNoteDescription> findLegacyDescriptions(int afterNotesId, Pageable pageable);
+
+    //notes with at least one field encrypted with an older data key than the owner's newest (null is the hard-coded key)
+    @Query("select n from Notes n where n.notesId > :afterNotesId and coalesce(n.keyGeneration, 0) < " +
+            "coalesce((select max(k.generation) from UserKey k where k.ownerId = n.userId), 1) order by n.notesId")
+    List<Notes> findNotesWithStaleKey(int afterNotesId, Pageable pageable);
+
+    @Query("select coalesce(max(n.notesId), 0) from Notes n")
+    long findMaxNotesId();
+
     //The % appended to the :title acts as a wildcard,
     //allowing matches where the search term appears anywhere in the title.
 
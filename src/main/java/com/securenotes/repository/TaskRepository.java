@@ -1,12 +1,14 @@
 package com.securenotes.repository;
 
 import com.securenotes.model.Tasks;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
 import java.util.List;
 
 @Repository
@@ -20,6 +22,30 @@ public interface TaskRepository extends JpaRepository<Tasks, Integer> {
     @Query("delete from Tasks where user.userId = :userId")
     int deleteAllTasksByUserId(int userId);
 
-    @Query("select t from Tasks t where t.completed = :completed")
-    List<Tasks> findAllByIsCompleted(boolean completed);
+    @Query("select t from Tasks t where t.user.userId = :userId and t.completed = :completed")
+    List<Tasks> findAllByUserIdAndCompleted(int userId, boolean completed);
+
+    //keyset pages over (userId, completed, dueDate, taskId), tasks without a due date first and then by due date.
+    //completed and the due range [dueFrom, dueBefore) are optional, null means no filter
+    String TASK_PAGE_FILTER = "where t.user.userId = :userId " +
+            "and (:completed is null or t.completed = :completed) " +
+            "and (:dueFrom is null or t.dueDate >= :dueFrom) " +
+            "and (:dueBefore is null or t.dueDate < :dueBefore) ";
+    //nulls first is spelled out, the undated cursor query depends on it. It is what MySQL and H2 do anyway, so
+    //hibernate renders no emulation for it and the index still delivers the rows in order
+    String TASK_PAGE_ORDER = "order by t.dueDate asc nulls first, t.taskId asc";
+
+    @Query("select t from Tasks t " + TASK_PAGE_FILTER + TASK_PAGE_ORDER)
+    List<Tasks> findTaskPage(int userId, Boolean completed, LocalDate dueFrom, LocalDate dueBefore, Pageable pageable);
+
+    //next page when the cursor is still among the tasks without a due date
+    @Query("select t from Tasks t " + TASK_PAGE_FILTER +
+            "and (t.dueDate is not null or t.taskId > :taskId) " + TASK_PAGE_ORDER)
+    List<Tasks> findTaskPageAfterUndated(int userId, Boolean completed, LocalDate dueFrom, LocalDate dueBefore,
+                                         int taskId, Pageable pageable);
+
+    @Query("select t from Tasks t " + TASK_PAGE_FILTER +
+            "and (t.dueDate > :dueDate or (t.dueDate = :dueDate and t.taskId > :taskId)) " + TASK_PAGE_ORDER)
+    List<Tasks> findTaskPageAfter(int userId, Boolean completed, LocalDate dueFrom, LocalDate dueBefore,
+                                  LocalDate dueDate, int taskId, Pageable pageable);
 }
@@ -1,9 +1,13 @@
 package com.securenotes.repository;
 
 import com.securenotes.model.Token;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,5 +16,33 @@ public interface TokenRepository extends JpaRepository<Token, Integer>  {
     @Query("select t from Token t inner join user u on t.user.id = u.id where t.user.id = :userId and t.isLoggedOut = false")
     List<Token> findAllTokenByUser(int userId);
 
-    Optional<Token> findByToken(String token);
+    @Query("select t from Token t where t.user.id = :userId and t.deviceId = :deviceId and t.isLoggedOut = false")
+    List<Token> findAllTokenByUserAndDevice(int userId, String deviceId);
+
+    @Query("select t from Token t where t.family = :family and t.isLoggedOut = false")
+    List<Token> findAllTokenByFamily(String family);
+
+    Optional<Token> findByTokenHash(String tokenHash);
+
+    Optional<Token> findByRefreshTokenHash(String refreshTokenHash);
+
+    //swaps in the next token pair, only if the row still holds the refresh token that was presented -
+    //of two concurrent refreshes with the same token exactly one gets 1 back
+    @Transactional
+    @Modifying
+    @Query("update Token t set t.tokenHash = :tokenHash, t.refreshTokenHash = :refreshTokenHash, t.expiresAt = :expiresAt, " +
+            "t.refreshExpiresAt = :refreshExpiresAt where t.tokenId = :tokenId and t.refreshTokenHash = :previousRefreshTokenHash " +
+            "and t.isLoggedOut = false")
+    int rotate(int tokenId, String previousRefreshTokenHash, String tokenHash, String refreshTokenHash,
+               LocalDateTime expiresAt, LocalDateTime refreshExpiresAt);
+
+    @Transactional
+    @Modifying
+    @Query("update Token t set t.isLoggedOut = true where t.tokenId in :tokenIds")
+    int logOut(List<Integer> tokenIds);
+
+    //rows that can never authenticate or refresh again - logged out, expired, or written before tokens were stored hashed
+    @Query("select t.tokenId from Token t where t.isLoggedOut = true or t.tokenHash is null " +
+            "or coalesce(t.refreshExpiresAt, t.expiresAt) < :now")
+    List<Integer> findPurgeableTokenIds(LocalDateTime now, Pageable pageable);
 }
@@ -0,0 +1,8 @@
+package com.securenotes.repository;
+
+//only what the signup Bloom filter needs when it is rebuilt
+public interface UserEmailDigest {
+    int getUserId();
+
+    String getEmailDigest();
+}
@@ -0,0 +1,27 @@
+package com.securenotes.repository;
+
+import com.securenotes.model.UserKey;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.Date;
+import java.util.List;
+
+public interface UserKeyRepository extends JpaRepository<UserKey, Long> {
+
+    UserKey findByOwnerIdAndGeneration(int ownerId, int generation);
+
+    UserKey findFirstByOwnerIdOrderByGenerationDesc(int ownerId);
+
+    List<UserKey> findAllByOwnerId(int ownerId);
+
+    //keys still wrapped by another master key than the current one
+    @Query("select k from UserKey k where k.userKeyId > :afterUserKeyId and k.masterKeyId <> :masterKeyId order by k.userKeyId")
+    List<UserKey> findWrappedByOtherMasterKey(long afterUserKeyId, String masterKeyId, Pageable pageable);
+
+    //owners whose newest key was created before the cutoff
+    @Query("select k.ownerId from UserKey k where k.ownerId > :afterOwnerId group by k.ownerId " +
+            "having max(k.createdOn) < :cutoff order by k.ownerId")
+    List<Integer> findOwnersWithKeysCreatedBefore(int afterOwnerId, Date cutoff, Pageable pageable);
+}
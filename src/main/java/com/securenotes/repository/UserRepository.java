@@ -1,13 +1,42 @@
 package com.securenotes.repository;
 
 import com.securenotes.model.User;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface UserRepository extends JpaRepository<User,Integer> {
 
-    User findById(int id);
+    //by id through the second-level cache, a derived query would always go to the database
+    default User findById(int id) {
+        return findById(Integer.valueOf(id)).orElse(null);
+    }
 
+    //only for rows that have no emailDigest yet
     User findByEmail(String email);
+
+    //login, otp and token checks look users up by digest, the user table is written rarely enough for the query cache
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    User findByEmailDigest(String emailDigest);
+
+    boolean existsByEmailDigest(String emailDigest);
+
+    @Query("select u from User u where u.emailDigest is null and u.userId > :afterUserId order by u.userId")
+    List<User> findUsersWithoutEmailDigest(int afterUserId, Pageable pageable);
+
+    //users whose name and email are encrypted with an older system data key (null is the hard-coded key)
+    @Query("select u from User u where u.emailDigest is not null and coalesce(u.keyGeneration, 0) < :generation " +
+            "and u.userId > :afterUserId order by u.userId")
+    List<User> findUsersWithStaleKey(int generation, int afterUserId, Pageable pageable);
+
+    @Query("select u.userId as userId, u.emailDigest as emailDigest from User u " +
+            "where u.emailDigest is not null and u.userId > :afterUserId order by u.userId")
+    List<UserEmailDigest> findEmailDigests(int afterUserId, Pageable pageable);
 }
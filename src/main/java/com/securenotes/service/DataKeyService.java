@@ -0,0 +1,227 @@
+package com.securenotes.service;
+
+import com.securenotes.model.UserKey;
+import com.securenotes.repository.UserKeyRepository;
+import com.securenotes.utils.DataKey;
+import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.KeyResolver;
+import com.securenotes.utils.MasterKeyRing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Hands out the per owner data keys EncryptionUtil encrypts with. A data key is a random 256 bit AES key that is only
+stored wrapped by the master key (UserKey), unwrapping happens on a cache miss only.
+Unwrapped keys are kept in an LRU cache bounded by securenotes.encryption.data-key-cache.max-entries. Which generation
+is current is cached for the ttl, that bounds how long another instance keeps using a key after a rotation.
+A caller that can't run a query while it decrypts, like the export reading a streamed result set, pins all keys of the
+owner to its thread first; a pinned key is used even after the LRU cache evicted it.
+ */
+@Service
+public class DataKeyService implements KeyResolver {
+
+    private static final int DATA_KEY_BYTES = 32;
+
+    private final UserKeyRepository userKeyRepository;
+    private final MasterKeyRing masterKeyRing;
+    private final TransactionTemplate newTransaction;
+    private final int maxEntries;
+    private final long currentKeyTtlMillis;
+    private final Counter unwraps;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    //access ordered, so the eldest entry is always the least recently used one
+    private final Map<Long, DataKey> keys;
+    private final Map<Integer, CurrentKey> currentKeys = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<Long, DataKey>> pinnedKeys = new ThreadLocal<>();
+
+    public DataKeyService(UserKeyRepository userKeyRepository,
+                          MasterKeyRing masterKeyRing,
+                          PlatformTransactionManager transactionManager,
+                          MeterRegistry meterRegistry,
+                          @Value("${securenotes.encryption.data-key-cache.max-entries:10000}") int maxEntries,
+                          @Value("${securenotes.encryption.data-key-cache.ttl:5m}") Duration currentKeyTtl) {
+        this.userKeyRepository = userKeyRepository;
+        this.masterKeyRing = masterKeyRing;
+        //a new key must be stored even if the caller's transaction rolls back, data may already be encrypted with it
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.maxEntries = maxEntries;
+        this.currentKeyTtlMillis = currentKeyTtl.toMillis();
+        this.unwraps = Counter.builder("securenotes.encryption.data-key.unwraps").register(meterRegistry);
+        this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, DataKey> eldest) {
+                return size() > DataKeyService.this.maxEntries;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void register() {
+        EncryptionUtil.setKeyResolver(this);
+    }
+
+    @Override
+    public DataKey currentKey(int ownerId) throws GeneralSecurityException {
+        CurrentKey current = currentKeys.get(ownerId);
+        if (current != null && current.expiresAt > System.currentTimeMillis()) {
+            return current.key;
+        }
+
+        UserKey latest = userKeyRepository.findFirstByOwnerIdOrderByGenerationDesc(ownerId);
+        DataKey dataKey = latest == null ? createKey(ownerId, 1) : unwrap(latest);
+        rememberCurrent(dataKey);
+        return dataKey;
+    }
+
+    @Override
+    public DataKey key(int ownerId, int generation) throws GeneralSecurityException {
+        Map<Long, DataKey> pinned = pinnedKeys.get();
+        DataKey cached = pinned == null ? null : pinned.get(cacheKey(ownerId, generation));
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (keys) {
+            cached = keys.get(cacheKey(ownerId, generation));
+        }
+        if (cached != null) {
+            return cached;
+        }
+        UserKey userKey = userKeyRepository.findByOwnerIdAndGeneration(ownerId, generation);
+        if (userKey == null) {
+            throw new GeneralSecurityException("No data key " + generation + " for owner " + ownerId);
+        }
+        return unwrap(userKey);
+    }
+
+    //loads every generation of the owner's key with one query, key() answers from them on this thread until closed
+    public PinnedKeys pinKeys(int ownerId) throws GeneralSecurityException {
+        Map<Long, DataKey> pinned = new HashMap<>();
+        for (UserKey userKey : userKeyRepository.findAllByOwnerId(ownerId)) {
+            DataKey dataKey;
+            synchronized (keys) {
+                dataKey = keys.get(cacheKey(ownerId, userKey.getGeneration()));
+            }
+            pinned.put(cacheKey(ownerId, userKey.getGeneration()), dataKey != null ? dataKey : unwrap(userKey));
+        }
+        return new PinnedKeys(pinned);
+    }
+
+    //adds the next generation, data of the owner is encrypted with it from now on
+    public DataKey rotate(int ownerId) throws GeneralSecurityException {
+        UserKey latest = userKeyRepository.findFirstByOwnerIdOrderByGenerationDesc(ownerId);
+        DataKey dataKey = createKey(ownerId, latest == null ? 1 : latest.getGeneration() + 1);
+        rememberCurrent(dataKey);
+        return dataKey;
+    }
+
+    //wraps the data key with the current master key, the key itself and everything encrypted with it stay the same
+    public void rewrap(UserKey userKey) throws GeneralSecurityException {
+        byte[] aad = aad(userKey.getOwnerId(), userKey.getGeneration());
+        byte[] raw = masterKeyRing.unwrap(userKey.getMasterKeyId(), userKey.getWrappedKey(), aad);
+        try {
+            userKey.setWrappedKey(masterKeyRing.wrap(raw, aad));
+            userKey.setMasterKeyId(masterKeyRing.currentKeyId());
+            userKeyRepository.save(userKey);
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    private DataKey createKey(int ownerId, int generation) throws GeneralSecurityException {
+        byte[] raw = new byte[DATA_KEY_BYTES];
+        secureRandom.nextBytes(raw);
+        try {
+            UserKey userKey = new UserKey();
+            userKey.setOwnerId(ownerId);
+            userKey.setGeneration(generation);
+            userKey.setWrappedKey(masterKeyRing.wrap(raw, aad(ownerId, generation)));
+            userKey.setMasterKeyId(masterKeyRing.currentKeyId());
+            userKey.setCreatedOn(new Date());
+            newTransaction.executeWithoutResult(status -> userKeyRepository.saveAndFlush(userKey));
+            return cache(new DataKey(ownerId, generation, new SecretKeySpec(raw, "AES")));
+        } catch (DataIntegrityViolationException e) {
+            //another thread or instance created this generation first, use theirs
+            return key(ownerId, generation);
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    private DataKey unwrap(UserKey userKey) throws GeneralSecurityException {
+        byte[] raw = masterKeyRing.unwrap(userKey.getMasterKeyId(), userKey.getWrappedKey(),
+                aad(userKey.getOwnerId(), userKey.getGeneration()));
+        try {
+            unwraps.increment();
+            return cache(new DataKey(userKey.getOwnerId(), userKey.getGeneration(), new SecretKeySpec(raw, "AES")));
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    private DataKey cache(DataKey dataKey) {
+        synchronized (keys) {
+            keys.put(cacheKey(dataKey.ownerId(), dataKey.generation()), dataKey);
+        }
+        return dataKey;
+    }
+
+    private void rememberCurrent(DataKey dataKey) {
+        if (currentKeys.size() >= maxEntries) {
+            long now = System.currentTimeMillis();
+            currentKeys.values().removeIf(entry -> entry.expiresAt <= now);
+        }
+        if (currentKeys.size() < maxEntries) {
+            currentKeys.put(dataKey.ownerId(), new CurrentKey(dataKey, System.currentTimeMillis() + currentKeyTtlMillis));
+        }
+    }
+
+    private static long cacheKey(int ownerId, int generation) {
+        return ((long) ownerId << 32) | (generation & 0xFFFFFFFFL);
+    }
+
+    private static byte[] aad(int ownerId, int generation) {
+        return ByteBuffer.allocate(2 * Integer.BYTES).putInt(ownerId).putInt(generation).array();
+    }
+
+    private record CurrentKey(DataKey key, long expiresAt) {
+    }
+
+    public final class PinnedKeys implements AutoCloseable {
+        private final Map<Long, DataKey> previous;
+
+        private PinnedKeys(Map<Long, DataKey> pinned) {
+            this.previous = pinnedKeys.get();
+            pinnedKeys.set(pinned);
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                pinnedKeys.remove();
+            } else {
+                pinnedKeys.set(previous);
+            }
+        }
+    }
+}
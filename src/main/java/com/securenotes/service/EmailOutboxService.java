@@ -0,0 +1,237 @@
+package com.securenotes.service;
+
+import com.securenotes.model.EmailOutbox;
+import com.securenotes.repository.EmailOutboxRepository;
+import com.securenotes.utils.EmailUtil;
+import com.securenotes.utils.EncryptionUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+Before: every otp mail was handed to the executor right away. Each one opened its own SMTP connection, a failure was
+only printed, and mails still waiting in the executor were lost on restart.
+After: the mail is written to the email_outbox table in the same transaction as the user row, so it is stored
+exactly when the user change is. The dispatcher drains the outbox in batches, each batch goes out over one SMTP
+connection (JavaMailSenderImpl.send(MimeMessage...) connects once per call). Sent rows are deleted, failed ones are
+retried with exponential backoff and moved to DEAD after max-attempts.
+A commit nudges the dispatcher so otp mails still go out immediately, the schedule picks up retries and anything
+left over from before a restart. The dispatcher assumes a single app instance is draining the outbox.
+ */
+@Service
+public class EmailOutboxService {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailOutboxService.class);
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final EmailOutboxRepository emailOutboxRepository;
+    private final JavaMailSender javaMailSender;
+    private final EmailUtil emailUtil;
+    private final ExecutorService executorService;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final Duration maxBackoff;
+
+    //one pass at a time, a nudge that arrives during a pass makes the running pass look again instead of waiting
+    private final ReentrantLock dispatchLock = new ReentrantLock();
+    private final AtomicBoolean rerun = new AtomicBoolean();
+    private final AtomicLong pending = new AtomicLong();
+
+    private final Counter sentMessages;
+    private final Counter retriedMessages;
+    private final Counter deadMessages;
+    private final Timer batchTimer;
+    private final Timer queueLag;
+
+    public EmailOutboxService(EmailOutboxRepository emailOutboxRepository,
+                              JavaMailSender javaMailSender,
+                              EmailUtil emailUtil,
+                              ExecutorService executorService,
+                              MeterRegistry meterRegistry,
+                              @Value("${securenotes.mail-outbox.batch-size:50}") int batchSize,
+                              @Value("${securenotes.mail-outbox.max-attempts:8}") int maxAttempts,
+                              @Value("${securenotes.mail-outbox.retry-backoff:PT30S}") Duration retryBackoff,
+                              @Value("${securenotes.mail-outbox.max-backoff:PT1H}") Duration maxBackoff) {
+        this.emailOutboxRepository = emailOutboxRepository;
+        this.javaMailSender = javaMailSender;
+        this.emailUtil = emailUtil;
+        this.executorService = executorService;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+        this.maxBackoff = maxBackoff;
+        this.sentMessages = Counter.builder("securenotes.mail.outbox.messages").tag("result", "sent").register(meterRegistry);
+        this.retriedMessages = Counter.builder("securenotes.mail.outbox.messages").tag("result", "retry").register(meterRegistry);
+        this.deadMessages = Counter.builder("securenotes.mail.outbox.messages").tag("result", "dead").register(meterRegistry);
+        this.batchTimer = Timer.builder("securenotes.mail.outbox.batch").register(meterRegistry);
+        //time from the row being written to the mail being accepted by the SMTP server
+        this.queueLag = Timer.builder("securenotes.mail.outbox.lag").register(meterRegistry);
+        Gauge.builder("securenotes.mail.outbox.pending", pending, AtomicLong::get).register(meterRegistry);
+    }
+
+    //the encrypted outbox row of an otp mail, nothing is stored yet. Can run before the caller's transaction starts
+    public EmailOutbox prepareOtpEmail(String email, String otp) throws Exception {
+        EmailOutbox emailOutbox = new EmailOutbox();
+        emailOutbox.setRecipient(EncryptionUtil.encrypt(EncryptionUtil.SYSTEM_OWNER, email));
+        emailOutbox.setSubject(EmailUtil.OTP_SUBJECT);
+        emailOutbox.setBody(EncryptionUtil.encrypt(EncryptionUtil.SYSTEM_OWNER, emailUtil.otpEmailBody(otp)));
+        emailOutbox.setStatus(EmailOutbox.Status.PENDING);
+        return emailOutbox;
+    }
+
+    //joins the caller's transaction, the mail is only dispatched once that transaction commits
+    public void enqueue(EmailOutbox emailOutbox) {
+        emailOutbox.setCreatedAt(LocalDateTime.now());
+        emailOutbox.setNextAttemptAt(emailOutbox.getCreatedAt());
+        emailOutboxRepository.save(emailOutbox);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    nudge();
+                }
+            });
+        } else {
+            nudge();
+        }
+    }
+
+    private void nudge() {
+        executorService.submit(this::dispatchPending);
+    }
+
+    @Scheduled(fixedDelayString = "${securenotes.mail-outbox.poll-interval:PT10S}",
+            initialDelayString = "${securenotes.mail-outbox.initial-delay:PT10S}")
+    public void dispatchPending() {
+        rerun.set(true);
+        //re-checked after unlocking, a nudge that lost the tryLock right before the unlock is not left waiting
+        while (rerun.get() && dispatchLock.tryLock()) {
+            try {
+                while (rerun.getAndSet(false)) {
+                    while (dispatchBatch() == batchSize) {
+                        //full batch, there may be more due rows
+                    }
+                }
+                pending.set(emailOutboxRepository.countByStatus(EmailOutbox.Status.PENDING));
+            } catch (RuntimeException e) {
+                log.error("Email outbox dispatch failed", e);
+            } finally {
+                dispatchLock.unlock();
+            }
+        }
+    }
+
+    private int dispatchBatch() {
+        List<EmailOutbox> due = emailOutboxRepository.findDue(EmailOutbox.Status.PENDING, LocalDateTime.now(),
+                PageRequest.of(0, batchSize));
+        if (due.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        Map<MimeMessage, EmailOutbox> messages = new IdentityHashMap<>();
+        Map<EmailOutbox, String> failures = new IdentityHashMap<>();
+        for (EmailOutbox emailOutbox : due) {
+            try {
+                messages.put(emailUtil.createMessage(EncryptionUtil.decrypt(emailOutbox.getRecipient()),
+                        emailOutbox.getSubject(), EncryptionUtil.decrypt(emailOutbox.getBody())), emailOutbox);
+            } catch (Exception e) {
+                failures.put(emailOutbox, String.valueOf(e.getMessage()));
+            }
+        }
+
+        if (!messages.isEmpty()) {
+            try {
+                javaMailSender.send(messages.keySet().toArray(new MimeMessage[0]));
+            } catch (MailSendException e) {
+                //the messages not in failedMessages were accepted by the server
+                e.getFailedMessages().forEach((message, error) -> {
+                    EmailOutbox emailOutbox = messages.get(message);
+                    if (emailOutbox != null) {
+                        failures.put(emailOutbox, String.valueOf(error.getMessage()));
+                    }
+                });
+                if (e.getFailedMessages().isEmpty()) {
+                    messages.values().forEach(emailOutbox -> failures.put(emailOutbox, String.valueOf(e.getMessage())));
+                }
+            } catch (MailException e) {
+                messages.values().forEach(emailOutbox -> failures.put(emailOutbox, String.valueOf(e.getMessage())));
+            }
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> sent = new ArrayList<>();
+        List<EmailOutbox> failed = new ArrayList<>();
+        for (EmailOutbox emailOutbox : due) {
+            String error = failures.get(emailOutbox);
+            if (error == null) {
+                sent.add(emailOutbox.getEmailOutboxId());
+                queueLag.record(Duration.between(emailOutbox.getCreatedAt(), now));
+            } else {
+                failed.add(markFailed(emailOutbox, error, now));
+            }
+        }
+        if (!sent.isEmpty()) {
+            emailOutboxRepository.deleteAllByIdInBatch(sent);
+        }
+        if (!failed.isEmpty()) {
+            emailOutboxRepository.saveAll(failed);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        batchTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        sentMessages.increment(sent.size());
+        long oldestLagMillis = due.stream()
+                .mapToLong(emailOutbox -> Duration.between(emailOutbox.getCreatedAt(), now).toMillis())
+                .max().orElse(0);
+        log.info("Sent {} of {} outbox emails in {} ms ({} msg/s), oldest queued {} ms",
+                sent.size(), due.size(), elapsed / 1_000_000,
+                elapsed == 0 ? 0 : sent.size() * 1_000_000_000L / elapsed, oldestLagMillis);
+        //nothing got through, most likely the SMTP server is down, leave the rest for the next pass
+        return failures.size() == due.size() ? 0 : due.size();
+    }
+
+    private EmailOutbox markFailed(EmailOutbox emailOutbox, String error, LocalDateTime now) {
+        int attempts = emailOutbox.getAttempts() + 1;
+        emailOutbox.setAttempts(attempts);
+        emailOutbox.setLastError(error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+        if (attempts >= maxAttempts) {
+            emailOutbox.setStatus(EmailOutbox.Status.DEAD);
+            deadMessages.increment();
+            log.warn("Outbox email {} moved to DEAD after {} attempts: {}", emailOutbox.getEmailOutboxId(), attempts, error);
+        } else {
+            //30s, 1m, 2m, 4m ... capped at max-backoff
+            Duration backoff = retryBackoff.multipliedBy(1L << Math.min(attempts - 1, 30));
+            emailOutbox.setNextAttemptAt(now.plus(backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff));
+            retriedMessages.increment();
+        }
+        return emailOutbox;
+    }
+}
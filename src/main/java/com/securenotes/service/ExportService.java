@@ -0,0 +1,172 @@
+package com.securenotes.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.securenotes.model.Notes;
+import com.securenotes.model.Tasks;
+import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.NoteCodec;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Date;
+
+/*
+Before: the only way to get all of a user's data was /notes/getAll, which decrypted every note into one list in
+memory before the response was written.
+After: notes and tasks are read with a forward-only scroll, decrypted and written as one NDJSON line each, and every
+entity is detached right after it was written, so heap use doesn't grow with the size of the account.
+With MySQL the default fetch size of Integer.MIN_VALUE makes Connector/J stream rows one by one instead of reading
+the whole result set into memory first. No other statement can run on the connection while such a result set is open,
+so the data keys of the user are all loaded before the scroll and decrypting a row never has to look one up.
+Secured notes are exported without their description, their content stays behind the note password.
+ */
+@Service
+public class ExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportService.class);
+    //first line goes out right away, after that the stream is flushed every FLUSH_EVERY rows
+    private static final int FLUSH_EVERY = 100;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    DataKeyService dataKeyService;
+
+    @Value("${securenotes.export.fetch-size:-2147483648}")
+    private int fetchSize;
+
+    @Transactional(readOnly = true)
+    public void export(int userId, OutputStream outputStream) throws IOException {
+        long start = System.nanoTime();
+        Session session = entityManager.unwrap(Session.class);
+        //every note of the account is read once, putting them in the second-level cache would only push out the
+        //entries of the users that are actually reading their notes
+        session.setCacheMode(CacheMode.IGNORE);
+        long rows = 0;
+        try (DataKeyService.PinnedKeys pinnedKeys = pinKeys(userId);
+             JsonGenerator json = objectMapper.getFactory().createGenerator(outputStream)) {
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            //every row ends with its own newline instead of the default space between root values
+            json.setRootValueSeparator(null);
+
+            try (ScrollableResults<Notes> notes = session
+                    .createQuery("select n from Notes n where n.userId = :userId order by n.notesId", Notes.class)
+                    .setParameter("userId", userId)
+                    .setFetchSize(fetchSize)
+                    .setReadOnly(true)
+                    .scroll(ScrollMode.FORWARD_ONLY)) {
+                while (notes.next()) {
+                    Notes note = notes.get();
+                    writeNote(json, note);
+                    session.detach(note);
+                    flush(json, ++rows);
+                }
+            }
+
+            try (ScrollableResults<Tasks> tasks = session
+                    .createQuery("select t from Tasks t where t.user.userId = :userId order by t.taskId", Tasks.class)
+                    .setParameter("userId", userId)
+                    .setFetchSize(fetchSize)
+                    .setReadOnly(true)
+                    .scroll(ScrollMode.FORWARD_ONLY)) {
+                while (tasks.next()) {
+                    Tasks task = tasks.get();
+                    writeTask(json, task);
+                    session.detach(task);
+                    flush(json, ++rows);
+                }
+            }
+        }
+        log.info("Exported {} rows for user {} in {} ms", rows, userId, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void writeNote(JsonGenerator json, Notes note) throws IOException {
+        boolean secured = note.getPassword() != null && !note.getPassword().isEmpty();
+        json.writeStartObject();
+        json.writeStringField("type", "note");
+        json.writeNumberField("notesId", note.getNotesId());
+        json.writeStringField("title", decrypt(note.getTitle()));
+        if (!secured) {
+            json.writeStringField("description", description(note));
+        }
+        json.writeBooleanField("secured", secured);
+        writeDate(json, "createdOn", note.getCreatedOn());
+        writeDate(json, "updatedOn", note.getUpdatedOn());
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    private void writeTask(JsonGenerator json, Tasks task) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("type", "task");
+        json.writeNumberField("taskId", task.getTaskId());
+        json.writeStringField("title", task.getTitle());
+        json.writeStringField("description", task.getDescription());
+        json.writeBooleanField("completed", task.isCompleted());
+        json.writeStringField("dueDate", task.getDueDate() == null ? null : task.getDueDate().toString());
+        writeDate(json, "createdOn", task.getCreatedOn());
+        writeDate(json, "updatedOn", task.getUpdatedOn());
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    private void writeDate(JsonGenerator json, String field, Date date) throws IOException {
+        json.writeFieldName(field);
+        if (date == null) {
+            json.writeNull();
+        } else {
+            json.writeString(date.toInstant().toString());
+        }
+    }
+
+    private static void flush(JsonGenerator json, long rows) throws IOException {
+        if (rows == 1 || rows % FLUSH_EVERY == 0) {
+            json.flush();
+        }
+    }
+
+    private DataKeyService.PinnedKeys pinKeys(int userId) throws IOException {
+        try {
+            return dataKeyService.pinKeys(userId);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to load the data keys of user " + userId, e);
+        }
+    }
+
+    private static String description(Notes note) throws IOException {
+        try {
+            return NoteCodec.readDescription(note);
+        } catch (Exception e) {
+            throw new IOException("Unable to decrypt exported row", e);
+        }
+    }
+
+    private static String decrypt(String value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return EncryptionUtil.decrypt(value);
+        } catch (Exception e) {
+            throw new IOException("Unable to decrypt exported row", e);
+        }
+    }
+}
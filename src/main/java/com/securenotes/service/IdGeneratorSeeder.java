@@ -0,0 +1,60 @@
+package com.securenotes.service;
+
+import com.securenotes.repository.NoteSearchTokenRepository;
+import com.securenotes.repository.NotesRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/*
+Before: notes and search tokens used IDENTITY ids, which makes hibernate insert every row on its own to read back
+the generated key, so inserts could never be batched.
+After: both use a table generator in id_generator that hands out blocks of ids. Rows created with IDENTITY already
+used ids up to the current max, so before the web server accepts requests the counters are moved past them.
+This runs after the schema update (the generator table exists by then) and before any insert can reserve a block.
+ */
+@Service
+public class IdGeneratorSeeder implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(IdGeneratorSeeder.class);
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    NotesRepository notesRepository;
+
+    @Autowired
+    NoteSearchTokenRepository noteSearchTokenRepository;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        seed("notes", notesRepository.findMaxNotesId());
+        seed("note_search_token", noteSearchTokenRepository.findMaxSearchTokenId());
+    }
+
+    //the generator hands out the ids after next_val, so it has to be at least the highest id in use
+    private void seed(String sequenceName, long maxId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Long> current = jdbcTemplate.queryForList(
+                    "select next_val from id_generator where sequence_name = ? for update", Long.class, sequenceName);
+            if (current.isEmpty()) {
+                jdbcTemplate.update("insert into id_generator (sequence_name, next_val) values (?, ?)", sequenceName, maxId);
+            } else if (current.get(0) < maxId) {
+                jdbcTemplate.update("update id_generator set next_val = ? where sequence_name = ?", maxId, sequenceName);
+            } else {
+                return;
+            }
+            log.info("Id generator {} moved past existing id {}", sequenceName, maxId);
+        });
+    }
+}
@@ -0,0 +1,248 @@
+package com.securenotes.service;
+
+import com.securenotes.dto.NoteSummaryResponse;
+import com.securenotes.model.Notes;
+import com.securenotes.model.User;
+import com.securenotes.model.UserKey;
+import com.securenotes.repository.NotesRepository;
+import com.securenotes.repository.UserKeyRepository;
+import com.securenotes.repository.UserRepository;
+import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.MasterKeyRing;
+import com.securenotes.utils.NoteCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/*
+Background side of the data key scheme (see EncryptionUtil and DataKeyService), one pass does in order:
+1. re-wraps data keys still wrapped by an old master key, cheap since the data itself stays as it is
+2. rotates the data keys of owners whose newest key is older than securenotes.key-rotation.data-key-max-age
+3. re-encrypts user rows and notes that are still on the hard-coded key or on an older generation of their data key
+Re-encryption is throttled to securenotes.key-rotation.rows-per-second so it doesn't compete with request traffic.
+Like NoteStorageMigrationService the rows are updated with plain SQL, only if the ciphertext is still the one that
+was read, so updatedOn stays and concurrent edits win. Hibernate doesn't see those updates, the rows are evicted from
+the second-level cache by hand.
+Once a pass finds nothing stale the re-encryption stops looking, until a rotation happens. Other instances may keep
+writing with the previous key for up to the current key ttl, so passes continue for twice that after a rotation.
+ */
+@Service
+public class KeyRotationService {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyRotationService.class);
+
+    private final UserKeyRepository userKeyRepository;
+    private final UserRepository userRepository;
+    private final NotesRepository notesRepository;
+    private final DataKeyService dataKeyService;
+    private final MasterKeyRing masterKeyRing;
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+    private final int batchSize;
+    private final int rowsPerSecond;
+    private final Duration dataKeyMaxAge;
+    private final long settleMillis;
+    private final Counter reencryptedRows;
+    private volatile boolean reencrypted;
+    private volatile long lastRotation;
+
+    public KeyRotationService(UserKeyRepository userKeyRepository,
+                              UserRepository userRepository,
+                              NotesRepository notesRepository,
+                              DataKeyService dataKeyService,
+                              MasterKeyRing masterKeyRing,
+                              JdbcTemplate jdbcTemplate,
+                              EntityManagerFactory entityManagerFactory,
+                              MeterRegistry meterRegistry,
+                              @Value("${securenotes.key-rotation.batch-size:100}") int batchSize,
+                              @Value("${securenotes.key-rotation.rows-per-second:200}") int rowsPerSecond,
+                              @Value("${securenotes.key-rotation.data-key-max-age:P365D}") Duration dataKeyMaxAge,
+                              @Value("${securenotes.encryption.data-key-cache.ttl:5m}") Duration currentKeyTtl) {
+        this.userKeyRepository = userKeyRepository;
+        this.userRepository = userRepository;
+        this.notesRepository = notesRepository;
+        this.dataKeyService = dataKeyService;
+        this.masterKeyRing = masterKeyRing;
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+        this.batchSize = batchSize;
+        this.rowsPerSecond = rowsPerSecond;
+        this.dataKeyMaxAge = dataKeyMaxAge;
+        this.settleMillis = 2 * currentKeyTtl.toMillis();
+        this.reencryptedRows = Counter.builder("securenotes.encryption.reencrypted").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${securenotes.key-rotation.interval:PT10M}",
+            initialDelayString = "${securenotes.key-rotation.initial-delay:PT2M}")
+    public void rotate() throws InterruptedException {
+        long start = System.nanoTime();
+        int rewrapped = rewrapKeys();
+        int rotated = rotateOldKeys();
+        if (reencrypted && rotated == 0) {
+            return;
+        }
+
+        long passStart = System.currentTimeMillis();
+        Pass pass = new Pass();
+        reencryptUsers(pass);
+        reencryptNotes(pass);
+        if (rewrapped > 0 || rotated > 0 || pass.rows > 0 || pass.skipped > 0) {
+            log.info("Key rotation: {} keys re-wrapped, {} rotated, {} rows re-encrypted, {} skipped in {} ms",
+                    rewrapped, rotated, pass.rows, pass.skipped, (System.nanoTime() - start) / 1_000_000);
+        }
+        //rows that failed to decrypt are retried on the next pass
+        reencrypted = pass.skipped == 0 && passStart - lastRotation > settleMillis;
+    }
+
+    private int rewrapKeys() {
+        String currentKeyId = masterKeyRing.currentKeyId();
+        int rewrapped = 0;
+        long lastUserKeyId = 0;
+        List<UserKey> batch;
+        do {
+            batch = userKeyRepository.findWrappedByOtherMasterKey(lastUserKeyId, currentKeyId, PageRequest.of(0, batchSize));
+            for (UserKey userKey : batch) {
+                lastUserKeyId = userKey.getUserKeyId();
+                try {
+                    dataKeyService.rewrap(userKey);
+                    rewrapped++;
+                } catch (Exception e) {
+                    log.warn("Unable to re-wrap data key {} of owner {}: {}", userKey.getGeneration(), userKey.getOwnerId(), e.getMessage());
+                }
+            }
+        } while (batch.size() == batchSize);
+        return rewrapped;
+    }
+
+    private int rotateOldKeys() {
+        if (dataKeyMaxAge.isZero() || dataKeyMaxAge.isNegative()) {
+            return 0;
+        }
+        Date cutoff = new Date(System.currentTimeMillis() - dataKeyMaxAge.toMillis());
+        int rotated = 0;
+        //SYSTEM_OWNER is 0, so start below it
+        int lastOwnerId = -1;
+        List<Integer> batch;
+        do {
+            batch = userKeyRepository.findOwnersWithKeysCreatedBefore(lastOwnerId, cutoff, PageRequest.of(0, batchSize));
+            for (int ownerId : batch) {
+                lastOwnerId = ownerId;
+                try {
+                    dataKeyService.rotate(ownerId);
+                    rotated++;
+                } catch (Exception e) {
+                    log.warn("Unable to rotate the data key of owner {}: {}", ownerId, e.getMessage());
+                }
+            }
+        } while (batch.size() == batchSize);
+        if (rotated > 0) {
+            lastRotation = System.currentTimeMillis();
+        }
+        return rotated;
+    }
+
+    private void reencryptUsers(Pass pass) throws InterruptedException {
+        int generation;
+        try {
+            generation = EncryptionUtil.currentGeneration(EncryptionUtil.SYSTEM_OWNER);
+        } catch (Exception e) {
+            log.warn("Unable to load the system data key: {}", e.getMessage());
+            pass.skipped++;
+            return;
+        }
+        int lastUserId = 0;
+        List<User> batch;
+        do {
+            long batchStart = System.nanoTime();
+            batch = userRepository.findUsersWithStaleKey(generation, lastUserId, PageRequest.of(0, batchSize));
+            List<Object[]> updates = new ArrayList<>(batch.size());
+            for (User user : batch) {
+                lastUserId = user.getUserId();
+                try {
+                    updates.add(new Object[]{
+                            EncryptionUtil.encrypt(EncryptionUtil.SYSTEM_OWNER, EncryptionUtil.decrypt(user.getName())),
+                            EncryptionUtil.encrypt(EncryptionUtil.SYSTEM_OWNER, EncryptionUtil.decrypt(user.getEmail())),
+                            generation, user.getUserId(), user.getEmail()});
+                } catch (Exception e) {
+                    pass.skipped++;
+                    log.warn("Unable to re-encrypt user {}: {}", user.getUserId(), e.getMessage());
+                }
+            }
+            write("update user set name = ?, email = ?, key_generation = ? where user_id = ? and email = ?", updates, User.class, 3, pass);
+            throttle(batchStart, batch.size());
+        } while (batch.size() == batchSize);
+    }
+
+    private void reencryptNotes(Pass pass) throws InterruptedException {
+        int lastNotesId = 0;
+        List<Notes> batch;
+        do {
+            long batchStart = System.nanoTime();
+            batch = notesRepository.findNotesWithStaleKey(lastNotesId, PageRequest.of(0, batchSize));
+            List<Object[]> updates = new ArrayList<>(batch.size());
+            for (Notes notes : batch) {
+                lastNotesId = notes.getNotesId();
+                try {
+                    int userId = notes.getUserId();
+                    String description = NoteCodec.readDescription(notes);
+                    int generation = EncryptionUtil.currentGeneration(userId);
+                    updates.add(new Object[]{
+                            EncryptionUtil.encrypt(userId, EncryptionUtil.decrypt(notes.getTitle())),
+                            NoteCodec.encode(userId, description),
+                            EncryptionUtil.encrypt(userId, NoteSummaryResponse.previewOf(description)),
+                            generation, notes.getNotesId(), notes.getTitle()});
+                } catch (Exception e) {
+                    pass.skipped++;
+                    log.warn("Unable to re-encrypt note {}: {}", notes.getNotesId(), e.getMessage());
+                }
+            }
+            write("update notes set title = ?, description = null, description_data = ?, preview = ?, key_generation = ? " +
+                    "where notes_id = ? and title = ?", updates, Notes.class, 4, pass);
+            throttle(batchStart, batch.size());
+        } while (batch.size() == batchSize);
+    }
+
+    //idIndex is the position of the primary key among the parameters of a row
+    private void write(String sql, List<Object[]> updates, Class<?> entity, int idIndex, Pass pass) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        int[] counts = jdbcTemplate.batchUpdate(sql, updates);
+        for (int i = 0; i < counts.length; i++) {
+            //SUCCESS_NO_INFO (-2) means the driver ran it but didn't report the row count
+            if (counts[i] != 0) {
+                pass.rows++;
+                reencryptedRows.increment();
+                entityManagerFactory.getCache().evict(entity, updates.get(i)[idIndex]);
+            }
+        }
+    }
+
+    //sleeps off whatever is left of the time the batch is allowed to take at rows-per-second
+    private void throttle(long batchStart, int rows) throws InterruptedException {
+        if (rows == 0 || rowsPerSecond <= 0) {
+            return;
+        }
+        long remainingMillis = (rows * 1000L / rowsPerSecond) - (System.nanoTime() - batchStart) / 1_000_000;
+        if (remainingMillis > 0) {
+            Thread.sleep(remainingMillis);
+        }
+    }
+
+    private static class Pass {
+        private long rows;
+        private long skipped;
+    }
+}
@@ -0,0 +1,337 @@
+package com.securenotes.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.securenotes.dto.CreateNoteRequest;
+import com.securenotes.dto.NoteImportFailure;
+import com.securenotes.dto.NoteImportResponse;
+import com.securenotes.dto.NoteSummaryResponse;
+import com.securenotes.exceptions.ImportCapacityExceededException;
+import com.securenotes.model.NoteSearchToken;
+import com.securenotes.model.Notes;
+import com.securenotes.repository.NoteSearchTokenRepository;
+import com.securenotes.repository.NotesRepository;
+import com.securenotes.utils.BlindIndexUtil;
+import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.NoteCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Before: moving notes over from another app meant one POST /notes/add per note, each with its own transaction and an
+IDENTITY insert that hibernate can't batch.
+After: /notes/import reads a JSON array or NDJSON as a stream and works in batches of securenotes.import.batch-size
+rows. A batch is encrypted (title, description, preview, search terms) in parallel on all cores while the previous
+batch is written, and every batch is written in its own transaction with JDBC batched inserts, which works because
+notes and search tokens now use table generated ids. A failing batch is rolled back and reported, the others are kept.
+Batches are prepared on the import's own pool of securenotes.import.threads, not the common fork join pool, since
+notes with a password wait there for their BCrypt hash from the shared hashing pool. An import thread has one hash in
+flight at a time, so imports hold at most threads * max-concurrent slots of the hashing queue and logins keep getting
+through. At most securenotes.import.max-concurrent imports run at once, another one is answered with a 503, and an
+import takes at most securenotes.import.max-secured-rows notes with a password.
+ */
+@Service
+public class NoteImportService {
+
+    private static final Logger log = LoggerFactory.getLogger(NoteImportService.class);
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    NotesRepository notesRepository;
+
+    @Autowired
+    NoteSearchTokenRepository noteSearchTokenRepository;
+
+    @Autowired
+    BlindIndexUtil blindIndexUtil;
+
+    @Autowired
+    PasswordEncoder passwordEncoder;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Value("${securenotes.import.batch-size:500}")
+    private int batchSize;
+
+    @Value("${securenotes.import.max-rows:200000}")
+    private long maxRows;
+
+    @Value("${securenotes.import.max-secured-rows:1000}")
+    private long maxSecuredRows;
+
+    @Value("${securenotes.import.max-reported-failures:100}")
+    private int maxReportedFailures;
+
+    private final int threads;
+    private final Semaphore running;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService monitoredExecutor;
+    private final Counter importedRows;
+    private final Counter failedRows;
+
+    public NoteImportService(MeterRegistry meterRegistry,
+                             @Value("${securenotes.import.threads:0}") int threads,
+                             @Value("${securenotes.import.max-concurrent:2}") int maxConcurrent) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.running = new Semaphore(maxConcurrent);
+        AtomicInteger threadNumber = new AtomicInteger();
+        //an import has at most two batches of one task per thread queued, so running imports always fit
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(2 * this.threads * maxConcurrent),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "note-import-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.monitoredExecutor = ExecutorServiceMetrics.monitor(meterRegistry, executor, "note-import");
+        this.importedRows = Counter.builder("securenotes.notes.import.rows").tag("result", "imported").register(meterRegistry);
+        this.failedRows = Counter.builder("securenotes.notes.import.rows").tag("result", "failed").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public NoteImportResponse importNotes(int userId, InputStream inputStream) throws IOException {
+        if (!running.tryAcquire()) {
+            throw new ImportCapacityExceededException("Too many imports running, please retry shortly");
+        }
+        try {
+            return runImport(userId, inputStream);
+        } finally {
+            running.release();
+        }
+    }
+
+    private NoteImportResponse runImport(int userId, InputStream inputStream) throws IOException {
+        long start = System.nanoTime();
+        ImportRun run = new ImportRun(userId);
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+            CompletableFuture<PreparedBatch> pending = null;
+            List<ImportRow> rows = new ArrayList<>(batchSize);
+            long row = 0;
+            try {
+                JsonToken token = parser.nextToken();
+                boolean array = token == JsonToken.START_ARRAY;
+                if (array) {
+                    token = parser.nextToken();
+                }
+                boolean limitReached = false;
+                while (token == JsonToken.START_OBJECT) {
+                    if (row == maxRows) {
+                        run.fail(row + 1, 0, "Import is limited to " + maxRows + " notes, the rest was not read");
+                        limitReached = true;
+                        break;
+                    }
+                    CreateNoteRequest createNoteRequest = objectMapper.readValue(parser, CreateNoteRequest.class);
+                    row++;
+                    token = parser.nextToken();
+                    if (createNoteRequest.getPassword() != null && !createNoteRequest.getPassword().isEmpty()
+                            && ++run.securedRows > maxSecuredRows) {
+                        run.fail(row, 1, "Import is limited to " + maxSecuredRows + " notes with a password");
+                        continue;
+                    }
+                    rows.add(new ImportRow(row, createNoteRequest));
+                    if (rows.size() == batchSize) {
+                        pending = run.submit(pending, rows);
+                        rows = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!limitReached && token != (array ? JsonToken.END_ARRAY : null)) {
+                    run.fail(row + 1, 0, "Expected a JSON array of notes or one note object per line");
+                }
+            } catch (JsonProcessingException e) {
+                //everything before the broken row is still imported
+                run.fail(row + 1, 0, "Invalid JSON: " + e.getOriginalMessage());
+            }
+            if (!rows.isEmpty()) {
+                pending = run.submit(pending, rows);
+            }
+            if (pending != null) {
+                run.write(pending.join());
+            }
+        }
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        double rowsPerSecond = run.imported * 1000.0 / elapsedMillis;
+        log.info("Imported {} notes for user {} in {} batches, {} ms ({} rows/s), {} failed",
+                run.imported, userId, run.batches, elapsedMillis, Math.round(rowsPerSecond), run.failed);
+        return new NoteImportResponse(run.imported, run.failed, run.batches, elapsedMillis, rowsPerSecond, run.failures);
+    }
+
+    //one chunk of rows per import thread, nothing in here touches the database
+    private CompletableFuture<PreparedBatch> prepare(int userId, int batch, List<ImportRow> rows) {
+        int chunkSize = (rows.size() + threads - 1) / threads;
+        List<CompletableFuture<List<PreparedNote>>> chunks = new ArrayList<>();
+        for (int from = 0; from < rows.size(); from += chunkSize) {
+            List<ImportRow> chunk = rows.subList(from, Math.min(rows.size(), from + chunkSize));
+            try {
+                chunks.add(CompletableFuture.supplyAsync(() -> chunk.stream()
+                        .map(importRow -> prepareNote(userId, importRow.row(), importRow.request()))
+                        .toList(), monitoredExecutor));
+            } catch (RejectedExecutionException e) {
+                //only while shutting down, the queue has room for every running import
+                chunks.add(CompletableFuture.completedFuture(chunk.stream()
+                        .map(importRow -> PreparedNote.failed(importRow.row(), "Import was stopped"))
+                        .toList()));
+            }
+        }
+        return CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new))
+                .thenApply(done -> new PreparedBatch(batch, rows.get(0).row(),
+                        chunks.stream().flatMap(chunk -> chunk.join().stream()).toList()));
+    }
+
+    //same fields as NotesService.addNote, so imported notes can't be told apart from added ones
+    private PreparedNote prepareNote(int userId, long row, CreateNoteRequest createNoteRequest) {
+        if (createNoteRequest.getTitle() == null || createNoteRequest.getDescription() == null) {
+            return PreparedNote.failed(row, "title and description are required");
+        }
+        try {
+            Notes notes = new Notes();
+            notes.setUserId(userId);
+            notes.setKeyGeneration(EncryptionUtil.currentGeneration(userId));
+            notes.setTitle(EncryptionUtil.encrypt(userId, createNoteRequest.getTitle()));
+            NoteCodec.writeDescription(notes, createNoteRequest.getDescription());
+            notes.setPreview(EncryptionUtil.encrypt(userId, NoteSummaryResponse.previewOf(createNoteRequest.getDescription())));
+            Set<String> tokenHashes = Set.of();
+            if (createNoteRequest.getPassword() != null && !createNoteRequest.getPassword().isEmpty()) {
+                notes.setPassword(passwordEncoder.encode(createNoteRequest.getPassword()));
+            } else {
+                tokenHashes = blindIndexUtil.indexTokens(createNoteRequest.getTitle(), createNoteRequest.getDescription());
+            }
+            return new PreparedNote(row, notes, tokenHashes, null);
+        } catch (Exception e) {
+            return PreparedNote.failed(row, e.getMessage());
+        }
+    }
+
+    private record ImportRow(long row, CreateNoteRequest request) {
+    }
+
+    private record PreparedNote(long row, Notes notes, Set<String> tokenHashes, String error) {
+        static PreparedNote failed(long row, String error) {
+            return new PreparedNote(row, null, Set.of(), error);
+        }
+    }
+
+    private record PreparedBatch(int batch, long firstRow, List<PreparedNote> notes) {
+    }
+
+    //state of one import call, only used from the request thread
+    private class ImportRun {
+        private final int userId;
+        private final List<NoteImportFailure> failures = new ArrayList<>();
+        private long imported;
+        private long failed;
+        private long securedRows;
+        private int batches;
+
+        private ImportRun(int userId) {
+            this.userId = userId;
+        }
+
+        //starts encrypting the next batch and then writes the previous one, so both overlap
+        private CompletableFuture<PreparedBatch> submit(CompletableFuture<PreparedBatch> pending, List<ImportRow> rows) {
+            CompletableFuture<PreparedBatch> next = prepare(userId, ++batches, rows);
+            if (pending != null) {
+                write(pending.join());
+            }
+            return next;
+        }
+
+        private void write(PreparedBatch preparedBatch) {
+            List<PreparedNote> valid = new ArrayList<>(preparedBatch.notes().size());
+            for (PreparedNote preparedNote : preparedBatch.notes()) {
+                if (preparedNote.error() != null) {
+                    fail(preparedBatch.batch(), preparedNote.row(), 1, preparedNote.error());
+                } else {
+                    valid.add(preparedNote);
+                }
+            }
+            if (valid.isEmpty()) {
+                return;
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    //imported notes stay out of the second-level cache, a big import would evict everyone else's
+                    entityManager.unwrap(Session.class).setCacheMode(CacheMode.IGNORE);
+                    List<Notes> notes = valid.stream().map(PreparedNote::notes).toList();
+                    notesRepository.saveAll(notes);
+                    //ids are assigned on persist, the search tokens can reference them before anything is flushed
+                    List<NoteSearchToken> tokens = new ArrayList<>();
+                    for (PreparedNote preparedNote : valid) {
+                        for (String tokenHash : preparedNote.tokenHashes()) {
+                            tokens.add(NoteSearchToken.builder()
+                                    .notesId(preparedNote.notes().getNotesId())
+                                    .userId(userId)
+                                    .tokenHash(tokenHash)
+                                    .build());
+                        }
+                    }
+                    noteSearchTokenRepository.saveAll(tokens);
+                    entityManager.flush();
+                    //nothing of a written batch is needed again, keep the persistence context from growing
+                    entityManager.clear();
+                });
+                imported += valid.size();
+                importedRows.increment(valid.size());
+            } catch (RuntimeException e) {
+                log.warn("Import batch {} of user {} failed: {}", preparedBatch.batch(), userId, e.getMessage());
+                fail(preparedBatch.batch(), preparedBatch.firstRow(), valid.size(),
+                        NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+            }
+        }
+
+        private void fail(long firstRow, int rows, String error) {
+            fail(batches + 1, firstRow, rows, error);
+        }
+
+        private void fail(int batch, long firstRow, int rows, String error) {
+            failed += rows;
+            failedRows.increment(rows);
+            if (failures.size() < maxReportedFailures) {
+                failures.add(new NoteImportFailure(batch, firstRow, rows, error));
+            }
+        }
+    }
+}
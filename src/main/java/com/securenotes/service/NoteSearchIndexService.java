@@ -0,0 +1,94 @@
+package com.securenotes.service;
+
+import com.securenotes.model.NoteSearchToken;
+import com.securenotes.model.Notes;
+import com.securenotes.repository.NoteSearchTokenRepository;
+import com.securenotes.repository.NotesRepository;
+import com.securenotes.utils.BlindIndexUtil;
+import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.NoteCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/*
+Blind index for note search: every term (and term prefix) of an unsecured note is stored as a keyed HMAC,
+so search can find the matching note ids with one indexed query and only decrypt those notes,
+instead of decrypting every note of the user. The database never sees a plaintext term.
+ */
+@Service
+public class NoteSearchIndexService {
+
+    private static final Logger log = LoggerFactory.getLogger(NoteSearchIndexService.class);
+    private static final int BACKFILL_BATCH_SIZE = 200;
+
+    @Autowired
+    NoteSearchTokenRepository noteSearchTokenRepository;
+
+    @Autowired
+    NotesRepository notesRepository;
+
+    @Autowired
+    BlindIndexUtil blindIndexUtil;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    //replaces the index entries of a note, secured notes are never searchable so they only get cleared
+    @Transactional
+    public void index(Notes notes, String title, String description) {
+        noteSearchTokenRepository.deleteAllByNotesId(notes.getNotesId());
+        if (notes.getPassword() != null && !notes.getPassword().isEmpty()) {
+            return;
+        }
+
+        List<NoteSearchToken> tokens = blindIndexUtil.indexTokens(title, description).stream()
+                .map(tokenHash -> NoteSearchToken.builder()
+                        .notesId(notes.getNotesId())
+                        .userId(notes.getUserId())
+                        .tokenHash(tokenHash)
+                        .build())
+                .toList();
+        noteSearchTokenRepository.saveAll(tokens);
+    }
+
+    public void remove(int notesId) {
+        noteSearchTokenRepository.deleteAllByNotesId(notesId);
+    }
+
+    //notes written before the index existed have no entries yet, index them once the app is up
+    @EventListener(ApplicationReadyEvent.class)
+    public void indexExistingNotes() {
+        int indexed = 0;
+        int lastNotesId = 0;
+        List<Notes> batch;
+        do {
+            batch = notesRepository.findUnindexedNotes(lastNotesId, PageRequest.of(0, BACKFILL_BATCH_SIZE));
+            for (Notes notes : batch) {
+                lastNotesId = notes.getNotesId();
+                try {
+                    String title = EncryptionUtil.decrypt(notes.getTitle());
+                    String description = NoteCodec.readDescription(notes);
+                    //a call to index() from here would skip the @Transactional proxy, the delete and the inserts of a
+                    //note have to commit together
+                    transactionTemplate.executeWithoutResult(status -> index(notes, title, description));
+                    indexed++;
+                } catch (Exception e) {
+                    log.warn("Unable to index note {} for search: {}", notes.getNotesId(), e.getMessage());
+                }
+            }
+        } while (batch.size() == BACKFILL_BATCH_SIZE);
+
+        if (indexed > 0) {
+            log.info("Indexed {} existing notes for search", indexed);
+        }
+    }
+}
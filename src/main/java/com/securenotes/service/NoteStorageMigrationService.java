@@ -0,0 +1,111 @@
+package com.securenotes.service;
+
+import com.securenotes.model.Notes;
+import com.securenotes.repository.LegacyNoteDescription;
+import com.securenotes.repository.NotesRepository;
+import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.NoteCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Rewrites descriptions stored as Base64 strings into the binary NoteCodec envelope, in batches in the background.
+Each row is updated only if its description is still the one that was read, so a note edited in the meantime is
+left alone (the edit already stored it in the new format). The update is plain SQL on purpose: going through the
+entity would bump updatedOn, which reorders the note lists and invalidates cached decryptions. It also
+goes around the second-level cache, which is why every migrated row is evicted from it right after.
+New writes never produce legacy rows, so once a run finds none the job stops looking.
+ */
+@Service
+public class NoteStorageMigrationService {
+
+    private static final Logger log = LoggerFactory.getLogger(NoteStorageMigrationService.class);
+
+    private final NotesRepository notesRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+    private final int batchSize;
+    private final Duration pause;
+    private final Counter migratedRows;
+    private volatile boolean finished;
+
+    public NoteStorageMigrationService(NotesRepository notesRepository,
+                                       JdbcTemplate jdbcTemplate,
+                                       EntityManagerFactory entityManagerFactory,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${securenotes.note-storage-migration.batch-size:200}") int batchSize,
+                                       @Value("${securenotes.note-storage-migration.pause:100ms}") Duration pause) {
+        this.notesRepository = notesRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+        this.batchSize = batchSize;
+        this.pause = pause;
+        this.migratedRows = Counter.builder("securenotes.notes.storage.migrated").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${securenotes.note-storage-migration.interval:PT10M}",
+            initialDelayString = "${securenotes.note-storage-migration.initial-delay:PT1M}")
+    public void migrate() throws InterruptedException {
+        if (finished) {
+            return;
+        }
+        long start = System.nanoTime();
+        long migrated = 0;
+        long skipped = 0;
+        long bytesBefore = 0;
+        long bytesAfter = 0;
+        int lastNotesId = 0;
+        List<LegacyNoteDescription> batch;
+        do {
+            batch = notesRepository.findLegacyDescriptions(lastNotesId, PageRequest.of(0, batchSize));
+            List<Object[]> updates = new ArrayList<>(batch.size());
+            for (LegacyNoteDescription legacy : batch) {
+                lastNotesId = legacy.getNotesId();
+                try {
+                    byte[] data = NoteCodec.encode(legacy.getUserId(), EncryptionUtil.decrypt(legacy.getDescription()));
+                    updates.add(new Object[]{data, legacy.getNotesId(), legacy.getDescription()});
+                    bytesBefore += legacy.getDescription().length();
+                    bytesAfter += data.length;
+                } catch (Exception e) {
+                    skipped++;
+                    log.warn("Unable to migrate the description of note {}: {}", legacy.getNotesId(), e.getMessage());
+                }
+            }
+            if (!updates.isEmpty()) {
+                int[] counts = jdbcTemplate.batchUpdate(
+                        "update notes set description_data = ?, description = null where notes_id = ? and description = ?", updates);
+                for (int i = 0; i < counts.length; i++) {
+                    //SUCCESS_NO_INFO (-2) means the driver ran it but didn't report the row count
+                    if (counts[i] != 0) {
+                        migrated++;
+                        migratedRows.increment();
+                        entityManagerFactory.getCache().evict(Notes.class, updates.get(i)[1]);
+                    }
+                }
+            }
+            if (batch.size() == batchSize && !pause.isZero()) {
+                //leave room for request traffic between batches
+                Thread.sleep(pause.toMillis());
+            }
+        } while (batch.size() == batchSize);
+
+        if (migrated > 0) {
+            log.info("Migrated {} note descriptions to binary storage in {} ms, {} -> {} bytes",
+                    migrated, (System.nanoTime() - start) / 1_000_000, bytesBefore, bytesAfter);
+        }
+        //rows that failed to decrypt stay legacy, they are retried on the next run
+        finished = skipped == 0;
+    }
+}
@@ -1,25 +1,47 @@
 package com.securenotes.service;
 
 import com.securenotes.dto.CreateNoteRequest;
+import com.securenotes.dto.NoteSummaryResponse;
+import com.securenotes.dto.NoteUnlockResponse;
+import com.securenotes.dto.NoteView;
+import com.securenotes.dto.NotesPageResponse;
 import com.securenotes.dto.NotesResponse;
 import com.securenotes.exceptions.NotesNotFoundException;
 import com.securenotes.model.Notes;
-import com.securenotes.model.User;
+import com.securenotes.model.UserPrincipal;
+import com.securenotes.repository.NoteSearchTokenRepository;
+import com.securenotes.repository.NoteSummary;
 import com.securenotes.repository.NotesRepository;
 import com.securenotes.repository.UserRepository;
+import com.securenotes.utils.BlindIndexUtil;
+import com.securenotes.utils.DecryptedNoteCache;
 import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.FlightEvents.NoteSearchEvent;
+import com.securenotes.utils.NoteCodec;
+import com.securenotes.utils.NoteUnlockGrants;
+import com.securenotes.utils.SecurityUtils;
+import jakarta.persistence.EntityManagerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.Set;
 
 @Service
 public class NotesService {
 
+    private static final int MAX_PAGE_SIZE = 100;
+
     @Autowired
     UserService userService;
 
@@ -28,103 +50,222 @@ public class NotesService {
 
     @Autowired
     NotesRepository notesRepository;
-    @Autowired
-    OurUserDetailService ourUserDetailService;
 
     @Autowired
     PasswordEncoder passwordEncoder;
 
-    public Notes addNote(CreateNoteRequest createNoteRequest) throws Exception {
+    @Autowired
+    NoteSearchIndexService noteSearchIndexService;
+
+    @Autowired
+    NoteSearchTokenRepository noteSearchTokenRepository;
+
+    @Autowired
+    BlindIndexUtil blindIndexUtil;
+
+    @Autowired
+    DecryptedNoteCache decryptedNoteCache;
+
+    @Autowired
+    NoteUnlockGrants noteUnlockGrants;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    public NotesResponse addNote(CreateNoteRequest createNoteRequest) throws Exception {
         Notes notes = createNoteRequest.to();
 
-        User loggedInUser = (User)ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
-        notes.setTitle(EncryptionUtil.encrypt(createNoteRequest.getTitle()));
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
         notes.setUserId(loggedInUser.getUserId());
-        notes.setDescription(EncryptionUtil.encrypt(createNoteRequest.getDescription()));
+        notes.setKeyGeneration(EncryptionUtil.currentGeneration(notes.getUserId()));
+        notes.setTitle(EncryptionUtil.encrypt(notes.getUserId(), createNoteRequest.getTitle()));
+        NoteCodec.writeDescription(notes, createNoteRequest.getDescription());
+        notes.setPreview(EncryptionUtil.encrypt(notes.getUserId(), NoteSummaryResponse.previewOf(createNoteRequest.getDescription())));
         if(createNoteRequest.getPassword() != null && !createNoteRequest.getPassword().isEmpty()){
             notes.setPassword(passwordEncoder.encode(createNoteRequest.getPassword()));
         }else{
             notes.setPassword(null);
         }
 
-        return notesRepository.save(notes);
+        notes = notesRepository.save(notes);
+        noteSearchIndexService.index(notes, createNoteRequest.getTitle(), createNoteRequest.getDescription());
+        if(!isSecured(notes)){
+            decryptedNoteCache.put(notes, createNoteRequest.getTitle(), createNoteRequest.getDescription());
+        }
+        return plainResponse(notes, createNoteRequest.getTitle(), createNoteRequest.getDescription());
     }
 
-    public Notes getNoteById(int id) throws Exception {
-        User loggedInUser = (User) ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
-        Notes notes = notesRepository.findByNotesId(id);
-        String decryptedTitle = EncryptionUtil.decrypt(notes.getTitle());
-        String decryptedDescription = EncryptionUtil.decrypt(notes.getDescription());
-        notes.setTitle(decryptedTitle);
-        notes.setDescription(decryptedDescription);
+    //response for a note that was just written, built from the request plaintext instead of decrypting it again
+    private static NotesResponse plainResponse(Notes notes, String title, String description) {
+        return NotesResponse.builder()
+                .notesId(notes.getNotesId())
+                .title(title)
+                .description(description)
+                .createdOn(notes.getCreatedOn())
+                .updatedOn(notes.getUpdatedOn())
+                .build();
+    }
 
-        if(notes.getUserId() == loggedInUser.getUserId() && notes.getPassword() == null){
-            return notes;
-        }else{
-            throw new NotesNotFoundException("Note not found or user does not have permission to access the note");
+    //lazy view, unsecured notes that are in the decrypted note cache come with their plaintext
+    private NoteView toView(Notes notes) {
+        if(!isSecured(notes)){
+            NotesResponse cached = decryptedNoteCache.get(notes);
+            if(cached != null){
+                return NoteView.of(notes, cached.getTitle(), cached.getDescription());
+            }
         }
+        return NoteView.of(notes);
     }
 
-    public Notes getSecureNoteById(int id) throws Exception {
-        User loggedInUser = (User) ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+    //decrypted view of a note, unsecured notes are served from the decrypted note cache when possible
+    public NotesResponse toResponse(Notes notes) throws Exception {
+        if(isSecured(notes)){
+            return NotesResponse.to(notes);
+        }
+        NotesResponse cached = decryptedNoteCache.get(notes);
+        if(cached != null){
+            return cached;
+        }
+        NotesResponse notesResponse = NotesResponse.to(notes);
+        decryptedNoteCache.put(notes, notesResponse.getTitle(), notesResponse.getDescription());
+        return notesResponse;
+    }
+
+    private boolean isSecured(Notes notes){
+        return notes.getPassword() != null && !notes.getPassword().isEmpty();
+    }
+
+    //a valid unlock token for the note is accepted in place of its password, so only the unlock itself pays for BCrypt
+    private boolean canAccessSecuredNote(Notes notes, int userId, String password, String unlockToken){
+        if(!isSecured(notes) || notes.getUserId() != userId){
+            return false;
+        }
+        if(unlockToken != null && !unlockToken.isBlank()){
+            return noteUnlockGrants.isValid(unlockToken, notes.getNotesId(), userId, notes.getPassword());
+        }
+        return password != null && passwordEncoder.matches(password, notes.getPassword());
+    }
+
+    public NoteUnlockResponse unlock(int notesId, String password) {
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
+        Notes notes = notesRepository.findByNotesId(notesId);
+        if(notes == null || !canAccessSecuredNote(notes, loggedInUser.getUserId(), password, null)){
+            throw new NotesNotFoundException("Notes not found or not have permission for this note");
+        }
+        String unlockToken = noteUnlockGrants.issue(notesId, loggedInUser.getUserId(), notes.getPassword());
+        return new NoteUnlockResponse(notesId, unlockToken, new Date(System.currentTimeMillis() + noteUnlockGrants.ttlMillis()));
+    }
+
+    public NoteView getNoteById(int id) throws Exception {
+        Notes notes = findUnsecuredNote(id);
+        NotesResponse decrypted = toResponse(notes);
+        return NoteView.of(notes, decrypted.getTitle(), decrypted.getDescription());
+    }
+
+    //an unsecured note of the logged in user, nothing is decrypted
+    private Notes findUnsecuredNote(int id) {
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
         Notes notes = notesRepository.findByNotesId(id);
-        String decryptedTitle = EncryptionUtil.decrypt(notes.getTitle());
-        String decryptedDescription = EncryptionUtil.decrypt(notes.getDescription());
-        notes.setTitle(decryptedTitle);
-        notes.setDescription(decryptedDescription);
-        if(notes.getUserId() == loggedInUser.getUserId()){
+        if(notes != null && notes.getUserId() == loggedInUser.getUserId() && notes.getPassword() == null){
             return notes;
         }else{
             throw new NotesNotFoundException("Note not found or user does not have permission to access the note");
         }
     }
 
-    public List<Notes> getAllNotes(){
-        User loggedInUser = (User) ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+    /*
+    Before: every title and description was decrypted into the entities, and the descriptions of secured notes were
+    encrypted again right after so they went out as ciphertext.
+    After: the notes go out as lazy views, only the fields that are serialized get decrypted, and the description of
+    a secured note is left out without ever being decrypted.
+     */
+    public List<NoteView> getAllNotes(){
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
+
+        return notesRepository.findAllNotesByUserId(loggedInUser.getUserId()).stream()
+                .map(this::toView)
+                .toList();
+    }
 
-        List<Notes> encryptedNotes = notesRepository.findAllNotesByUserId(loggedInUser.getUserId());
+    /*
+    Before: getAll returned every note of the user with its full description (up to 60000 chars) decrypted.
+    After: notes are listed in pages of summaries, newest first. Each page is one keyset query on (userId, updatedOn, notesId)
+    that only fetches the title and the short encrypted preview, the description is decrypted only by /notes/get/{id}.
+     */
+    public NotesPageResponse getNotesPage(String cursor, int size, boolean securedOnly) throws Exception {
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+
+        List<NoteSummary> summaries;
+        if(cursor == null || cursor.isBlank()){
+            summaries = notesRepository.findNoteSummaries(loggedInUser.getUserId(), securedOnly, PageRequest.of(0, pageSize));
+        }else{
+            long[] position = decodeCursor(cursor);
+            summaries = notesRepository.findNoteSummariesAfter(loggedInUser.getUserId(), securedOnly,
+                    new Date(position[0]), (int) position[1], PageRequest.of(0, pageSize));
+        }
 
-        List<Notes> decryptedNotes = encryptedNotes.stream()
-                .map(notes -> {
-                    try {
-                        String decryptedTitle = EncryptionUtil.decrypt(notes.getTitle());
-                        String decryptedDescription = EncryptionUtil.decrypt(notes.getDescription());
-                        notes.setTitle(decryptedTitle);
-                        notes.setDescription(decryptedDescription);
-                    }catch (Exception e){
-                        e.printStackTrace();
-                    }
-                    return notes;
-                }).collect(Collectors.toList());
-        decryptedNotes.stream()
-                .filter(n -> n.getPassword() != null)
-                .map(n -> {
-                    try {
-                        n.setDescription(EncryptionUtil.encrypt(n.getDescription()));
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                    return n;
-                }).toList();
+        List<NoteSummaryResponse> notes = new ArrayList<>();
+        for (NoteSummary summary : summaries) {
+            NoteSummaryResponse noteSummaryResponse = NoteSummaryResponse.to(summary);
+            if(!summary.isSecured() && summary.getPreview() == null){
+                noteSummaryResponse.setPreview(fillMissingPreview(summary.getNotesId()));
+            }
+            notes.add(noteSummaryResponse);
+        }
 
-        return decryptedNotes;
+        String nextCursor = null;
+        if(summaries.size() == pageSize){
+            NoteSummary last = summaries.get(summaries.size() - 1);
+            nextCursor = encodeCursor(last.getUpdatedOn(), last.getNotesId());
+        }
+        return new NotesPageResponse(notes, nextCursor);
     }
 
-    public Notes delete(int id) throws Exception {
-        User loggedInUser = (User) ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
-        Notes note = getNoteById(id); // Retrieve the note before deletion
-        if (note != null && note.getUserId() == loggedInUser.getUserId() && note.getPassword() == null) {
-            notesRepository.deleteById(id); // Delete the note
+    //notes written before previews existed get theirs computed once, on the first listing that shows them
+    private String fillMissingPreview(int notesId) throws Exception {
+        Notes notes = notesRepository.findByNotesId(notesId);
+        String preview = NoteSummaryResponse.previewOf(NoteCodec.readDescription(notes));
+        //the preview is encrypted with the current key, title and description may still be on an older one until
+        //KeyRotationService gets to the note, it rewrites all three
+        //written around hibernate so updatedOn isn't bumped, which would move the note in the listing. A bulk JPQL
+        //update would do the same but clear the whole notes region of the second-level cache, this only evicts the note
+        int updated = jdbcTemplate.update("update notes set preview = ? where notes_id = ? and preview is null",
+                EncryptionUtil.encrypt(notes.getUserId(), preview), notesId);
+        if (updated != 0) {
+            entityManagerFactory.getCache().evict(Notes.class, notesId);
         }
-//        String decryptedTitle = EncryptionUtil.decrypt(note.getTitle());
-//        String decryptedDescription = EncryptionUtil.decrypt(note.getDescription());
-//        note.setTitle(decryptedTitle);
-//        note.setDescription(decryptedDescription);
-        return note; // Return the deleted note or null if not found
+        return preview;
+    }
+
+    private static String encodeCursor(Date updatedOn, int notesId) {
+        String position = (updatedOn == null ? 0 : updatedOn.getTime()) + ":" + notesId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] decodeCursor(String cursor) {
+        try {
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            return new long[]{Long.parseLong(position[0]), Integer.parseInt(position[1])};
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    public NoteView delete(int id) throws Exception {
+        Notes note = findUnsecuredNote(id); // Retrieve the note before deletion
+        NoteView deleted = toView(note);
+        notesRepository.deleteById(id); // Delete the note
+        noteSearchIndexService.remove(id);
+        decryptedNoteCache.invalidate(id);
+        return deleted; // Return the deleted note, it is decrypted when the response is written
     }
 
 //    public Notes deleteSecuredNote(int id, String password) throws Exception {
-//        User loggedInUser = (User) ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+//        UserPrincipal loggedInUser = SecurityUtils.currentUser();
 //        Notes note = getSecureNoteById(id);
 //        if(note != null
 //                && note.getPassword() != null
@@ -139,37 +280,28 @@ public class NotesService {
 //        return note;
 //    }
 
-public Notes deleteSecuredNote(int id, String password) throws Exception {
+public NoteView deleteSecuredNote(int id, String password, String unlockToken) throws Exception {
     // Get the currently logged-in user
-    User loggedInUser = (User) ourUserDetailService.loadUserByUsername(
-            SecurityContextHolder.getContext().getAuthentication().getName()
-    );
+    UserPrincipal loggedInUser = SecurityUtils.currentUser();
 
-    // Retrieve the secured note by ID
-    Notes note = getSecureNoteById(id);
+    // Retrieve the secured note by ID, it stays encrypted until the password is checked
+    Notes note = notesRepository.findByNotesId(id);
 
     // Check if the note exists
     if (note == null) {
         throw new Exception("Note not found");
     }
 
-    // Validate the note's ownership, password existence, and password match
-    if (note.getPassword() != null &&
-            note.getUserId() == loggedInUser.getUserId() &&
-//            note.getPassword().equals(password)
-            passwordEncoder.matches(password, note.getPassword())
-    ) {
+    // Validate the note's ownership, password existence, and password or unlock token match
+    if (canAccessSecuredNote(note, loggedInUser.getUserId(), password, unlockToken)) {
         // Delete the note
         notesRepository.deleteById(id);
+        noteSearchIndexService.remove(id);
+        decryptedNoteCache.invalidate(id);
+        noteUnlockGrants.revokeNote(id);
 
-        // Decrypt the note details
-//        String decryptedTitle = EncryptionUtil.decrypt(note.getTitle());
-//        String decryptedDescription = EncryptionUtil.decrypt(note.getDescription());
-//        note.setTitle(decryptedTitle);
-//        note.setDescription(decryptedDescription);
-
-        // Return the decrypted note
-        return note;
+        // Return the note, decrypted when the response is written
+        return NoteView.unlocked(note);
     } else {
         // Throw an exception for unauthorized access
         throw new Exception("Unauthorized access or invalid password");
@@ -178,38 +310,36 @@ public Notes deleteSecuredNote(int id, String password) throws Exception {
 
 
     public NotesResponse update(int id, CreateNoteRequest createNoteRequest) throws Exception {
-        User loggedInUser = (User) ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
-        Notes notes = getNoteById(id);
-        if(notes != null&&notes.getUserId() == loggedInUser.getUserId() && notes.getPassword() == null){
-            notes.setTitle(EncryptionUtil.encrypt(createNoteRequest.getTitle()));
-            notes.setDescription(EncryptionUtil.encrypt(createNoteRequest.getDescription()));
-//            if (createNoteRequest.getPassword() != null) {
-//                notes.setPassword(passwordEncoder.encode(createNoteRequest.getPassword()));
-//            }
-            if(createNoteRequest.getPassword() != null && !createNoteRequest.getPassword().isEmpty()){
-                notes.setPassword(passwordEncoder.encode(createNoteRequest.getPassword()));
-            }else{
-                notes.setPassword(null);
-            }
-            notes =  notesRepository.save(notes);
-            NotesResponse notesResponse = new NotesResponse();
-            notesResponse = NotesResponse.to(notes);
-            notesResponse.setMessage("Note updated successfully.");
-            return notesResponse;
+        Notes notes = findUnsecuredNote(id);
+        notes.setKeyGeneration(EncryptionUtil.currentGeneration(notes.getUserId()));
+        notes.setTitle(EncryptionUtil.encrypt(notes.getUserId(), createNoteRequest.getTitle()));
+        NoteCodec.writeDescription(notes, createNoteRequest.getDescription());
+        notes.setPreview(EncryptionUtil.encrypt(notes.getUserId(), NoteSummaryResponse.previewOf(createNoteRequest.getDescription())));
+//        if (createNoteRequest.getPassword() != null) {
+//            notes.setPassword(passwordEncoder.encode(createNoteRequest.getPassword()));
+//        }
+        if(createNoteRequest.getPassword() != null && !createNoteRequest.getPassword().isEmpty()){
+            notes.setPassword(passwordEncoder.encode(createNoteRequest.getPassword()));
         }else{
-            throw new NotesNotFoundException("Note not found or user does not have permission to update the particular note");
+            notes.setPassword(null);
         }
-
+        notes =  notesRepository.save(notes);
+        noteSearchIndexService.index(notes, createNoteRequest.getTitle(), createNoteRequest.getDescription());
+        decryptedNoteCache.invalidate(id);
+        NotesResponse notesResponse = plainResponse(notes, createNoteRequest.getTitle(), createNoteRequest.getDescription());
+        notesResponse.setMessage("Note updated successfully.");
+        return notesResponse;
     }
 
-    public NotesResponse updateSecuredNote(int id, String password, CreateNoteRequest createNoteRequest) throws Exception {
-        User loggedInUser = (User) ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
-        Notes notes = getSecureNoteById(id);
-        if(notes != null
-                &&notes.getUserId() == loggedInUser.getUserId()
-                && passwordEncoder.matches(password,notes.getPassword())){
-            notes.setTitle(EncryptionUtil.encrypt(createNoteRequest.getTitle()));
-            notes.setDescription(EncryptionUtil.encrypt(createNoteRequest.getDescription()));
+    public NotesResponse updateSecuredNote(int id, String password, String unlockToken, CreateNoteRequest createNoteRequest) throws Exception {
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
+        Notes notes = notesRepository.findByNotesId(id);
+        if(notes != null && canAccessSecuredNote(notes, loggedInUser.getUserId(), password, unlockToken)){
+            String previousPassword = notes.getPassword();
+            notes.setKeyGeneration(EncryptionUtil.currentGeneration(notes.getUserId()));
+            notes.setTitle(EncryptionUtil.encrypt(notes.getUserId(), createNoteRequest.getTitle()));
+            NoteCodec.writeDescription(notes, createNoteRequest.getDescription());
+            notes.setPreview(EncryptionUtil.encrypt(notes.getUserId(), NoteSummaryResponse.previewOf(createNoteRequest.getDescription())));
 
             if(createNoteRequest.getPassword() != null && !createNoteRequest.getPassword().isEmpty()){
                 notes.setPassword(passwordEncoder.encode(createNoteRequest.getPassword()));
@@ -217,8 +347,12 @@ public Notes deleteSecuredNote(int id, String password) throws Exception {
                 notes.setPassword(null);
             }
             notes = notesRepository.save(notes);
-            NotesResponse notesResponse = new NotesResponse();
-            notesResponse = NotesResponse.to(notes);
+            noteSearchIndexService.index(notes, createNoteRequest.getTitle(), createNoteRequest.getDescription());
+            decryptedNoteCache.invalidate(id);
+            if(!Objects.equals(previousPassword, notes.getPassword())){
+                noteUnlockGrants.passwordChanged(id, unlockToken, notes.getPassword());
+            }
+            NotesResponse notesResponse = plainResponse(notes, createNoteRequest.getTitle(), createNoteRequest.getDescription());
             notesResponse.setMessage("Note updated successfully.");
             return notesResponse;
 
@@ -228,7 +362,7 @@ public Notes deleteSecuredNote(int id, String password) throws Exception {
     }
 
     public NotesResponse setPasswordForNote(int notesId, CreateNoteRequest createNoteRequest) throws Exception {
-        User loggedInUser = (User) ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
 
         Notes note = notesRepository.findById(notesId).orElse(null);
 
@@ -238,19 +372,19 @@ public Notes deleteSecuredNote(int id, String password) throws Exception {
 
         note.setPassword(passwordEncoder.encode(createNoteRequest.getPassword()));
         note = notesRepository.save(note);
+        noteSearchIndexService.remove(notesId);
+        decryptedNoteCache.invalidate(notesId);
         NotesResponse notesResponse = new NotesResponse();
         notesResponse = NotesResponse.to(note);
         notesResponse.setMessage("Password added successfully to the note.");
         return notesResponse;
     }
 
-    public NotesResponse getNoteByIdAndPassword(int notesId, String password) throws Exception {
+    public NotesResponse getNoteByIdAndPassword(int notesId, String password, String unlockToken) throws Exception {
         Notes existingNote = notesRepository.findByNotesId(notesId);
-        String encodePassword = passwordEncoder.encode(password);
-        String notePassword = existingNote.getPassword();
-        User loggedInUser = (User)ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
 
-        if(passwordEncoder.matches(password, notePassword) && existingNote.getUserId() == loggedInUser.getUserId()){
+        if(existingNote != null && canAccessSecuredNote(existingNote, loggedInUser.getUserId(), password, unlockToken)){
             return NotesResponse.to(existingNote);
         }else{
             throw new NotesNotFoundException("Notes not found or not have permission for this note");
@@ -258,17 +392,31 @@ public Notes deleteSecuredNote(int id, String password) throws Exception {
     }
 
     public List<NotesResponse> search(String searchKey, int loggedInUserId) throws Exception {
-        List<Notes> allNotes = notesRepository.findAllNotesWithoutPasswordByUserId(loggedInUserId);// Fetch all notes from database
+        NoteSearchEvent event = new NoteSearchEvent();
+        event.begin();
+        List<Notes> allNotes;
+        Set<String> tokenHashes = blindIndexUtil.queryTokens(searchKey);
+        if(tokenHashes.isEmpty()){
+            //key has no term of MIN_PREFIX_LENGTH or more to look up in the blind index, scan all notes like before
+            allNotes = notesRepository.findAllNotesWithoutPasswordByUserId(loggedInUserId);
+        }else{
+            //only the notes containing every term of the key are fetched and decrypted
+            List<Integer> matchingNotesIds = noteSearchTokenRepository.findNotesIdsMatchingAll(loggedInUserId, tokenHashes, tokenHashes.size());
+            allNotes = matchingNotesIds.isEmpty()
+                    ? List.of()
+                    : notesRepository.findAllNotesWithoutPasswordByUserIdAndNotesIdIn(loggedInUserId, matchingNotesIds);
+        }
                 List<NotesResponse> searchResults = new ArrayList<>();
 
                 List<NotesResponse> notesResponses = allNotes.stream().map(note -> {
                     try {
-                        return NotesResponse.to(note);//to function consist decryption logic
+                        return toResponse(note);//decrypts unless the note is in the decrypted note cache
                     } catch (Exception e) {
                         throw new RuntimeException(e);
                     }
                 }).toList();
 
+        //the index matches whole terms and prefixes, the exact check keeps phrase matching as it was
         for (NotesResponse note : notesResponses) {
             String title = note.getTitle();
             String description = note.getDescription();
@@ -278,37 +426,27 @@ public Notes deleteSecuredNote(int id, String password) throws Exception {
             }
         }
 
+        if(event.shouldCommit()){
+            event.userId = loggedInUserId;
+            event.indexed = !tokenHashes.isEmpty();
+            event.notesScanned = allNotes.size();
+            event.matches = searchResults.size();
+            event.commit();
+        }
         return searchResults;
 
     }
 
-    public List<NotesResponse> getAllSecuredNotes() {
-        User loggedInUser = (User) ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+    //locked notes only get their title decrypted, the description is never part of this list
+    public List<NoteView> getAllSecuredNotes() {
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
 
-        List<Notes> notes = notesRepository.findAllSecuredNotes(loggedInUser.getUserId());
-
-        //convert to notes response
-        List<NotesResponse>notesResponses = notes.stream()
+        return notesRepository.findAllSecuredNotes(loggedInUser.getUserId()).stream()
                 .map(note -> {
-                    NotesResponse notesResponse = new NotesResponse();
-//                    try {
-//                        notesResponse = NotesResponse.to(note);
-//                    } catch (Exception e) {
-//                        throw new RuntimeException(e);
-//                    }
-                    try {
-                        notesResponse.setTitle(EncryptionUtil.decrypt(note.getTitle()));
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                    notesResponse.setNotesId(note.getNotesId());
-                    notesResponse.setDescription(note.getDescription());
-                    notesResponse.setCreatedOn(note.getCreatedOn());
-                    notesResponse.setUpdatedOn(note.getUpdatedOn());
-                    notesResponse.setMessage("this is secured note enter password to show");
-                    return notesResponse;
-                }).collect(Collectors.toList());
-
-        return notesResponses;
+                    NoteView noteView = NoteView.of(note);
+                    noteView.setMessage("this is secured note enter password to show");
+                    return noteView;
+                })
+                .toList();
     }
 }
@@ -1,19 +1,68 @@
 package com.securenotes.service;
 
+import com.securenotes.model.User;
+import com.securenotes.model.UserPrincipal;
 import com.securenotes.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Loads users as immutable UserPrincipals and keeps them for a short ttl, so verifying a new token or a login doesn't
+query the user table each time. Account changes evict the user, the ttl bounds how long anything missed can be stale.
+ */
 @Service
 public class OurUserDetailService implements UserDetailsService {
     @Autowired
     private UserRepository userRepository;
 
+    @Value("${securenotes.auth.user-cache.ttl:5m}")
+    private Duration ttl;
+
+    @Value("${securenotes.auth.user-cache.max-entries:10000}")
+    private int maxEntries;
+
+    private final Map<String, CachedPrincipal> principals = new ConcurrentHashMap<>();
+
     @Override
-    public UserDetails loadUserByUsername(String encryptedEmail) throws UsernameNotFoundException {
-        return userRepository.findByEmail(encryptedEmail);
+    public UserPrincipal loadUserByUsername(String emailDigest) throws UsernameNotFoundException {
+        CachedPrincipal cached = principals.get(emailDigest);
+        if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+            return cached.principal;
+        }
+
+        User user = userRepository.findByEmailDigest(emailDigest);
+        if (user == null) {
+            //user not migrated to the digest yet, its username is still the email ciphertext
+            user = userRepository.findByEmail(emailDigest);
+        }
+        if (user == null) {
+            principals.remove(emailDigest);
+            throw new UsernameNotFoundException("User not found");
+        }
+
+        UserPrincipal principal = UserPrincipal.from(user);
+        if (principals.size() >= maxEntries) {
+            long now = System.currentTimeMillis();
+            principals.values().removeIf(entry -> entry.expiresAt <= now);
+        }
+        if (principals.size() < maxEntries) {
+            principals.put(emailDigest, new CachedPrincipal(principal, System.currentTimeMillis() + ttl.toMillis()));
+        }
+        return principal;
+    }
+
+    //call after anything in UserPrincipal changed for the user
+    public void evict(String username) {
+        principals.remove(username);
+    }
+
+    private record CachedPrincipal(UserPrincipal principal, long expiresAt) {
     }
 }
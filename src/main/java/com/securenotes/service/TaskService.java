@@ -1,22 +1,35 @@
 package com.securenotes.service;
 
 import com.securenotes.dto.CreateTaskRequest;
+import com.securenotes.dto.TaskPageResponse;
+import com.securenotes.dto.TaskResponse;
 import com.securenotes.exceptions.TaskNotFoundException;
 import com.securenotes.model.Tasks;
-import com.securenotes.model.User;
+import com.securenotes.model.UserPrincipal;
 import com.securenotes.repository.TaskRepository;
+import com.securenotes.repository.UserRepository;
+import com.securenotes.utils.SecurityUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.scheduling.config.Task;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Base64;
 import java.util.List;
 
 @Service
 public class TaskService {
 
+    private static final int MAX_PAGE_SIZE = 100;
+
     @Autowired
-    private OurUserDetailService ourUserDetailService;
+    private UserRepository userRepository;
 
     @Autowired
     private TaskRepository taskRepository;
@@ -24,24 +37,24 @@ public class TaskService {
     public Tasks create(CreateTaskRequest createTaskRequest) {
         Tasks tasks = createTaskRequest.to();
 
-        User loggedInUser = (User)ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
 
         tasks.setTitle(createTaskRequest.getTitle());
         tasks.setDescription(createTaskRequest.getDescription());
         tasks.setCompleted(createTaskRequest.isCompleted());
         tasks.setDueDate(createTaskRequest.getDueDate());
-        tasks.setUser(loggedInUser);
+        tasks.setUser(userRepository.getReferenceById(loggedInUser.getUserId()));//only the foreign key is needed, no select
 
         return taskRepository.save(tasks);
     }
 
     public List<Tasks> getAllTasks (){
-        User loggedInUser = (User)ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
         return taskRepository.findTasksByUserId(loggedInUser.getUserId());
     }
 
     public Tasks getById(int id){
-        User loggedInUser = (User)ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
         Tasks task = taskRepository.findById(id).orElse(null);
 
         if(task != null && task.getUser().getUserId() == loggedInUser.getUserId()){
@@ -52,7 +65,7 @@ public class TaskService {
     }
 
     public Tasks update(int id, CreateTaskRequest createTaskRequest){
-        User loggedInUser = (User)ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
         Tasks tasks = getById(id);
 
         if(tasks != null && tasks.getUser().getUserId() == loggedInUser.getUserId()){
@@ -68,7 +81,7 @@ public class TaskService {
     }
 
     public Tasks delete(int id){
-        User loggedInUser = (User)ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
         Tasks task = getById(id);
         if(task != null && task.getUser().getUserId() == loggedInUser.getUserId()){
             taskRepository.deleteById(id);
@@ -77,12 +90,93 @@ public class TaskService {
     }
 
     public int deleteAll() {
-        User loggedInUser = (User)ourUserDetailService.loadUserByUsername(SecurityContextHolder.getContext().getAuthentication().getName());
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
         int deletedTasks = taskRepository.deleteAllTasksByUserId(loggedInUser.getUserId());
         return deletedTasks;
     }
 
+    //used to return the completed (or open) tasks of every user
     public List<Tasks> getAllByCompletion(boolean completed) {
-        return taskRepository.findAllByIsCompleted(completed);
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
+        return taskRepository.findAllByUserIdAndCompleted(loggedInUser.getUserId(), completed);
+    }
+
+    /*
+    Pages of the caller's tasks in due date order, optionally filtered by completion and by due = overdue, today or week.
+    Every query starts with the user's (userId, completed, dueDate) index range, so the cost depends on that user's
+    tasks only and never on the size of the whole table.
+     */
+    public TaskPageResponse getTasksPage(Boolean completed, String due, String cursor, int size) {
+        UserPrincipal loggedInUser = SecurityUtils.currentUser();
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        PageRequest page = PageRequest.of(0, pageSize);
+
+        LocalDate today = LocalDate.now();
+        LocalDate dueFrom = null;
+        LocalDate dueBefore = null;
+        if(due != null && !due.isBlank()){
+            switch (due.toLowerCase()) {
+                case "overdue" -> {
+                    dueBefore = today;
+                    //a completed task is not overdue, unless completed tasks were asked for explicitly
+                    completed = completed == null ? Boolean.FALSE : completed;
+                }
+                case "today" -> {
+                    dueFrom = today;
+                    dueBefore = today.plusDays(1);
+                }
+                case "week" -> {
+                    dueFrom = today;
+                    dueBefore = today.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
+                }
+                default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "due must be one of overdue, today, week");
+            }
+        }
+
+        List<Tasks> tasks;
+        int userId = loggedInUser.getUserId();
+        if(cursor == null || cursor.isBlank()){
+            tasks = taskRepository.findTaskPage(userId, completed, dueFrom, dueBefore, page);
+        }else{
+            String[] position = decodeCursor(cursor);
+            int afterTaskId = parseCursorPart(position[1]);
+            tasks = position[0].isEmpty()
+                    ? taskRepository.findTaskPageAfterUndated(userId, completed, dueFrom, dueBefore, afterTaskId, page)
+                    : taskRepository.findTaskPageAfter(userId, completed, dueFrom, dueBefore,
+                            LocalDate.ofEpochDay(parseCursorPart(position[0])), afterTaskId, page);
+        }
+
+        String nextCursor = null;
+        if(tasks.size() == pageSize){
+            Tasks last = tasks.get(tasks.size() - 1);
+            nextCursor = encodeCursor(last.getDueDate(), last.getTaskId());
+        }
+        return new TaskPageResponse(TaskResponse.toList(tasks), nextCursor);
+    }
+
+    //"epochDay:taskId", the epoch day is left empty for tasks without a due date
+    private static String encodeCursor(LocalDate dueDate, int taskId) {
+        String position = (dueDate == null ? "" : String.valueOf(dueDate.toEpochDay())) + ":" + taskId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decodeCursor(String cursor) {
+        try {
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", -1);
+            if(position.length != 2){
+                throw new IllegalArgumentException(cursor);
+            }
+            return position;
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    private static int parseCursorPart(String part) {
+        try {
+            return Integer.parseInt(part);
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
     }
 }
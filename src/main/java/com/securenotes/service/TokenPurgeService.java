@@ -0,0 +1,68 @@
+package com.securenotes.service;
+
+import com.securenotes.repository.TokenRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+Token rows used to be kept forever, revokeAllTokensByUser only flips isLoggedOut, so the table kept growing.
+This job deletes rows that can't authenticate anymore, in bounded batches so one run never holds
+long locks or builds a huge delete. Rows whose access token expired stay until the refresh token expires too.
+ */
+@Service
+public class TokenPurgeService {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenPurgeService.class);
+
+    private final TokenRepository tokenRepository;
+    private final int batchSize;
+    private final Counter purgedRows;
+    private final Timer batchTimer;
+
+    public TokenPurgeService(TokenRepository tokenRepository,
+                             MeterRegistry meterRegistry,
+                             @Value("${securenotes.token-purge.batch-size:500}") int batchSize) {
+        this.tokenRepository = tokenRepository;
+        this.batchSize = batchSize;
+        this.purgedRows = Counter.builder("securenotes.token.purge.rows").register(meterRegistry);
+        this.batchTimer = Timer.builder("securenotes.token.purge.batch").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${securenotes.token-purge.interval:PT1H}",
+            initialDelayString = "${securenotes.token-purge.initial-delay:PT1M}")
+    public void purgeTokens() {
+        int total = 0;
+        int purged;
+        do {
+            long start = System.nanoTime();
+            List<Integer> tokenIds = tokenRepository.findPurgeableTokenIds(LocalDateTime.now(), PageRequest.of(0, batchSize));
+            if (!tokenIds.isEmpty()) {
+                tokenRepository.deleteAllByIdInBatch(tokenIds);
+            }
+            purged = tokenIds.size();
+            long elapsed = System.nanoTime() - start;
+
+            if (purged > 0) {
+                batchTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                purgedRows.increment(purged);
+                log.info("Purged {} token rows in {} ms", purged, elapsed / 1_000_000);
+            }
+            total += purged;
+        } while (purged == batchSize);
+
+        if (total > 0) {
+            log.info("Token purge finished, {} rows removed", total);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.securenotes.service;
+
+import com.securenotes.model.User;
+import com.securenotes.repository.UserEmailDigest;
+import com.securenotes.repository.UserRepository;
+import com.securenotes.utils.BlindIndexUtil;
+import com.securenotes.utils.EmailBloomFilter;
+import com.securenotes.utils.EncryptionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Before: users were looked up by the deterministic AES ciphertext of their email, which is why the email could not
+use randomized encryption.
+After: lookups go through emailDigest, a fixed length keyed HMAC with its own unique index, and the stored email is
+encrypted with a random iv. Users created before the digest column are migrated once the app is up, and then the
+signup Bloom filter is filled from all digests.
+ */
+@Service
+public class UserEmailIndexService {
+
+    private static final Logger log = LoggerFactory.getLogger(UserEmailIndexService.class);
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Autowired
+    BlindIndexUtil blindIndexUtil;
+
+    @Autowired
+    EmailBloomFilter emailBloomFilter;
+
+    @Autowired
+    OurUserDetailService ourUserDetailService;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateAndLoadDigests() {
+        migrateLegacyUsers();
+        checkDigestKey();
+
+        long start = System.nanoTime();
+        int loaded = 0;
+        int lastUserId = 0;
+        List<UserEmailDigest> batch;
+        do {
+            batch = userRepository.findEmailDigests(lastUserId, PageRequest.of(0, BATCH_SIZE));
+            for (UserEmailDigest userEmailDigest : batch) {
+                emailBloomFilter.put(userEmailDigest.getEmailDigest());
+                lastUserId = userEmailDigest.getUserId();
+            }
+            loaded += batch.size();
+        } while (batch.size() == BATCH_SIZE);
+        emailBloomFilter.markReady();
+        log.info("Signup Bloom filter loaded with {} email digests in {} ms", loaded, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    //a changed securenotes.auth.email-digest-key doesn't fail anything, every login just stops finding its user
+    private void checkDigestKey() {
+        List<UserEmailDigest> first = userRepository.findEmailDigests(0, PageRequest.of(0, 1));
+        if (first.isEmpty()) {
+            return;
+        }
+        User user = userRepository.findById(first.get(0).getUserId());
+        try {
+            if (!blindIndexUtil.emailDigest(EncryptionUtil.decrypt(user.getEmail())).equals(user.getEmailDigest())) {
+                log.error("securenotes.auth.email-digest-key doesn't match the stored email digests, no existing user can log in. "
+                        + "Set EMAIL_DIGEST_KEY to the key the digests were written with");
+            }
+        } catch (Exception e) {
+            log.warn("Unable to check the email digest key against user {}: {}", user.getUserId(), e.getMessage());
+        }
+    }
+
+    private void migrateLegacyUsers() {
+        int migrated = 0;
+        int lastUserId = 0;
+        List<User> batch;
+        do {
+            batch = userRepository.findUsersWithoutEmailDigest(lastUserId, PageRequest.of(0, BATCH_SIZE));
+            List<User> updated = new ArrayList<>();
+            for (User user : batch) {
+                lastUserId = user.getUserId();
+                try {
+                    //the username changes from the email ciphertext to the digest
+                    ourUserDetailService.evict(user.getUsername());
+                    String email = EncryptionUtil.decrypt(user.getEmail());
+                    user.setEmailDigest(blindIndexUtil.emailDigest(email));
+                    user.setKeyGeneration(EncryptionUtil.currentGeneration(EncryptionUtil.SYSTEM_OWNER));
+                    user.setEmail(EncryptionUtil.encrypt(EncryptionUtil.SYSTEM_OWNER, email));
+                    updated.add(user);
+                } catch (Exception e) {
+                    log.warn("Unable to migrate email of user {}: {}", user.getUserId(), e.getMessage());
+                }
+            }
+            userRepository.saveAll(updated);
+            migrated += updated.size();
+        } while (batch.size() == BATCH_SIZE);
+        if (migrated > 0) {
+            log.info("Migrated {} users to email digest lookup", migrated);
+        }
+    }
+}
@@ -3,33 +3,42 @@ import com.securenotes.dto.CreateUserRequest;
 import com.securenotes.dto.LoginRequest;
 import com.securenotes.dto.LoginResponse;
 import com.securenotes.dto.UserResponse;
+import com.securenotes.exceptions.InvalidRefreshTokenException;
+import com.securenotes.model.EmailOutbox;
 import com.securenotes.model.Token;
 import com.securenotes.model.User;
 import com.securenotes.repository.NotesRepository;
 import com.securenotes.repository.TokenRepository;
 import com.securenotes.repository.UserRepository;
-import com.securenotes.utils.EmailUtil;
+import com.securenotes.utils.BlindIndexUtil;
+import com.securenotes.utils.EmailBloomFilter;
 import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.HashUtil;
 import com.securenotes.utils.JWTUtils;
 import com.securenotes.utils.OtpUtil;
-import jakarta.mail.MessagingException;
+import com.securenotes.utils.TokenVerificationCache;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.AuthenticationException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.time.ZoneId;
+import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 
 @Service
 public class UserService {
     @Autowired
-    BCryptPasswordEncoder passwordEncoder;
+    PasswordEncoder passwordEncoder;
 
     @Autowired
     JWTUtils jwtUtils;
@@ -50,7 +59,7 @@ public class UserService {
     private OtpUtil otpUtil;
 
     @Autowired
-    private EmailUtil emailUtil;
+    private EmailOutboxService emailOutboxService;
 
     @Autowired
     TokenRepository tokenRepository;
@@ -58,6 +67,29 @@ public class UserService {
     @Autowired
     ExecutorService executorService;
 
+    @Autowired
+    TokenVerificationCache tokenVerificationCache;
+
+    @Autowired
+    BlindIndexUtil blindIndexUtil;
+
+    @Autowired
+    EmailBloomFilter emailBloomFilter;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    //Bloom filter first, the existence query only runs when the address might already be registered
+    public boolean emailExists(String email) {
+        String emailDigest = blindIndexUtil.emailDigest(email);
+        return emailBloomFilter.mightContain(emailDigest) && userRepository.existsByEmailDigest(emailDigest);
+    }
+
+    public User findByEmail(String email) {
+        return userRepository.findByEmailDigest(blindIndexUtil.emailDigest(email));
+    }
+
+    //the BCrypt hashes and the encryption run before the transaction, so no connection is held while they take their time
     public UserResponse create(CreateUserRequest createUserRequest) throws Exception {
         UserResponse userResponse = new UserResponse();
         //otp related stuff
@@ -65,8 +97,11 @@ public class UserService {
 
         User user = new User();
 //        createUserRequest.setEmail(createUserRequest.getEmail().toLowerCase());
-        user.setEmail(EncryptionUtil.encrypt(createUserRequest.getEmail().toLowerCase()));
-        user.setName(EncryptionUtil.encrypt(createUserRequest.getName()));
+        //the user id doesn't exist yet, user rows are encrypted with the system data key
+        user.setKeyGeneration(EncryptionUtil.currentGeneration(EncryptionUtil.SYSTEM_OWNER));
+        user.setEmail(EncryptionUtil.encrypt(EncryptionUtil.SYSTEM_OWNER, createUserRequest.getEmail().toLowerCase()));
+        user.setEmailDigest(blindIndexUtil.emailDigest(createUserRequest.getEmail()));
+        user.setName(EncryptionUtil.encrypt(EncryptionUtil.SYSTEM_OWNER, createUserRequest.getName()));
         user.setRole(createUserRequest.getRole());
         user.setPassword(passwordEncoder.encode(createUserRequest.getPassword()));
         user.setOtp(passwordEncoder.encode(otp));
@@ -83,23 +118,22 @@ public class UserService {
         This added significant latency, especially if the email server was slow or experiencing delays.
         After: By using ExecutorService to send the email asynchronously, the main thread can proceed with other operations without waiting for the email to be sent.
         This reduces the overall time taken to complete the user creation process.
+        Now the mail goes through the email outbox: it is stored in the same transaction as the user and sent right
+        after the commit, with retries, so it is no longer lost when sending fails or the app restarts.
          */
 
-        // Send OTP email asynchronously
-        executorService.submit(() -> {
-            try {
-                emailUtil.sendOtpEmail(createUserRequest.getEmail(), otp);
-            } catch (MessagingException e) {
-                // Log the exception and potentially retry or notify admin
-                e.printStackTrace();
-            }
-        });
+        // Queue OTP email, sent asynchronously once the user is committed
+        EmailOutbox otpEmail = emailOutboxService.prepareOtpEmail(createUserRequest.getEmail(), otp);
 
 //        userResponse.setUser(user);
         userResponse = UserResponse.to(user);
         userResponse.setMessage("Sign up successfully. Otp sent to Registered Email, Verify account and login...");
 
-        User userResult =userRepository.save(user);
+        User userResult = transactionTemplate.execute(status -> {
+            emailOutboxService.enqueue(otpEmail);
+            return userRepository.save(user);
+        });
+        emailBloomFilter.put(userResult.getEmailDigest());
         return userResponse;
     }
     // Ensure to shut down the executor service appropriately
@@ -113,24 +147,28 @@ public class UserService {
 
 
     // Login logic in the service layer
-    public LoginResponse login(LoginRequest loginRequest) throws Exception {
+    public LoginResponse login(LoginRequest loginRequest, String deviceId) throws Exception {
         LoginResponse loginResponse = new LoginResponse();
 
         // Encrypt the email for lookup
 //        loginRequest.setEmail(loginRequest.getEmail().toLowerCase());
 
-        String encryptedEmail = EncryptionUtil.encrypt(loginRequest.getEmail().toLowerCase());
-        User user = userRepository.findByEmail(encryptedEmail);
+        User user = findByEmail(loginRequest.getEmail());
 
-        // Generate JWT and Refresh Token
+        // Generate JWT and Refresh Token, a login starts a new token family
+        String family = UUID.randomUUID().toString();
         String jwt = jwtUtils.generateToken(user);
-        String refreshToken = jwtUtils.generateRefreshToken(new HashMap<>(), user);
+        String refreshToken = jwtUtils.generateRefreshToken(user, family);
 
-        // Revoke all previous tokens for the user
-        revokeAllTokensByUser(user);
+        // Revoke the previous session of this device, or all previous tokens when the device is unknown
+        if (deviceId != null) {
+            revokeTokens(tokenRepository.findAllTokenByUserAndDevice(user.getUserId(), deviceId));
+        } else {
+            revokeAllTokensByUser(user);
+        }
 
         // Save the new tokens to the database
-        saveUserToken(user, jwt, refreshToken);
+        saveUserToken(user, jwt, refreshToken, family, deviceId);
 
         // Set response details
         loginResponse.setToken(jwt);
@@ -175,29 +213,93 @@ public class UserService {
 //        return  loginResponse;
 //    }
 
-    private void saveUserToken(User user, String jwt, String refreshToken) {
+    /*
+    Before: the refresh token expired the moment it was issued, so clients logged in again with the password every
+    24 hours - a BCrypt check plus revokeAllTokensByUser rewriting every token row of the user.
+    After: the refresh token is exchanged here for a new access and refresh token: one signature check, one lookup by
+    the refresh token digest and one conditional update of the session row. Every refresh token can be used once.
+    A refresh token that is validly signed and not expired but no longer the current one of its family has been used
+    before, by the client or by someone who stole it - the whole family is revoked and the device has to log in again.
+     */
+    public LoginResponse refresh(String refreshToken) {
+        Claims claims;
+        try {
+            claims = jwtUtils.extractAllClaims(refreshToken);
+        } catch (JwtException | IllegalArgumentException e) {
+            throw new InvalidRefreshTokenException("Invalid or expired refresh token, please login again.");
+        }
+        String family = claims.get(JWTUtils.FAMILY_CLAIM, String.class);
+        if (!jwtUtils.isRefreshToken(claims) || family == null) {
+            throw new InvalidRefreshTokenException("Invalid or expired refresh token, please login again.");
+        }
+
+        String refreshTokenHash = HashUtil.sha256Hex(refreshToken);
+        Token session = tokenRepository.findByRefreshTokenHash(refreshTokenHash).orElse(null);
+        if (session == null || session.isLoggedOut() || !family.equals(session.getFamily())) {
+            revokeTokens(tokenRepository.findAllTokenByFamily(family));
+            throw new InvalidRefreshTokenException("Refresh token is no longer valid, please login again.");
+        }
+
+        User user = session.getUser();
+        String jwt = jwtUtils.generateToken(user);
+        String nextRefreshToken = jwtUtils.generateRefreshToken(user, family);
+        int rotated = tokenRepository.rotate(session.getTokenId(), refreshTokenHash,
+                HashUtil.sha256Hex(jwt), HashUtil.sha256Hex(nextRefreshToken),
+                expiresAt(jwtUtils.extractAllClaims(jwt).getExpiration()),
+                expiresAt(jwtUtils.extractAllClaims(nextRefreshToken).getExpiration()));
+        if (rotated == 0) {
+            //a concurrent refresh with the same token got there first
+            revokeTokens(tokenRepository.findAllTokenByFamily(family));
+            throw new InvalidRefreshTokenException("Refresh token is no longer valid, please login again.");
+        }
+        //the previous access token of the session stops working with the rotation
+        if (session.getTokenHash() != null) {
+            tokenVerificationCache.revoke(session.getTokenHash(), jwtUtils.maxExpiresAt());
+        }
+
+        LoginResponse loginResponse = new LoginResponse();
+        loginResponse.setToken(jwt);
+        loginResponse.setRefreshToken(nextRefreshToken);
+        loginResponse.setRole(user.getRole());
+        loginResponse.setMessage("Token refreshed!");
+        return loginResponse;
+    }
+
+    private void saveUserToken(User user, String jwt, String refreshToken, String family, String deviceId) {
         Token token = new Token();
-        token.setToken(jwt);
-        token.setRefreshToken(refreshToken);
+        token.setTokenHash(HashUtil.sha256Hex(jwt));
+        token.setRefreshTokenHash(HashUtil.sha256Hex(refreshToken));
+        token.setExpiresAt(expiresAt(jwtUtils.extractAllClaims(jwt).getExpiration()));
+        token.setRefreshExpiresAt(expiresAt(jwtUtils.extractAllClaims(refreshToken).getExpiration()));
+        token.setFamily(family);
+        token.setDeviceId(deviceId);
         token.setUser(user);
         token.setLoggedOut(false);
         tokenRepository.save(token);
     }
 
+    private static LocalDateTime expiresAt(Date expiration) {
+        return LocalDateTime.ofInstant(expiration.toInstant(), ZoneId.systemDefault());
+    }
+
     private void revokeAllTokensByUser(User user){
-        List<Token>validTokensListByUser = tokenRepository.findAllTokenByUser(user.getUserId());
-        if(!validTokensListByUser.isEmpty()){
-            validTokensListByUser.forEach(t -> {
-                t.setLoggedOut(true);
-            });
+        revokeTokens(tokenRepository.findAllTokenByUser(user.getUserId()));
+    }
+
+    //one update for all the rows instead of merging and dirty checking every token entity
+    private void revokeTokens(List<Token> validTokensListByUser){
+        if(validTokensListByUser.isEmpty()){
+            return;
         }
-        tokenRepository.saveAll(validTokensListByUser);
+        tokenRepository.logOut(validTokensListByUser.stream().map(Token::getTokenId).toList());
+        validTokensListByUser.stream()
+                .filter(t -> t.getTokenHash() != null)
+                .forEach(t -> tokenVerificationCache.revoke(t.getTokenHash(), jwtUtils.maxExpiresAt()));
     }
 
     //verification related
     public String verifyAccount(String email, String otp) throws Exception {
-        String encryptedEmail = EncryptionUtil.encrypt(email.toLowerCase());
-        User user = userRepository.findByEmail(encryptedEmail);
+        User user = findByEmail(email);
         if(user == null){
             return "User not found with this email: "+email;
         }
@@ -211,32 +313,29 @@ public class UserService {
                 LocalDateTime.now()).getSeconds() < (2 * 60)) {//checking time of otp
             user.setActive(true);
             userRepository.save(user);
+            ourUserDetailService.evict(user.getUsername());
             return "OTP verified you can login";
         }
         return "Please regenerate otp and try again";
     }
 
+    //like create, the otp is hashed and the mail encrypted before the transaction that stores both
     public String regenerateOtp(String email) throws Exception {
-        String encryptedEmail = EncryptionUtil.encrypt(email.toLowerCase());
-        User user = userRepository.findByEmail(encryptedEmail);
+        User user = findByEmail(email);
         if(user == null){
             return "User not found with this email: "+email;
         }
 
         String otp = otpUtil.generateOtp();
-        // Send OTP email asynchronously
-        executorService.submit(() -> {
-            try {
-                emailUtil.sendOtpEmail(email, otp);
-            } catch (MessagingException e) {
-                // Log the exception and potentially retry or notify admin
-                e.printStackTrace();
-                throw  new RuntimeException("unable to send otp please try again");
-            }
+        String otpHash = passwordEncoder.encode(otp);
+        EmailOutbox otpEmail = emailOutboxService.prepareOtpEmail(email, otp);
+        transactionTemplate.executeWithoutResult(status -> {
+            // Queue OTP email, sent asynchronously once the new otp is committed
+            emailOutboxService.enqueue(otpEmail);
+            user.setOtp(otpHash);
+            user.setOtpGenerationTime(LocalDateTime.now());
+            userRepository.save(user);
         });
-        user.setOtp(passwordEncoder.encode(otp));
-        user.setOtpGenerationTime(LocalDateTime.now());
-        userRepository.save(user);
         return "Email sent... please verify account within 2 minutes";
     }
 
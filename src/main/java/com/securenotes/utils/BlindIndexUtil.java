@@ -0,0 +1,106 @@
+package com.securenotes.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+@Component
+public class BlindIndexUtil {
+
+    //terms shorter than this are only indexed as whole words, longer ones also get their prefixes indexed
+    //so "meet" still finds "meeting"
+    public static final int MIN_PREFIX_LENGTH = 3;
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final int HASH_BYTES = 16;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec keySpec;
+    //separate key, rotating the search key only means rebuilding the search index but every stored email digest
+    //would have to be recomputed from the decrypted emails
+    private final SecretKeySpec emailKeySpec;
+
+    //Mac is not thread safe, so every thread gets its own initialized instance
+    private final ThreadLocal<Mac> macs;
+    private final ThreadLocal<Mac> emailMacs;
+
+    public BlindIndexUtil(@Value("${securenotes.search.index-key}") String indexKey,
+                          @Value("${securenotes.auth.email-digest-key}") String emailDigestKey) {
+        if (emailDigestKey.isBlank()) {
+            throw new IllegalArgumentException("No email digest key configured, set EMAIL_DIGEST_KEY (the dev profile has a development key)");
+        }
+        this.keySpec = new SecretKeySpec(indexKey.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        this.emailKeySpec = new SecretKeySpec(emailDigestKey.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> newMac(keySpec));
+        this.emailMacs = ThreadLocal.withInitial(() -> newMac(emailKeySpec));
+    }
+
+    //hashes of every term and term prefix of the text, used when writing the index
+    public Set<String> indexTokens(String... texts) {
+        Set<String> hashes = new LinkedHashSet<>();
+        for (String text : texts) {
+            for (String term : terms(text)) {
+                hashes.add(hash(term));
+                for (int length = MIN_PREFIX_LENGTH; length < term.length(); length++) {
+                    hashes.add(hash(term.substring(0, length)));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    //hashes of the terms of a search key, a note matches when it contains all of them. Terms shorter than
+    //MIN_PREFIX_LENGTH are left out, "me" is part of "meeting" but no index entry says so; when nothing is left the
+    //caller has to scan the notes
+    public Set<String> queryTokens(String searchKey) {
+        Set<String> hashes = new LinkedHashSet<>();
+        for (String term : terms(searchKey)) {
+            if (term.length() >= MIN_PREFIX_LENGTH) {
+                hashes.add(hash(term));
+            }
+        }
+        return hashes;
+    }
+
+    private Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        for (String term : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!term.isEmpty()) {
+                terms.add(term.length() > MAX_TERM_LENGTH ? term.substring(0, MAX_TERM_LENGTH) : term);
+            }
+        }
+        return terms;
+    }
+
+    //keyed digest of the normalized email, users are looked up by this instead of by email ciphertext.
+    //the "email:" prefix keeps it from ever colliding with a search term hash, should the two keys be set the same
+    public String emailDigest(String email) {
+        byte[] mac = emailMacs.get().doFinal(("email:" + email.trim().toLowerCase()).getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(mac);
+    }
+
+    private String hash(String term) {
+        byte[] mac = macs.get().doFinal(term.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(mac, HASH_BYTES));
+    }
+
+    private static Mac newMac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to initialize blind index hmac", e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.securenotes.utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/*
+Before: every encrypt/decrypt looked up a new Cipher with Cipher.getInstance, built a new SecretKeySpec and
+initialized it, which is the most expensive part of encrypting a short note.
+After: every thread keeps one initialized Cipher per mode and reuses it, doFinal resets the cipher to its
+initialized state so no re-init is needed. Decryption also reuses a per-thread scratch buffer so the
+plaintext bytes are not copied into an intermediate array before the String is built.
+Cipher instances are not thread safe, which is why they are never shared between threads.
+ */
+public final class CryptoEngine {
+
+    //scratch buffers bigger than this are not kept around after the call
+    private static final int MAX_RETAINED_SCRATCH = 256 * 1024;
+
+    private final String transformation;
+    private final SecretKeySpec keySpec;
+    private final ThreadLocal<Cipher> encryptCiphers;
+    private final ThreadLocal<Cipher> decryptCiphers;
+    private final ThreadLocal<byte[]> scratch = new ThreadLocal<>();
+
+    public CryptoEngine(byte[] key, String algorithm, String transformation) {
+        this.transformation = transformation;
+        this.keySpec = new SecretKeySpec(key, algorithm);
+        this.encryptCiphers = ThreadLocal.withInitial(() -> newCipher(Cipher.ENCRYPT_MODE));
+        this.decryptCiphers = ThreadLocal.withInitial(() -> newCipher(Cipher.DECRYPT_MODE));
+    }
+
+    public byte[] encrypt(byte[] plaintext) throws GeneralSecurityException {
+        return encrypt(plaintext, 0, plaintext.length);
+    }
+
+    public byte[] encrypt(byte[] plaintext, int offset, int length) throws GeneralSecurityException {
+        try {
+            return encryptCiphers.get().doFinal(plaintext, offset, length);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            encryptCiphers.remove();
+            throw e;
+        }
+    }
+
+    public byte[] decrypt(byte[] ciphertext) throws GeneralSecurityException {
+        return decrypt(ciphertext, 0, ciphertext.length);
+    }
+
+    public byte[] decrypt(byte[] ciphertext, int offset, int length) throws GeneralSecurityException {
+        try {
+            return decryptCiphers.get().doFinal(ciphertext, offset, length);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            decryptCiphers.remove();
+            throw e;
+        }
+    }
+
+    //encrypts the remaining bytes of input into output, returns the number of bytes written
+    //with pre-sized heap buffers no result array is allocated, the JDK provider still makes one internal copy
+    //of the input and direct buffers get copied through temporary arrays on top of that
+    public int encrypt(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        try {
+            return encryptCiphers.get().doFinal(input, output);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            encryptCiphers.remove();
+            throw e;
+        }
+    }
+
+    public int decrypt(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        try {
+            return decryptCiphers.get().doFinal(input, output);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            decryptCiphers.remove();
+            throw e;
+        }
+    }
+
+    //decrypts straight into the thread's scratch buffer and decodes the UTF-8 text from there
+    public String decryptToString(byte[] ciphertext, int offset, int length) throws GeneralSecurityException {
+        Cipher cipher = decryptCiphers.get();
+        byte[] buffer = scratch(cipher.getOutputSize(length));
+        int written = buffer.length;
+        try {
+            written = cipher.doFinal(ciphertext, offset, length, buffer, 0);
+            return new String(buffer, 0, written, StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            decryptCiphers.remove();
+            throw e;
+        } finally {
+            release(buffer, written);
+        }
+    }
+
+    public int encryptedSize(int plaintextLength) {
+        return encryptCiphers.get().getOutputSize(plaintextLength);
+    }
+
+    public int decryptedSize(int ciphertextLength) {
+        return decryptCiphers.get().getOutputSize(ciphertextLength);
+    }
+
+    private byte[] scratch(int size) {
+        byte[] buffer = scratch.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+        }
+        return buffer;
+    }
+
+    private void release(byte[] buffer, int used) {
+        //the buffer held plaintext, wipe it before it is kept for the next call
+        Arrays.fill(buffer, 0, used, (byte) 0);
+        if (buffer.length <= MAX_RETAINED_SCRATCH) {
+            scratch.set(buffer);
+        } else {
+            scratch.remove();
+        }
+    }
+
+    private Cipher newCipher(int mode) {
+        try {
+            Cipher cipher = Cipher.getInstance(transformation);
+            cipher.init(mode, keySpec);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to initialize " + transformation + " cipher", e);
+        }
+    }
+}
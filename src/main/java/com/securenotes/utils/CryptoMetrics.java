@@ -0,0 +1,58 @@
+package com.securenotes.utils;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/*
+Meters for EncryptionUtil and NoteCodec. Both are static and have no MeterRegistry to inject, so the meters are
+registered on the global registry, Spring Boot adds its registries (Prometheus included) to that one.
+kind=field is a single value (title, preview, user fields, mails), kind=note a whole NoteCodec description.
+The histograms use a handful of fixed buckets, recording is a few array increments on top of the cipher work.
+ */
+final class CryptoMetrics {
+
+    private static final double[] SIZE_BUCKETS = {64, 256, 1024, 4096, 16384, 65536, 262144};
+    private static final Duration[] TIME_BUCKETS = {Duration.ofNanos(10_000), Duration.ofNanos(50_000),
+            Duration.ofNanos(100_000), Duration.ofNanos(500_000), Duration.ofMillis(1), Duration.ofMillis(5),
+            Duration.ofMillis(25), Duration.ofMillis(100)};
+
+    static final Timer FIELD_ENCRYPT = timer("encrypt", "field");
+    static final Timer FIELD_DECRYPT = timer("decrypt", "field");
+    static final Timer NOTE_ENCRYPT = timer("encrypt", "note");
+    static final Timer NOTE_DECRYPT = timer("decrypt", "note");
+
+    static final DistributionSummary FIELD_ENCRYPT_BYTES = size("encrypt", "field");
+    static final DistributionSummary FIELD_DECRYPT_BYTES = size("decrypt", "field");
+    static final DistributionSummary NOTE_ENCRYPT_BYTES = size("encrypt", "note");
+    static final DistributionSummary NOTE_DECRYPT_BYTES = size("decrypt", "note");
+
+    private CryptoMetrics() {
+    }
+
+    static void record(Timer timer, DistributionSummary size, long startNanos, int bytes) {
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        size.record(bytes);
+    }
+
+    private static Timer timer(String operation, String kind) {
+        return Timer.builder("securenotes.crypto.operation")
+                .tag("operation", operation)
+                .tag("kind", kind)
+                .serviceLevelObjectives(TIME_BUCKETS)
+                .register(Metrics.globalRegistry);
+    }
+
+    //plaintext size, so encrypt and decrypt of the same value land in the same bucket
+    private static DistributionSummary size(String operation, String kind) {
+        return DistributionSummary.builder("securenotes.crypto.payload")
+                .baseUnit("bytes")
+                .tag("operation", operation)
+                .tag("kind", kind)
+                .serviceLevelObjectives(SIZE_BUCKETS)
+                .register(Metrics.globalRegistry);
+    }
+}
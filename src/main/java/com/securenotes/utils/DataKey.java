@@ -0,0 +1,7 @@
+package com.securenotes.utils;
+
+import javax.crypto.SecretKey;
+
+//an unwrapped data key of one owner, generation 1 is the first key, a rotation adds the next one
+public record DataKey(int ownerId, int generation, SecretKey key) {
+}
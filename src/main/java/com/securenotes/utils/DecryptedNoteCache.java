@@ -0,0 +1,212 @@
+package com.securenotes.utils;
+
+import com.securenotes.dto.NotesResponse;
+import com.securenotes.model.Notes;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Cache of decrypted unsecured notes so reading the same note again doesn't decrypt it again.
+Entries are keyed by notesId and only match while the note's updatedOn is unchanged, so an updated note is never
+served stale even before the write path invalidates it.
+The plaintext is kept in direct (off-heap) buffers instead of Strings, and every buffer is overwritten with zeroes
+when its entry is evicted, expired or invalidated, so cached plaintext doesn't linger on the GC heap.
+Eviction is LRU, bounded by entry count and total bytes, and entries idle for longer than the ttl expire.
+Disabled by default - turn it on with securenotes.note-cache.enabled=true.
+ */
+@Component
+public class DecryptedNoteCache implements MeterBinder {
+
+    private static final byte[] ZEROES = new byte[4096];
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+
+    //access ordered, so the eldest entry is always the least recently used one
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public DecryptedNoteCache(@Value("${securenotes.note-cache.enabled:false}") boolean enabled,
+                              @Value("${securenotes.note-cache.max-entries:10000}") int maxEntries,
+                              @Value("${securenotes.note-cache.max-bytes:67108864}") long maxBytes,
+                              @Value("${securenotes.note-cache.ttl:10m}") Duration ttl) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public NotesResponse get(Notes notes) {
+        if (!enabled || notes.getUpdatedOn() == null) {
+            return null;
+        }
+
+        byte[] plaintext;
+        synchronized (this) {
+            expireIdleEntries();
+            Entry entry = entries.get(notes.getNotesId());
+            if (entry == null || entry.updatedOn != notes.getUpdatedOn().getTime()) {
+                misses.incrementAndGet();
+                return null;
+            }
+            entry.lastAccess = System.nanoTime();
+            plaintext = new byte[entry.buffer.capacity()];
+            entry.buffer.get(0, plaintext);
+        }
+        hits.incrementAndGet();
+
+        try {
+            ByteBuffer content = ByteBuffer.wrap(plaintext);
+            int titleLength = content.getInt();
+            return NotesResponse.builder()
+                    .notesId(notes.getNotesId())
+                    .title(new String(plaintext, Integer.BYTES, titleLength, StandardCharsets.UTF_8))
+                    .description(new String(plaintext, Integer.BYTES + titleLength,
+                            plaintext.length - Integer.BYTES - titleLength, StandardCharsets.UTF_8))
+                    .createdOn(notes.getCreatedOn())
+                    .updatedOn(notes.getUpdatedOn())
+                    .build();
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    public void put(Notes notes, String title, String description) {
+        if (!enabled || notes.getUpdatedOn() == null || title == null || description == null) {
+            return;
+        }
+
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        byte[] descriptionBytes = description.getBytes(StandardCharsets.UTF_8);
+        int size = Integer.BYTES + titleBytes.length + descriptionBytes.length;
+        if (size > maxBytes) {
+            wipe(titleBytes, descriptionBytes);
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.putInt(titleBytes.length).put(titleBytes).put(descriptionBytes).flip();
+        wipe(titleBytes, descriptionBytes);
+
+        synchronized (this) {
+            expireIdleEntries();
+            remove(notes.getNotesId());
+            entries.put(notes.getNotesId(), new Entry(notes.getUpdatedOn().getTime(), buffer, System.nanoTime()));
+            usedBytes += size;
+            evictOverflow();
+        }
+    }
+
+    public synchronized void invalidate(int notesId) {
+        remove(notesId);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("securenotes.note.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("securenotes.note.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("securenotes.note.cache.evictions", evictions, AtomicLong::get).register(registry);
+        Gauge.builder("securenotes.note.cache.size", this, DecryptedNoteCache::size).register(registry);
+        Gauge.builder("securenotes.note.cache.bytes", this, DecryptedNoteCache::bytes)
+                .baseUnit("bytes").register(registry);
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    public long evictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return usedBytes;
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || usedBytes > maxBytes) && eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            eldest.remove();
+            release(entry);
+            evictions.incrementAndGet();
+        }
+    }
+
+    //with access order, idle entries are always at the head of the map
+    private void expireIdleEntries() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            if (now - entry.lastAccess < ttlNanos) {
+                return;
+            }
+            eldest.remove();
+            release(entry);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(int notesId) {
+        Entry entry = entries.remove(notesId);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    private void release(Entry entry) {
+        ByteBuffer buffer = entry.buffer;
+        for (int i = 0; i < buffer.capacity(); i += ZEROES.length) {
+            buffer.put(i, ZEROES, 0, Math.min(ZEROES.length, buffer.capacity() - i));
+        }
+        usedBytes -= buffer.capacity();
+    }
+
+    private static void wipe(byte[]... arrays) {
+        for (byte[] array : arrays) {
+            Arrays.fill(array, (byte) 0);
+        }
+    }
+
+    private static class Entry {
+        private final long updatedOn;
+        private final ByteBuffer buffer;
+        private long lastAccess;
+
+        private Entry(long updatedOn, ByteBuffer buffer, long lastAccess) {
+            this.updatedOn = updatedOn;
+            this.buffer = buffer;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.securenotes.utils;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+Bloom filter of the email digests of registered users. Signup only has to query the database when the filter says
+the digest might already exist, a "no" is always right so most signups for new addresses skip the existence query.
+Bits are only ever set, never cleared, so concurrent signups can add digests while the filter is being rebuilt at
+startup. Until the rebuild finished every digest counts as a possible match.
+Deleted users stay in the filter, that only costs an extra query for their address.
+ */
+@Component
+public class EmailBloomFilter implements MeterBinder {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private volatile boolean ready;
+
+    private final AtomicLong definitelyNew = new AtomicLong();
+    private final AtomicLong mightExist = new AtomicLong();
+
+    public EmailBloomFilter(@Value("${securenotes.signup.bloom.expected-users:1000000}") long expectedUsers,
+                            @Value("${securenotes.signup.bloom.false-positive-rate:0.01}") double falsePositiveRate) {
+        //standard sizing: m = -n ln(p) / ln(2)^2 bits, k = m/n ln(2) hash functions
+        long size = (long) Math.ceil(-expectedUsers * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (size + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / Math.max(1, expectedUsers) * Math.log(2)));
+    }
+
+    public void put(String emailDigest) {
+        long[] hashes = hashes(emailDigest);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(hashes, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(word);
+            } while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    public boolean mightContain(String emailDigest) {
+        if (!ready) {
+            mightExist.incrementAndGet();
+            return true;
+        }
+        long[] hashes = hashes(emailDigest);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(hashes, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                definitelyNew.incrementAndGet();
+                return false;
+            }
+        }
+        mightExist.incrementAndGet();
+        return true;
+    }
+
+    //called once every registered digest has been put
+    public void markReady() {
+        ready = true;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("securenotes.signup.email.bloom", definitelyNew, AtomicLong::get)
+                .tag("result", "new").register(registry);
+        FunctionCounter.builder("securenotes.signup.email.bloom", mightExist, AtomicLong::get)
+                .tag("result", "maybe").register(registry);
+    }
+
+    //the digest is already a keyed HMAC, so its first 16 bytes serve as two independent 64 bit hashes
+    private static long[] hashes(String emailDigest) {
+        ByteBuffer digest = ByteBuffer.wrap(Base64.getUrlDecoder().decode(emailDigest));
+        return new long[]{digest.getLong(), digest.getLong() | 1};
+    }
+
+    //double hashing, h1 + i * h2
+    private long index(long[] hashes, int i) {
+        return Math.floorMod(hashes[0] + i * hashes[1], bitCount);
+    }
+}
@@ -10,16 +10,26 @@ import org.springframework.stereotype.Component;
 @Component
 public class EmailUtil {
 
+    public static final String OTP_SUBJECT = "Verify OTP to activate your account";
+
     @Autowired
     JavaMailSender javaMailSender;
 
     public void sendOtpEmail(String email, String otp) throws MessagingException {
+        javaMailSender.send(createMessage(email, OTP_SUBJECT, otpEmailBody(otp)));
+    }
+
+    public MimeMessage createMessage(String email, String subject, String html) throws MessagingException {
         MimeMessage mimeMessage = javaMailSender.createMimeMessage();
         MimeMessageHelper mimeMessageHelper = new MimeMessageHelper(mimeMessage);
         mimeMessageHelper.setTo(email);
-        mimeMessageHelper.setSubject("Verify OTP to activate your account");
-        mimeMessageHelper.setText(
-        """
+        mimeMessageHelper.setSubject(subject);
+        mimeMessageHelper.setText(html, true);
+        return mimeMessage;
+    }
+
+    public String otpEmailBody(String otp) {
+        return """
                 <div>
                 <h2>Dear Sir / Madam,</h2>
                 <p>Your One Time Password(OTP) is : <strong>%s</strong></p>
@@ -29,7 +39,6 @@ public class EmailUtil {
                         Visit us at <a href="https://www.securenotes.com" target="_blank">www.securenotes.com</a>
                        </em>
                 </div>
-                """.formatted(otp), true);
-        javaMailSender.send(mimeMessage);
+                """.formatted(otp);
     }
 }
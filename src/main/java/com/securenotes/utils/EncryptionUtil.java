@@ -1,30 +1,148 @@
 package com.securenotes.utils;
 
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.Base64;
 
+/*
+Before: everything was encrypted with the one hard-coded key below, so rotating it meant rewriting the whole
+database offline.
+After: new data is encrypted with the data key of its owner (the user for notes, SYSTEM_OWNER for user rows and
+mails). Data keys are stored wrapped by the master key and handed out by the KeyResolver that DataKeyService
+registers at startup, so this class stays free of Spring. Every ciphertext names the owner and key generation it was
+encrypted with, and that header is authenticated by GCM, so old and new keys can be read side by side while
+KeyRotationService re-encrypts in the background.
+The hard-coded key is only used to read data written before that.
+ */
 public class EncryptionUtil {
 
+    //data that belongs to no single user (user rows, mails) is encrypted with the data key of this owner
+    public static final int SYSTEM_OWNER = 0;
+
     // Use a 128-bit AES key (or 256-bit for higher security, but 128-bit is common)
     private static final String ALGORITHM = "AES";
     private static final byte[] KEY = "MySecret-key-APP".getBytes();  // Replace this with a securely generated key!
 
-    public static String encrypt(String data) throws Exception {
-        SecretKeySpec keySpec = new SecretKeySpec(KEY, ALGORITHM);
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, keySpec);
-        byte[] encryptedData = cipher.doFinal(data.getBytes());
-        return Base64.getEncoder().encodeToString(encryptedData);
+    //"AES" resolves to AES/ECB/PKCS5Padding, kept as is so existing rows still decrypt
+    private static final CryptoEngine ENGINE = new CryptoEngine(KEY, ALGORITHM, ALGORITHM);
+
+    //legacy randomized values are "$" + Base64(iv + AES/GCM ciphertext) under the hard-coded key
+    private static final String RANDOMIZED_PREFIX = "$";
+    //data key values are "#" + Base64(sealed), neither prefix is in the Base64 alphabet
+    private static final String SEALED_PREFIX = "#";
+    //sealed = version (1) + owner (4) + generation (4) + iv (12) + AES/GCM ciphertext
+    private static final byte SEALED_VERSION = 2;
+    private static final int SEALED_HEADER_BYTES = 1 + Integer.BYTES + Integer.BYTES;
+    private static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final SecretKeySpec KEY_SPEC = new SecretKeySpec(KEY, ALGORITHM);
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+    //GCM needs a fresh iv for every encryption, so the cipher is re-initialized per call but the instance is reused
+    private static final ThreadLocal<Cipher> GCM_CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(GCM_TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to initialize " + GCM_TRANSFORMATION + " cipher", e);
+        }
+    });
+
+    private static volatile KeyResolver keyResolver;
+
+    //returns the resolver it replaces, so a test with keys of its own can put the application's back
+    public static KeyResolver setKeyResolver(KeyResolver resolver) {
+        KeyResolver previous = keyResolver;
+        keyResolver = resolver;
+        return previous;
+    }
+
+    public static String encrypt(int ownerId, String data) throws Exception {
+        long start = System.nanoTime();
+        byte[] plaintext = data.getBytes(StandardCharsets.UTF_8);
+        String encrypted = SEALED_PREFIX + Base64.getEncoder().encodeToString(seal(ownerId, plaintext, null));
+        CryptoMetrics.record(CryptoMetrics.FIELD_ENCRYPT, CryptoMetrics.FIELD_ENCRYPT_BYTES, start, plaintext.length);
+        return encrypted;
     }
 
     public static String decrypt(String encryptedData) throws Exception {
-        SecretKeySpec keySpec = new SecretKeySpec(KEY, ALGORITHM);
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, keySpec);
+        long start = System.nanoTime();
+        String decrypted = decryptField(encryptedData);
+        //chars, not bytes - close enough for the size buckets and it saves encoding the plaintext again
+        CryptoMetrics.record(CryptoMetrics.FIELD_DECRYPT, CryptoMetrics.FIELD_DECRYPT_BYTES, start, decrypted.length());
+        return decrypted;
+    }
+
+    private static String decryptField(String encryptedData) throws Exception {
+        if (encryptedData.startsWith(SEALED_PREFIX)) {
+            byte[] sealed = Base64.getDecoder().decode(encryptedData.substring(SEALED_PREFIX.length()));
+            return new String(open(sealed, 0, sealed.length, null), StandardCharsets.UTF_8);
+        }
+        if (encryptedData.startsWith(RANDOMIZED_PREFIX)) {
+            byte[] decodedData = Base64.getDecoder().decode(encryptedData.substring(RANDOMIZED_PREFIX.length()));
+            Cipher cipher = GCM_CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, KEY_SPEC, new GCMParameterSpec(TAG_BITS, decodedData, 0, IV_BYTES));
+            return new String(cipher.doFinal(decodedData, IV_BYTES, decodedData.length - IV_BYTES), StandardCharsets.UTF_8);
+        }
         byte[] decodedData = Base64.getDecoder().decode(encryptedData);
-        byte[] decryptedData = cipher.doFinal(decodedData);
-        return new String(decryptedData);
+        return ENGINE.decryptToString(decodedData, 0, decodedData.length);
     }
-}
 
+    //encrypts with the current data key of the owner, aad (may be null) is authenticated but not stored
+    public static byte[] seal(int ownerId, byte[] plaintext, byte[] aad) throws GeneralSecurityException {
+        DataKey dataKey = resolver().currentKey(ownerId);
+        byte[] iv = new byte[IV_BYTES];
+        SECURE_RANDOM.nextBytes(iv);
+
+        Cipher cipher = GCM_CIPHERS.get();
+        cipher.init(Cipher.ENCRYPT_MODE, dataKey.key(), new GCMParameterSpec(TAG_BITS, iv));
+        int headerBytes = SEALED_HEADER_BYTES + IV_BYTES;
+        byte[] sealed = new byte[headerBytes + cipher.getOutputSize(plaintext.length)];
+        ByteBuffer.wrap(sealed).put(SEALED_VERSION).putInt(ownerId).putInt(dataKey.generation()).put(iv);
+        cipher.updateAAD(sealed, 0, SEALED_HEADER_BYTES);
+        if (aad != null) {
+            cipher.updateAAD(aad);
+        }
+        cipher.doFinal(plaintext, 0, plaintext.length, sealed, headerBytes);
+        return sealed;
+    }
+
+    public static byte[] open(byte[] sealed, int offset, int length, byte[] aad) throws GeneralSecurityException {
+        if (length < SEALED_HEADER_BYTES + IV_BYTES || sealed[offset] != SEALED_VERSION) {
+            throw new GeneralSecurityException("Unsupported ciphertext");
+        }
+        ByteBuffer header = ByteBuffer.wrap(sealed, offset + 1, SEALED_HEADER_BYTES - 1);
+        DataKey dataKey = resolver().key(header.getInt(), header.getInt());
+
+        Cipher cipher = GCM_CIPHERS.get();
+        cipher.init(Cipher.DECRYPT_MODE, dataKey.key(), new GCMParameterSpec(TAG_BITS, sealed, offset + SEALED_HEADER_BYTES, IV_BYTES));
+        cipher.updateAAD(sealed, offset, SEALED_HEADER_BYTES);
+        if (aad != null) {
+            cipher.updateAAD(aad);
+        }
+        int headerBytes = SEALED_HEADER_BYTES + IV_BYTES;
+        return cipher.doFinal(sealed, offset + headerBytes, length - headerBytes);
+    }
+
+    //generation of the owner's current data key, values encrypted right after use this one or a newer one
+    public static int currentGeneration(int ownerId) throws GeneralSecurityException {
+        return resolver().currentKey(ownerId).generation();
+    }
+
+    //byte[] and ByteBuffer entry points for reading data under the hard-coded key
+    public static CryptoEngine engine() {
+        return ENGINE;
+    }
+
+    private static KeyResolver resolver() {
+        KeyResolver resolver = keyResolver;
+        if (resolver == null) {
+            throw new IllegalStateException("No KeyResolver registered, data keys are not available");
+        }
+        return resolver;
+    }
+}
@@ -0,0 +1,108 @@
+package com.securenotes.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+Custom JDK Flight Recorder events for the note operations a sampling profiler can't attribute: which note, how big,
+how long. All of them are disabled unless a recording turns them on (src/main/resources/securenotes.jfc does).
+Call sites use begin() / shouldCommit() / commit(), when the event is disabled shouldCommit() is false, the fields
+are never set and the JIT removes the allocation, so leaving the calls in costs next to nothing.
+ */
+public final class FlightEvents {
+
+    private FlightEvents() {
+    }
+
+    @Name("securenotes.NoteCrypto")
+    @Label("Note Encryption")
+    @Description("Encryption or decryption of a note description")
+    @Category({"Secure Notes", "Crypto"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class NoteCryptoEvent extends Event {
+        @Label("Operation")
+        public String operation;
+
+        //0 for a note that has no id yet
+        @Label("Note Id")
+        public int noteId;
+
+        @Label("Owner Id")
+        public int ownerId;
+
+        @Label("Plaintext Size")
+        @DataAmount
+        public long plaintextBytes;
+
+        @Label("Stored Size")
+        @DataAmount
+        public long storedBytes;
+    }
+
+    @Name("securenotes.PasswordHash")
+    @Label("Password Hash")
+    @Description("BCrypt encode or verify on the hashing pool, the duration includes the time queued")
+    @Category({"Secure Notes", "Authentication"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class PasswordHashEvent extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Queue Wait")
+        @Timespan
+        public long queueWait;
+
+        @Label("Matched")
+        public boolean matched;
+
+        @Label("Rejected")
+        @Description("The hashing pool was full or the hash waited too long")
+        public boolean rejected;
+    }
+
+    @Name("securenotes.TokenValidation")
+    @Label("Token Validation")
+    @Description("Bearer token check in JWTAuthFilter")
+    @Category({"Secure Notes", "Authentication"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class TokenValidationEvent extends Event {
+        @Label("Cached")
+        @Description("Authenticated from TokenVerificationCache without parsing or a database lookup")
+        public boolean cached;
+
+        @Label("Valid")
+        public boolean valid;
+    }
+
+    @Name("securenotes.NoteSearch")
+    @Label("Note Search")
+    @Description("A search over the notes of one user")
+    @Category({"Secure Notes", "Search"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class NoteSearchEvent extends Event {
+        @Label("User Id")
+        public int userId;
+
+        @Label("Indexed")
+        @Description("The blind index narrowed the candidates, otherwise every unsecured note was scanned")
+        public boolean indexed;
+
+        @Label("Notes Scanned")
+        @Description("Notes fetched and decrypted")
+        public int notesScanned;
+
+        @Label("Matches")
+        public int matches;
+    }
+}
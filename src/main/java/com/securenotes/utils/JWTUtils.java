@@ -3,16 +3,22 @@ package com.securenotes.utils;
 import com.securenotes.repository.TokenRepository;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @Component
@@ -24,18 +30,41 @@ public class JWTUtils {
     @Autowired
     TokenRepository tokenRepository;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private Timer parseTimer;
+    private Timer validateTimer;
+
     private static final long EXPIRATION_TIME = 86400000;//24 HOURSS
 
+    //refresh tokens carry typ=refresh and the id of their token family, access tokens have no typ claim
+    public static final String TYPE_CLAIM = "typ";
+    public static final String REFRESH_TYPE = "refresh";
+    public static final String FAMILY_CLAIM = "fam";
+
+    @Value("${securenotes.auth.refresh-token.ttl:30d}")
+    private Duration refreshTokenTtl;
+
     public JWTUtils(){
         String secretString = "2342349324732874932749dfg34343343274832942384324";
         byte[] keyBytes = Base64.getDecoder().decode(secretString.getBytes(StandardCharsets.UTF_8));
         this.key = new SecretKeySpec(keyBytes,"HmacSHA256");
     }
 
+    //parse = signature check and claims, validate = the revocation lookup on top of it
+    @PostConstruct
+    public void registerMeters(){
+        parseTimer = Timer.builder("securenotes.jwt").tag("operation", "parse").register(meterRegistry);
+        validateTimer = Timer.builder("securenotes.jwt").tag("operation", "validate").register(meterRegistry);
+    }
+
     //step 2: make generate token and refresh token function
     public String generateToken(UserDetails userDetails){
         return Jwts.builder()
                 .setSubject(userDetails.getUsername())
+                //unique id, so two logins within the same second never get the same token (and token digest)
+                .setId(UUID.randomUUID().toString())
                 .setIssuedAt(new Date(System.currentTimeMillis()))
                 .setExpiration(new Date(System.currentTimeMillis() + EXPIRATION_TIME))
                 .signWith(key)
@@ -43,27 +72,44 @@ public class JWTUtils {
     }
 
 
-    public String generateRefreshToken(HashMap<String, Object> claims,UserDetails userDetails){
+    //used to expire as it was issued (expiration = issuedAt), now it lives for securenotes.auth.refresh-token.ttl
+    public String generateRefreshToken(UserDetails userDetails, String family){
 
         return Jwts.builder()
-                .setClaims(claims)
+                .claim(TYPE_CLAIM, REFRESH_TYPE)
+                .claim(FAMILY_CLAIM, family)
                 .setSubject(userDetails.getUsername())
+                .setId(UUID.randomUUID().toString())
                 .setIssuedAt(new Date(System.currentTimeMillis()))
-                .setExpiration(new Date(System.currentTimeMillis()))
+                .setExpiration(new Date(System.currentTimeMillis() + refreshTokenTtl.toMillis()))
                 .signWith(key)
                 .compact();
 
     }
 
+    public boolean isRefreshToken(Claims claims){
+        return REFRESH_TYPE.equals(claims.get(TYPE_CLAIM, String.class));
+    }
+
     //step 3: make function to extract usernames and claims from token
 
     private<T> T extractClaims(String token, Function<Claims, T> claimsTFunction){
 
-        return claimsTFunction.apply(Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody());
+        return claimsTFunction.apply(extractAllClaims(token));
+    }
+
+    //verifies the signature and parses the token once, so callers can read several claims from the result
+    public Claims extractAllClaims(String token){
+        long start = System.nanoTime();
+        try {
+            return Jwts.parserBuilder()
+                    .setSigningKey(key)
+                    .build()
+                    .parseClaimsJws(token)
+                    .getBody();
+        } finally {
+            parseTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
     public String extractUsername(String token){
@@ -77,12 +123,29 @@ public class JWTUtils {
     }
 
     public boolean isTokenValid(String token, UserDetails userDetails){
-        final String username = extractUsername(token);
+        return isTokenValid(token, extractAllClaims(token), userDetails);
+    }
+
+    //same checks as above with claims that were already parsed from the token
+    public boolean isTokenValid(String token, Claims claims, UserDetails userDetails){
+        final String username = claims.getSubject();
+        //a refresh token is only good for /auth/refresh, never as a bearer token
+        if(isRefreshToken(claims) || !username.equals(userDetails.getUsername()) || claims.getExpiration().before(new Date())){
+            return false;
+        }
         //means token should not be logged out from token class
-        boolean validToken = tokenRepository.findByToken(token)
-                .map(t->!t.isLoggedOut()).orElse(false);
+        long start = System.nanoTime();
+        try {
+            return tokenRepository.findByTokenHash(HashUtil.sha256Hex(token))
+                    .map(t->!t.isLoggedOut()).orElse(false);
+        } finally {
+            validateTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
 
-        return (username.equals(userDetails.getUsername())) && !isTokenExpired(token) && validToken;
+    //latest time a token issued now can still be valid, used to bound how long revocations are remembered
+    public long maxExpiresAt(){
+        return System.currentTimeMillis() + EXPIRATION_TIME;
     }
 
 }
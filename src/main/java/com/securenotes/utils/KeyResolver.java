@@ -0,0 +1,13 @@
+package com.securenotes.utils;
+
+import java.security.GeneralSecurityException;
+
+//where EncryptionUtil gets the data keys from, set once at startup by DataKeyService
+public interface KeyResolver {
+
+    //the key new data of the owner is encrypted with, created on first use
+    DataKey currentKey(int ownerId) throws GeneralSecurityException;
+
+    //any key the owner ever had, for data that was encrypted before a rotation
+    DataKey key(int ownerId, int generation) throws GeneralSecurityException;
+}
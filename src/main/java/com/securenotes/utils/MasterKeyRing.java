@@ -0,0 +1,120 @@
+package com.securenotes.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+Master keys only ever wrap and unwrap data keys, they never touch note or user data directly.
+Keys come from securenotes.encryption.master-keys ("id:Base64 key" pairs, comma separated) and/or from the secret key
+entries of a PKCS12 keystore, where the alias is the id. New data keys are wrapped with master-key-id, the other keys
+are only kept to unwrap data keys until KeyRotationService has re-wrapped them.
+ */
+@Component
+public class MasterKeyRing {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    private final Map<String, SecretKey> keys;
+    private final String currentKeyId;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    public MasterKeyRing(@Value("${securenotes.encryption.master-keys:}") String masterKeys,
+                         @Value("${securenotes.encryption.master-key-id}") String currentKeyId,
+                         @Value("${securenotes.encryption.keystore.path:}") String keystorePath,
+                         @Value("${securenotes.encryption.keystore.password:}") String keystorePassword)
+            throws GeneralSecurityException, IOException {
+        Map<String, SecretKey> loaded = new HashMap<>();
+        for (String entry : masterKeys.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Master keys must be given as id:Base64 key");
+            }
+            byte[] key = Base64.getDecoder().decode(entry.substring(separator + 1).trim());
+            loaded.put(entry.substring(0, separator).trim(), aesKey(key));
+            Arrays.fill(key, (byte) 0);
+        }
+        if (!keystorePath.isBlank()) {
+            loadKeystore(Path.of(keystorePath), keystorePassword.toCharArray(), loaded);
+        }
+        if (currentKeyId.isBlank()) {
+            throw new IllegalArgumentException("No master key configured, set MASTER_KEYS and MASTER_KEY_ID or MASTER_KEYSTORE "
+                    + "(the dev profile has a development key)");
+        }
+        if (!loaded.containsKey(currentKeyId)) {
+            throw new IllegalArgumentException("Master key " + currentKeyId + " is not configured");
+        }
+        this.keys = Collections.unmodifiableMap(loaded);
+        this.currentKeyId = currentKeyId;
+    }
+
+    public String currentKeyId() {
+        return currentKeyId;
+    }
+
+    //iv + AES/GCM(dataKey) under the current master key, aad binds the result to the data key's owner and generation
+    public byte[] wrap(byte[] dataKey, byte[] aad) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_BYTES];
+        secureRandom.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, keys.get(currentKeyId), new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(aad);
+        byte[] wrapped = Arrays.copyOf(iv, IV_BYTES + cipher.getOutputSize(dataKey.length));
+        cipher.doFinal(dataKey, 0, dataKey.length, wrapped, IV_BYTES);
+        return wrapped;
+    }
+
+    public byte[] unwrap(String keyId, byte[] wrapped, byte[] aad) throws GeneralSecurityException {
+        SecretKey masterKey = keys.get(keyId);
+        if (masterKey == null) {
+            throw new GeneralSecurityException("Master key " + keyId + " is not configured");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BITS, wrapped, 0, IV_BYTES));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(wrapped, IV_BYTES, wrapped.length - IV_BYTES);
+    }
+
+    private static void loadKeystore(Path path, char[] password, Map<String, SecretKey> loaded)
+            throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            keyStore.load(inputStream, password);
+        }
+        KeyStore.ProtectionParameter protection = new KeyStore.PasswordProtection(password);
+        for (String alias : Collections.list(keyStore.aliases())) {
+            if (keyStore.entryInstanceOf(alias, KeyStore.SecretKeyEntry.class)) {
+                KeyStore.SecretKeyEntry entry = (KeyStore.SecretKeyEntry) keyStore.getEntry(alias, protection);
+                loaded.put(alias, aesKey(entry.getSecretKey().getEncoded()));
+            }
+        }
+    }
+
+    private static SecretKey aesKey(byte[] key) {
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("Master keys must be 128, 192 or 256 bit AES keys");
+        }
+        return new SecretKeySpec(key, "AES");
+    }
+}
@@ -0,0 +1,209 @@
+package com.securenotes.utils;
+
+import com.securenotes.exceptions.NoteTooLargeException;
+import com.securenotes.model.Notes;
+import com.securenotes.utils.FlightEvents.NoteCryptoEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+Before: the description was stored as Base64 of the AES output in a text column, a third bigger than the ciphertext,
+and note text was never compressed.
+After: descriptions are stored as raw bytes in Notes.descriptionData:
+    header byte (format version in the high nibble, compression in the low nibble) + encrypted payload
+where the payload is either the UTF-8 text, or the 4 byte text length followed by the raw DEFLATE stream when that
+is smaller. Compression happens before encryption, ciphertext doesn't compress.
+Version 1 encrypted with the hard-coded key, version 2 is EncryptionUtil.seal with the data key of the note owner,
+with the header byte authenticated along with it.
+Rows written before this still have the Base64 string in Notes.description and are read from there until
+NoteStorageMigrationService has rewritten them.
+ */
+public final class NoteCodec {
+
+    private static final int VERSION_1 = 0x10;
+    private static final int VERSION_2 = 0x20;
+    private static final int VERSION_MASK = 0xF0;
+    private static final int COMPRESSION_MASK = 0x0F;
+    private static final int COMPRESSION_NONE = 0;
+    private static final int COMPRESSION_DEFLATE = 1;
+
+    //below this deflate's own overhead usually eats the gain
+    private static final int MIN_COMPRESS_BYTES = 128;
+    //60000 chars of 4 byte UTF-8. encode refuses more and inflate treats a longer length prefix as corrupt, the two
+    //limits have to stay the same or a description that compressed well could be written but never read again
+    public static final int MAX_TEXT_BYTES = 240_000;
+
+    //raw deflate without the zlib header and checksum, the AES padding check already catches corrupt data
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private NoteCodec() {
+    }
+
+    public static byte[] encode(int ownerId, String text) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        byte[] plaintext = text.getBytes(StandardCharsets.UTF_8);
+        int plaintextBytes = plaintext.length;
+        if (plaintextBytes > MAX_TEXT_BYTES) {
+            Arrays.fill(plaintext, (byte) 0);
+            throw new NoteTooLargeException("Note description is " + plaintextBytes + " bytes, the limit is " + MAX_TEXT_BYTES);
+        }
+        byte[] payload = plaintext;
+        int compression = COMPRESSION_NONE;
+        if (plaintext.length >= MIN_COMPRESS_BYTES) {
+            byte[] compressed = deflate(plaintext);
+            //only keep it when it saves at least one AES block
+            if (compressed.length + 16 <= plaintext.length) {
+                payload = compressed;
+                compression = COMPRESSION_DEFLATE;
+            }
+        }
+
+        byte[] header = {(byte) (VERSION_2 | compression)};
+        byte[] sealed = EncryptionUtil.seal(ownerId, payload, header);
+        Arrays.fill(payload, (byte) 0);
+        if (payload != plaintext) {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+        byte[] data = new byte[1 + sealed.length];
+        data[0] = header[0];
+        System.arraycopy(sealed, 0, data, 1, sealed.length);
+        CryptoMetrics.record(CryptoMetrics.NOTE_ENCRYPT, CryptoMetrics.NOTE_ENCRYPT_BYTES, start, plaintextBytes);
+        return data;
+    }
+
+    public static String decode(byte[] data) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        String text = decodeText(data);
+        CryptoMetrics.record(CryptoMetrics.NOTE_DECRYPT, CryptoMetrics.NOTE_DECRYPT_BYTES, start, text.length());
+        return text;
+    }
+
+    private static String decodeText(byte[] data) throws GeneralSecurityException {
+        int version = data.length < 2 ? -1 : data[0] & VERSION_MASK;
+        if (version != VERSION_1 && version != VERSION_2) {
+            throw new GeneralSecurityException("Unsupported note envelope");
+        }
+        int compression = data[0] & COMPRESSION_MASK;
+        if (compression != COMPRESSION_NONE && compression != COMPRESSION_DEFLATE) {
+            throw new GeneralSecurityException("Unsupported note compression " + compression);
+        }
+        if (version == VERSION_1 && compression == COMPRESSION_NONE) {
+            return EncryptionUtil.engine().decryptToString(data, 1, data.length - 1);
+        }
+
+        byte[] payload = version == VERSION_1
+                ? EncryptionUtil.engine().decrypt(data, 1, data.length - 1)
+                : EncryptionUtil.open(data, 1, data.length - 1, new byte[]{data[0]});
+        if (compression == COMPRESSION_NONE) {
+            try {
+                return new String(payload, StandardCharsets.UTF_8);
+            } finally {
+                Arrays.fill(payload, (byte) 0);
+            }
+        }
+        try {
+            return inflate(payload);
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+        }
+    }
+
+    //plaintext description of a note, from the envelope or from a legacy Base64 row
+    public static String readDescription(Notes notes) throws Exception {
+        NoteCryptoEvent event = new NoteCryptoEvent();
+        event.begin();
+        String description;
+        int storedBytes;
+        if (notes.getDescriptionData() != null) {
+            description = decode(notes.getDescriptionData());
+            storedBytes = notes.getDescriptionData().length;
+        } else {
+            description = notes.getDescription() == null ? null : EncryptionUtil.decrypt(notes.getDescription());
+            storedBytes = notes.getDescription() == null ? 0 : notes.getDescription().length();
+        }
+        if (event.shouldCommit()) {
+            commit(event, "decrypt", notes, description, storedBytes);
+        }
+        return description;
+    }
+
+    public static void writeDescription(Notes notes, String description) throws GeneralSecurityException {
+        NoteCryptoEvent event = new NoteCryptoEvent();
+        event.begin();
+        byte[] data = encode(notes.getUserId(), description);
+        notes.setDescriptionData(data);
+        notes.setDescription(null);
+        if (event.shouldCommit()) {
+            commit(event, "encrypt", notes, description, data.length);
+        }
+    }
+
+    //only reached while a recording has securenotes.NoteCrypto enabled and the call was over its threshold
+    private static void commit(NoteCryptoEvent event, String operation, Notes notes, String description, int storedBytes) {
+        event.operation = operation;
+        event.noteId = notes.getNotesId();
+        event.ownerId = notes.getUserId();
+        event.plaintextBytes = description == null ? 0 : description.getBytes(StandardCharsets.UTF_8).length;
+        event.storedBytes = storedBytes;
+        event.commit();
+    }
+
+    private static byte[] deflate(byte[] plaintext) {
+        Deflater deflater = DEFLATERS.get();
+        try {
+            deflater.setInput(plaintext);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(plaintext.length / 2 + 16);
+            output.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(plaintext.length).array());
+            byte[] chunk = new byte[Math.min(plaintext.length, 8192)];
+            while (!deflater.finished()) {
+                int written = deflater.deflate(chunk);
+                output.write(chunk, 0, written);
+            }
+            Arrays.fill(chunk, (byte) 0);
+            return output.toByteArray();
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private static String inflate(byte[] payload) throws GeneralSecurityException {
+        if (payload.length < Integer.BYTES) {
+            throw new GeneralSecurityException("Corrupt note envelope");
+        }
+        int length = ByteBuffer.wrap(payload).getInt();
+        if (length < 0 || length > MAX_TEXT_BYTES) {
+            throw new GeneralSecurityException("Corrupt note envelope");
+        }
+        Inflater inflater = INFLATERS.get();
+        byte[] text = new byte[length];
+        try {
+            inflater.setInput(payload, Integer.BYTES, payload.length - Integer.BYTES);
+            int read = 0;
+            while (read < length) {
+                int inflated = inflater.inflate(text, read, length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (read != length) {
+                throw new GeneralSecurityException("Corrupt note envelope");
+            }
+            return new String(text, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new GeneralSecurityException("Corrupt note envelope", e);
+        } finally {
+            inflater.reset();
+            Arrays.fill(text, (byte) 0);
+        }
+    }
+}
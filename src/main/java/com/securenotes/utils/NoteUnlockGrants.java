@@ -0,0 +1,100 @@
+package com.securenotes.utils;
+
+import com.securenotes.exceptions.UnlockCapacityExceededException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Before: every read, update and delete of a secured note ran a full BCrypt check of the note password, and clients
+call those over and over while a note is being edited.
+After: /notes/unlock checks the password once and hands out a random unlock token for that one note and user.
+Until it expires the token is accepted instead of the password, which is a map lookup instead of a BCrypt round.
+Only the SHA-256 digest of the token is kept. A grant also remembers the password hash it was issued for, so
+changing or removing the note password invalidates every grant of the note.
+When securenotes.note-unlock.max-grants live grants exist no more are issued until the oldest expires, the client gets a
+503 with a Retry-After of the time that takes.
+ */
+@Component
+public class NoteUnlockGrants {
+
+    private static final int TOKEN_BYTES = 32;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final Map<String, Grant> grants = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final int maxGrants;
+
+    public NoteUnlockGrants(@Value("${securenotes.note-unlock.ttl:5m}") Duration ttl,
+                            @Value("${securenotes.note-unlock.max-grants:100000}") int maxGrants) {
+        this.ttlMillis = ttl.toMillis();
+        this.maxGrants = maxGrants;
+    }
+
+    //returns the raw unlock token, the caller hands it to the client and it is never stored
+    public String issue(int notesId, int userId, String passwordHash) {
+        if (grants.size() >= maxGrants) {
+            removeExpired();
+            if (grants.size() >= maxGrants) {
+                long firstExpiry = grants.values().stream().mapToLong(Grant::expiresAt).min().orElse(0);
+                long retryAfterSeconds = Math.max(1, (firstExpiry - System.currentTimeMillis() + 999) / 1000);
+                throw new UnlockCapacityExceededException("Too many unlocked notes, try again later", retryAfterSeconds);
+            }
+        }
+        byte[] random = new byte[TOKEN_BYTES];
+        secureRandom.nextBytes(random);
+        String unlockToken = Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+        grants.put(HashUtil.sha256Hex(unlockToken),
+                new Grant(notesId, userId, passwordHash, System.currentTimeMillis() + ttlMillis));
+        return unlockToken;
+    }
+
+    public boolean isValid(String unlockToken, int notesId, int userId, String passwordHash) {
+        if (unlockToken == null || unlockToken.isBlank()) {
+            return false;
+        }
+        String digest = HashUtil.sha256Hex(unlockToken);
+        Grant grant = grants.get(digest);
+        if (grant == null) {
+            return false;
+        }
+        if (grant.expiresAt <= System.currentTimeMillis() || !Objects.equals(grant.passwordHash, passwordHash)) {
+            grants.remove(digest);
+            return false;
+        }
+        return grant.notesId == notesId && grant.userId == userId;
+    }
+
+    public long ttlMillis() {
+        return ttlMillis;
+    }
+
+    //the note password was changed or removed: every other grant of the note is dropped, the grant that made the change
+    //(if any) stays valid for the new password hash so the client can keep editing without unlocking again
+    public void passwordChanged(int notesId, String unlockToken, String newPasswordHash) {
+        String keep = unlockToken == null || newPasswordHash == null ? null : HashUtil.sha256Hex(unlockToken);
+        grants.replaceAll((digest, grant) -> digest.equals(keep) && grant.notesId == notesId
+                ? new Grant(grant.notesId, grant.userId, newPasswordHash, grant.expiresAt)
+                : grant);
+        grants.entrySet().removeIf(entry -> entry.getValue().notesId == notesId && !entry.getKey().equals(keep));
+    }
+
+    //drops every grant of the note, e.g. after it was deleted
+    public void revokeNote(int notesId) {
+        grants.values().removeIf(grant -> grant.notesId == notesId);
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        grants.values().removeIf(grant -> grant.expiresAt <= now);
+    }
+
+    private record Grant(int notesId, int userId, String passwordHash, long expiresAt) {
+    }
+}
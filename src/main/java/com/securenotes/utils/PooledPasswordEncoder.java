@@ -0,0 +1,129 @@
+package com.securenotes.utils;
+
+import com.securenotes.exceptions.HashingCapacityExceededException;
+import com.securenotes.utils.FlightEvents.PasswordHashEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Before: BCrypt ran on the tomcat request threads, so a burst of logins or signups kept every request thread busy hashing
+and all other traffic waited behind them.
+After: every encode/matches runs on a small, fixed size hashing pool with a bounded queue. When the queue is full, or a
+hash waited longer than maxWait, the call fails fast with HashingCapacityExceededException (503 + Retry-After) instead
+of piling up more work. Queue depth, rejections and hash latency are exported as metrics.
+ */
+public class PooledPasswordEncoder implements PasswordEncoder, AutoCloseable {
+
+    private final PasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final long maxWaitNanos;
+    private final Timer encodeTimer;
+    private final Timer matchesTimer;
+    private final Timer queueWait;
+    private final Counter rejections;
+
+    public PooledPasswordEncoder(PasswordEncoder delegate, int threads, int queueCapacity, Duration maxWait, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.maxWaitNanos = maxWait.toNanos();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hashing-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.encodeTimer = Timer.builder("securenotes.password.hash").tag("operation", "encode").register(meterRegistry);
+        this.matchesTimer = Timer.builder("securenotes.password.hash").tag("operation", "matches").register(meterRegistry);
+        this.queueWait = Timer.builder("securenotes.password.hash.wait").register(meterRegistry);
+        this.rejections = Counter.builder("securenotes.password.hash.rejected").register(meterRegistry);
+        Gauge.builder("securenotes.password.hash.queue", executor, e -> e.getQueue().size()).register(meterRegistry);
+        Gauge.builder("securenotes.password.hash.active", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return run("encode", encodeTimer, () -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return run("matches", matchesTimer, () -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private <T> T run(String operation, Timer hashTimer, Callable<T> hashing) {
+        //the event is shared with the pool thread, which fills in the queue wait, Future.get makes that write visible
+        PasswordHashEvent event = new PasswordHashEvent();
+        event.begin();
+        Future<T> result;
+        long submitted = System.nanoTime();
+        try {
+            //time spent in the queue and time spent hashing are recorded apart, a growing wait means the pool is too small
+            result = executor.submit(() -> {
+                long waited = System.nanoTime() - submitted;
+                queueWait.record(waited, TimeUnit.NANOSECONDS);
+                event.queueWait = waited;
+                return hashTimer.recordCallable(hashing);
+            });
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+            commit(event, operation, null, true);
+            throw new HashingCapacityExceededException("Server is busy, please retry shortly");
+        }
+
+        try {
+            T hashed = result.get(maxWaitNanos, TimeUnit.NANOSECONDS);
+            commit(event, operation, hashed, false);
+            return hashed;
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            rejections.increment();
+            commit(event, operation, null, true);
+            throw new HashingCapacityExceededException("Server is busy, please retry shortly");
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+
+    private static void commit(PasswordHashEvent event, String operation, Object hashed, boolean rejected) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.matched = Boolean.TRUE.equals(hashed);
+            event.rejected = rejected;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,18 @@
+package com.securenotes.utils;
+
+import com.securenotes.model.UserPrincipal;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+public class SecurityUtils {
+
+    //the principal JWTAuthFilter put into the security context, no database call
+    public static UserPrincipal currentUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof UserPrincipal userPrincipal) {
+            return userPrincipal;
+        }
+        throw new UsernameNotFoundException("No authenticated user");
+    }
+}
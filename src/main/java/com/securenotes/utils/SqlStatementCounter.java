@@ -0,0 +1,90 @@
+package com.securenotes.utils;
+
+import com.securenotes.exceptions.SqlBudgetExceededException;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/*
+Counts the SQL statements Hibernate prepares on the current thread while a scope is open, SqlBudgetFilter opens one
+per request. Registered with hibernate.session_factory.statement_inspector, so it sees every repository call,
+derived query, lazy load and flush, and a JDBC batch counts once. Threads without a scope (scheduled jobs, the
+JdbcTemplate based migrations) pay one ThreadLocal lookup.
+The budget is only known once the request is mapped to its controller method, until then statements are counted
+without a limit. In strict mode the statement that goes over the budget throws instead of running, the stack trace
+of the SqlBudgetExceededException points at the code that issued it.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.statement(sql);
+        }
+        return sql;
+    }
+
+    public static Scope open(boolean strict) {
+        Scope scope = new Scope(strict);
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    public static Scope current() {
+        return CURRENT.get();
+    }
+
+    public static final class Scope implements AutoCloseable {
+        private final boolean strict;
+        private String name;
+        private int budget = -1;
+        private int statements;
+
+        private Scope(boolean strict) {
+            this.strict = strict;
+        }
+
+        public void assign(String name, int budget) {
+            this.name = name;
+            this.budget = budget;
+            if (strict && exceeded()) {
+                throw new SqlBudgetExceededException(name + " is over its budget of " + budget + " SQL statements before it started");
+            }
+        }
+
+        private void statement(String sql) {
+            statements++;
+            if (strict && exceeded()) {
+                throw new SqlBudgetExceededException(name + " is over its budget of " + budget + " SQL statements with: " + sql);
+            }
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int budget() {
+            return budget;
+        }
+
+        public int statements() {
+            return statements;
+        }
+
+        public boolean assigned() {
+            return budget >= 0;
+        }
+
+        public boolean exceeded() {
+            return assigned() && statements > budget;
+        }
+
+        @Override
+        public void close() {
+            if (CURRENT.get() == this) {
+                CURRENT.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.securenotes.utils;
+
+import java.time.Duration;
+
+/*
+Token buckets for rate limiting, in a fixed amount of memory that is allocated up front.
+The table is split into stripes, each with its own lock and its own arrays (key, tokens, last refill), so concurrent
+requests only contend when their keys hash to the same stripe and nothing is allocated per request.
+Keys are 64 bit hashes of the client identity. A key is looked for in a small probe window of its stripe; when it
+isn't there it takes an empty slot, a slot that has been idle longer than the idle timeout, or else the slot that was
+touched longest ago. Evicted buckets start full again, so under a flood of distinct keys the table errs on the side
+of letting requests through rather than growing.
+ */
+public class TokenBucketTable {
+
+    private static final int PROBES = 8;
+    private static final long EMPTY = 0;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int slotMask;
+    private final long idleNanos;
+
+    public TokenBucketTable(int stripes, int slotsPerStripe, Duration idleTimeout) {
+        int stripeCount = powerOfTwoAtLeast(stripes);
+        int slotCount = Math.max(PROBES, powerOfTwoAtLeast(slotsPerStripe));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(slotCount);
+        }
+        this.stripeMask = stripeCount - 1;
+        this.slotMask = slotCount - 1;
+        this.idleNanos = idleTimeout.toNanos();
+    }
+
+    //takes one token from the bucket of key, returns 0 if it was there, otherwise the nanos until one will be
+    public long tryAcquire(long key, Limit limit, long nowNanos) {
+        if (key == EMPTY) {
+            key = 1;
+        }
+        Stripe stripe = stripes[(int) (key >>> 32) & stripeMask];
+        int home = (int) key & slotMask;
+        synchronized (stripe) {
+            int slot = stripe.find(key, home, slotMask, nowNanos, idleNanos);
+            long tokens;
+            if (stripe.keys[slot] != key) {
+                stripe.keys[slot] = key;
+                tokens = limit.capacityNanos;
+            } else {
+                long elapsed = nowNanos - stripe.lastRefill[slot];
+                //capacity * period fits a long for any sane limit, tokens are kept scaled by the period
+                tokens = Math.min(limit.capacityNanos, stripe.tokens[slot] + Math.max(0, elapsed) * limit.capacity);
+            }
+            stripe.lastRefill[slot] = nowNanos;
+            if (tokens >= limit.periodNanos) {
+                stripe.tokens[slot] = tokens - limit.periodNanos;
+                return 0;
+            }
+            stripe.tokens[slot] = tokens;
+            return (limit.periodNanos - tokens + limit.capacity - 1) / limit.capacity;
+        }
+    }
+
+    private static int powerOfTwoAtLeast(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    public int capacity() {
+        return stripes.length * (slotMask + 1);
+    }
+
+    //64 bit FNV-1a of the seed and the chars, with a final mix so the stripe and slot bits are both well spread
+    public static long hash(long seed, CharSequence value) {
+        long hash = 0xcbf29ce484222325L ^ seed;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    //capacity requests per period, also the burst size. Written as "20/1m", "5/30s", "1000/1h"
+    public static final class Limit {
+        private final long capacity;
+        private final long periodNanos;
+        private final long capacityNanos;
+
+        public Limit(long capacity, Duration period) {
+            if (capacity <= 0 || period.isZero() || period.isNegative()) {
+                throw new IllegalArgumentException("Rate limit needs a positive capacity and period");
+            }
+            this.capacity = capacity;
+            this.periodNanos = period.toNanos();
+            this.capacityNanos = Math.multiplyExact(capacity, periodNanos);
+        }
+
+        public static Limit parse(String value) {
+            int separator = value.indexOf('/');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Rate limit must look like 20/1m: " + value);
+            }
+            String period = value.substring(separator + 1).trim().toUpperCase();
+            Duration duration = period.endsWith("D")
+                    ? Duration.parse("P" + period)
+                    : Duration.parse("PT" + period);
+            return new Limit(Long.parseLong(value.substring(0, separator).trim()), duration);
+        }
+
+        @Override
+        public String toString() {
+            return capacity + "/" + Duration.ofNanos(periodNanos);
+        }
+    }
+
+    private static final class Stripe {
+        private final long[] keys;
+        private final long[] tokens;
+        private final long[] lastRefill;
+
+        private Stripe(int slots) {
+            keys = new long[slots];
+            tokens = new long[slots];
+            lastRefill = new long[slots];
+        }
+
+        private int find(long key, int home, int slotMask, long nowNanos, long idleNanos) {
+            int free = -1;
+            int oldest = home;
+            for (int i = 0; i < PROBES; i++) {
+                int slot = (home + i) & slotMask;
+                long slotKey = keys[slot];
+                if (slotKey == key) {
+                    return slot;
+                }
+                if (free < 0 && (slotKey == EMPTY || nowNanos - lastRefill[slot] > idleNanos)) {
+                    free = slot;
+                }
+                if (lastRefill[slot] - lastRefill[oldest] < 0) {
+                    oldest = slot;
+                }
+            }
+            return free >= 0 ? free : oldest;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.securenotes.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Before: every authenticated request loaded the user and looked up the token row in the database, and parsed the jwt
+three times, before the request could even start.
+After: once a token has been verified it is remembered by its SHA-256 digest, together with the principal, until the
+token expires. Later requests with the same token are authenticated from memory without a database round trip.
+Logout and revokeAllTokensByUser put the token digests into the revoked set, which removes them from the cache and
+keeps a verification that was still in flight from adding them back.
+ */
+@Component
+public class TokenVerificationCache {
+
+    private final int maxEntries;
+    private final Map<String, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+    //digest -> expiry in millis, revoked tokens only need to be remembered until they would have expired anyway
+    private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+
+    public TokenVerificationCache(@Value("${securenotes.auth.token-cache.max-entries:100000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public UserDetails get(String tokenDigest) {
+        VerifiedToken verifiedToken = verifiedTokens.get(tokenDigest);
+        if (verifiedToken == null) {
+            return null;
+        }
+        if (verifiedToken.expiresAt <= System.currentTimeMillis()) {
+            verifiedTokens.remove(tokenDigest);
+            return null;
+        }
+        return verifiedToken.principal;
+    }
+
+    public void put(String tokenDigest, UserDetails principal, Date expiresAt) {
+        if (revokedTokens.containsKey(tokenDigest)) {
+            return;
+        }
+        if (verifiedTokens.size() >= maxEntries) {
+            removeExpired();
+            if (verifiedTokens.size() >= maxEntries) {
+                return;
+            }
+        }
+        verifiedTokens.put(tokenDigest, new VerifiedToken(principal, expiresAt.getTime()));
+        //a revoke that ran between the check above and the put must still win
+        if (revokedTokens.containsKey(tokenDigest)) {
+            verifiedTokens.remove(tokenDigest);
+        }
+    }
+
+    public void revoke(String tokenDigest, long expiresAt) {
+        revokedTokens.put(tokenDigest, expiresAt);
+        verifiedTokens.remove(tokenDigest);
+        if (revokedTokens.size() >= maxEntries) {
+            removeExpired();
+        }
+    }
+
+    //drops every cached token of the user, e.g. after the account changed
+    public void evictUser(String username) {
+        verifiedTokens.values().removeIf(verifiedToken -> verifiedToken.principal.getUsername().equals(username));
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        verifiedTokens.values().removeIf(verifiedToken -> verifiedToken.expiresAt <= now);
+        revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+    }
+
+    private record VerifiedToken(UserDetails principal, long expiresAt) {
+    }
+}
@@ -0,0 +1,322 @@
+package com.securenotes.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.securenotes.model.User;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+The SQL statement counts of the note and task endpoints and of login, measured by SqlBudgetFilter itself.
+strict mode turns a request over its @SqlBudget into a 500, the exact counts below also catch a regression that still
+fits the budget. Every test signs up its own user, so the caches start cold for it whatever ran before.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({"dev", "test"})
+class SqlBudgetTest {
+
+    private static final AtomicInteger USERS = new AtomicInteger();
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    private MvcResult lastResult;
+    private String lastBody;
+
+    @Test
+    void taskListingDoesNotGrowWithTheTasks() throws Exception {
+        String token = login(signUp(), null);
+        createTasks(token, 1);
+        //the first request with a token looks it up, it is cached from then on
+        statements("TaskController.getAll", get("/task/getAll"), token);
+
+        int getAll = statements("TaskController.getAll", get("/task/getAll"), token);
+        int list = statements("TaskController.list", get("/task/list"), token);
+        createTasks(token, 20);
+
+        assertEquals(1, getAll);
+        assertEquals(1, list);
+        assertEquals(getAll, statements("TaskController.getAll", get("/task/getAll"), token));
+        assertEquals(list, statements("TaskController.list", get("/task/list"), token));
+    }
+
+    @Test
+    void loginRevokesEveryTokenInOneStatement() throws Exception {
+        String email = signUp();
+        login(email, null);
+        //the logins without a device revoke every token of the user, first one then five
+        int revokingOne = statements("UserController.login", loginRequest(email, null), null);
+        for (int device = 0; device < 5; device++) {
+            login(email, "device-" + device);
+        }
+        int revokingSix = statements("UserController.login", loginRequest(email, null), null);
+
+        //the valid tokens, one update for all of them, the new token
+        assertEquals(3, revokingOne);
+        assertEquals(revokingOne, revokingSix);
+    }
+
+    @Test
+    void userLookupsAreServedFromTheCaches() throws Exception {
+        String email = signUp();
+
+        //user by email digest, the tokens of the device, the new token
+        assertEquals(3, statements("UserController.login", loginRequest(email, "phone"), null));
+        //the email digest query is in the query cache now
+        String token = login(email, "laptop");
+        assertEquals(2, statements("UserController.login", loginRequest(email, "tablet"), null));
+
+        //the token row, the user of the token comes from the second-level cache, then the tasks
+        assertEquals(2, statements("TaskController.getAll", get("/task/getAll"), token));
+        assertEquals(1, statements("TaskController.getAll", get("/task/getAll"), token));
+    }
+
+    @Test
+    void noteListingDoesNotGrowWithTheNotes() throws Exception {
+        String token = login(signUp(), null);
+        addNotes(token, 1);
+        setPassword(token, addNote(token, "Secret", "Something private"), "secret");
+        statements("NotesController.list", get("/notes/list"), token);
+
+        int list = statements("NotesController.list", get("/notes/list"), token);
+        int listSecured = statements("NotesController.listSecured", get("/notes/listSecured"), token);
+        int getAll = statements("NotesController.getAll", get("/notes/getAll"), token);
+        int getAllSecured = statements("NotesController.getAllSecured", get("/notes/getAllSecuredNotes"), token);
+        addNotes(token, 20);
+        for (int i = 0; i < 5; i++) {
+            setPassword(token, addNote(token, "Secret " + i, "Something private"), "secret");
+        }
+
+        assertEquals(1, list);
+        assertEquals(1, listSecured);
+        assertEquals(1, getAll);
+        assertEquals(1, getAllSecured);
+        assertEquals(list, statements("NotesController.list", get("/notes/list"), token));
+        assertEquals(listSecured, statements("NotesController.listSecured", get("/notes/listSecured"), token));
+        assertEquals(getAll, statements("NotesController.getAll", get("/notes/getAll"), token));
+        assertEquals(getAllSecured, statements("NotesController.getAllSecured", get("/notes/getAllSecuredNotes"), token));
+    }
+
+    @Test
+    void noteReadsAndWrites() throws Exception {
+        String token = login(signUp(), null);
+        //the first request with the token looks it up and loads the data key of the user
+        addNote(token, "Warm up", "Nothing to see");
+
+        int add = statements("NotesController.addNote", noteRequest(post("/notes/add"), "Groceries", "milk eggs bread"), token);
+        int id = addNote(token, "Groceries", "milk eggs bread");
+        //the note is cached from its insert on
+        int getById = statements("NotesController.getById", get("/notes/get/" + id), token);
+        int update = statements("NotesController.updateNote", noteRequest(put("/notes/update/" + id), "Groceries", "milk eggs butter"), token);
+        int search = statements("NotesController.search", get("/notes/search/milk"), token);
+        addNotes(token, 10);
+        for (int i = 0; i < 10; i++) {
+            addNote(token, "Shopping " + i, "milk and more");
+        }
+        int searchMore = statements("NotesController.search", get("/notes/search/milk"), token);
+        int delete = statements("NotesController.deleteNote", delete("/notes/delete/" + id), token);
+
+        //the note, clearing its old search tokens, one batch of new ones. The id comes from the allocated block
+        assertEquals(3, add);
+        assertEquals(0, getById);
+        assertEquals(3, update);
+        //the matching ids from the blind index, then the notes in one query however many match
+        assertEquals(2, search);
+        assertEquals(search, searchMore);
+        //the note and its search tokens
+        assertEquals(2, delete);
+    }
+
+    @Test
+    void securedNoteReadsAndWrites() throws Exception {
+        String token = login(signUp(), null);
+        int id = addNote(token, "Diary", "Dear diary");
+        setPassword(token, id, "secret");
+
+        int unlock = statements("NotesController.unlock", post("/notes/unlock/" + id).param("password", "secret"), token);
+        String unlockToken = objectMapper.readTree(lastBody).get("unlockToken").asText();
+        int getByPassword = statements("NotesController.getNoteByIdAndPassword",
+                get("/notes/getByIdPassword/" + id).header("X-Note-Unlock-Token", unlockToken), token);
+        int updateSecure = statements("NotesController.updateSecureNote",
+                put("/notes/updateSecureNote/" + id).header("X-Note-Unlock-Token", unlockToken)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of("title", "Diary", "description", "Dear diary, again", "password", "secret"))), token);
+        int deleteSecure = statements("NotesController.deleteSecureNote",
+                delete("/notes/deleteSecureNote/" + id).header("X-Note-Unlock-Token", unlockToken), token);
+
+        //the note is cached, checking the password or the unlock token needs no statement
+        assertEquals(0, unlock);
+        assertEquals(0, getByPassword);
+        //the note, and the search tokens it must not have
+        assertEquals(2, updateSecure);
+        assertEquals(2, deleteSecure);
+    }
+
+    @Test
+    void exportRunsItsQueriesOffTheRequestThread() throws Exception {
+        String token = login(signUp(), null);
+        addNotes(token, 3);
+        createTasks(token, 2);
+
+        //the notes and tasks are read by the streaming body, after the request thread let go
+        int export = statements("NotesController.export", get("/notes/export"), token);
+        String body = mockMvc.perform(asyncDispatch(lastResult)).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        addNotes(token, 20);
+
+        assertEquals(0, export);
+        assertEquals(5, body.lines().count());
+        assertEquals(export, statements("NotesController.export", get("/notes/export"), token));
+    }
+
+    @Test
+    void taskReadsAndWrites() throws Exception {
+        String token = login(signUp(), null);
+        createTasks(token, 1);
+
+        int create = statements("TaskController.createTask", taskRequest(post("/task/create"), "Laundry"), token);
+        int id = objectMapper.readTree(lastBody).get("taskId").asInt();
+        int getById = statements("TaskController.getById", get("/task/getById/" + id), token);
+        int update = statements("TaskController.update", taskRequest(put("/task/update/" + id), "Laundry and ironing"), token);
+        int byCompletion = statements("TaskController.getTasksByCompletionStatus", get("/task/getByCompletion").param("isCompleted", "false"), token);
+        createTasks(token, 20);
+        int byCompletionMore = statements("TaskController.getTasksByCompletionStatus", get("/task/getByCompletion").param("isCompleted", "false"), token);
+        int delete = statements("TaskController.delete", delete("/task/delete/" + id), token);
+        int deleteAll = statements("TaskController.deleteAll", delete("/task/delete/all"), token);
+
+        //one statement each, the user of the task comes from the cache
+        assertEquals(1, create);
+        assertEquals(1, getById);
+        assertEquals(1, update);
+        assertEquals(1, byCompletion);
+        assertEquals(byCompletion, byCompletionMore);
+        assertEquals(1, delete);
+        assertEquals(1, deleteAll);
+    }
+
+    private String signUp() throws Exception {
+        String email = "user" + USERS.incrementAndGet() + "@example.com";
+        mockMvc.perform(post("/auth/signup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of(
+                                "name", "User", "email", email, "password", "password", "role", "USER"))))
+                .andExpect(status().isOk());
+        //stands in for the otp mail, written around hibernate so the cached user has to go
+        jdbcTemplate.update("update user set active = true");
+        entityManagerFactory.getCache().evict(User.class);
+        return email;
+    }
+
+    private MockHttpServletRequestBuilder loginRequest(String email, String deviceId) throws Exception {
+        MockHttpServletRequestBuilder request = post("/auth/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("email", email, "password", "password")));
+        return deviceId == null ? request : request.header("X-Device-Id", deviceId);
+    }
+
+    private String login(String email, String deviceId) throws Exception {
+        String body = mockMvc.perform(loginRequest(email, deviceId))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        JsonNode response = objectMapper.readTree(body);
+        return response.get("token").asText();
+    }
+
+    private void createTasks(String token, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            mockMvc.perform(post("/task/create")
+                            .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(Map.of("title", "Task " + i, "description", "Something to do"))))
+                    .andExpect(status().isOk());
+        }
+    }
+
+    private MockHttpServletRequestBuilder noteRequest(MockHttpServletRequestBuilder request, String title, String description) throws Exception {
+        return request.contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("title", title, "description", description)));
+    }
+
+    private MockHttpServletRequestBuilder taskRequest(MockHttpServletRequestBuilder request, String title) throws Exception {
+        return request.contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("title", title, "description", "Something to do")));
+    }
+
+    private int addNote(String token, String title, String description) throws Exception {
+        String body = mockMvc.perform(noteRequest(post("/notes/add"), title, description)
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body).get("notesId").asInt();
+    }
+
+    private void addNotes(String token, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            addNote(token, "Note " + i, "Something to remember");
+        }
+    }
+
+    private void setPassword(String token, int id, String password) throws Exception {
+        mockMvc.perform(put("/notes/setpassword/" + id)
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of("password", password))))
+                .andExpect(status().isOk());
+    }
+
+    //runs the request and returns the statements SqlBudgetFilter recorded for it, the result and its body are kept for the
+    //assertions that need them
+    private int statements(String handler, MockHttpServletRequestBuilder request, String token) throws Exception {
+        double before = summary(handler).map(DistributionSummary::totalAmount).orElse(0.0);
+        long requests = summary(handler).map(DistributionSummary::count).orElse(0L);
+        if (token != null) {
+            request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        }
+        lastResult = mockMvc.perform(request).andExpect(status().isOk()).andReturn();
+        lastBody = lastResult.getResponse().getContentAsString();
+        DistributionSummary after = summary(handler).orElseThrow();
+        assertEquals(requests + 1, after.count(), "request was not counted for " + handler);
+        return (int) (after.totalAmount() - before);
+    }
+
+    private Optional<DistributionSummary> summary(String handler) {
+        return Optional.ofNullable(meterRegistry.find("securenotes.sql.statements").tag("handler", handler).summary());
+    }
+}
@@ -0,0 +1,142 @@
+package com.securenotes.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.securenotes.model.User;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+Refresh tokens are rotated on every use, and using one that was already rotated away revokes its whole family: the
+session of one device.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({"dev", "test"})
+class RefreshTokenTest {
+
+    private static final AtomicInteger USERS = new AtomicInteger();
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void refreshRotatesBothTokens() throws Exception {
+        JsonNode login = login(signUp(), null);
+        String accessToken = login.get("token").asText();
+        String refreshToken = login.get("refreshToken").asText();
+        assertEquals(200, statusOf(get("/task/getAll"), accessToken));
+
+        JsonNode refreshed = refresh(refreshToken, 200);
+        String nextAccessToken = refreshed.get("token").asText();
+        String nextRefreshToken = refreshed.get("refreshToken").asText();
+
+        assertNotEquals(accessToken, nextAccessToken);
+        assertNotEquals(refreshToken, nextRefreshToken);
+        assertEquals(200, statusOf(get("/task/getAll"), nextAccessToken));
+        //the access token the session had before is revoked with the rotation
+        assertEquals(403, statusOf(get("/task/getAll"), accessToken));
+        refresh(nextRefreshToken, 200);
+    }
+
+    @Test
+    void reusedRefreshTokenRevokesTheFamily() throws Exception {
+        JsonNode login = login(signUp(), null);
+        String stolen = login.get("refreshToken").asText();
+        JsonNode refreshed = refresh(stolen, 200);
+
+        //the old token comes back, from the client or from whoever copied it
+        refresh(stolen, 401);
+
+        assertEquals(403, statusOf(get("/task/getAll"), refreshed.get("token").asText()));
+        refresh(refreshed.get("refreshToken").asText(), 401);
+    }
+
+    @Test
+    void reuseOnOneDeviceLeavesTheOthersLoggedIn() throws Exception {
+        String email = signUp();
+        JsonNode phone = login(email, "phone");
+        JsonNode laptop = login(email, "laptop");
+        refresh(phone.get("refreshToken").asText(), 200);
+
+        refresh(phone.get("refreshToken").asText(), 401);
+
+        assertEquals(200, statusOf(get("/task/getAll"), laptop.get("token").asText()));
+        refresh(laptop.get("refreshToken").asText(), 200);
+    }
+
+    @Test
+    void accessTokenIsNoRefreshToken() throws Exception {
+        JsonNode login = login(signUp(), null);
+
+        refresh(login.get("token").asText(), 401);
+        refresh("not.a.token", 401);
+    }
+
+    private String signUp() throws Exception {
+        String email = "refresh" + USERS.incrementAndGet() + "@example.com";
+        mockMvc.perform(post("/auth/signup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of(
+                                "name", "User", "email", email, "password", "password", "role", "USER"))))
+                .andExpect(status().isOk());
+        //stands in for the otp mail, written around hibernate so the cached user has to go
+        jdbcTemplate.update("update user set active = true");
+        entityManagerFactory.getCache().evict(User.class);
+        return email;
+    }
+
+    private JsonNode login(String email, String deviceId) throws Exception {
+        MockHttpServletRequestBuilder request = post("/auth/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("email", email, "password", "password")));
+        if (deviceId != null) {
+            request.header("X-Device-Id", deviceId);
+        }
+        String body = mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body);
+    }
+
+    private JsonNode refresh(String refreshToken, int expectedStatus) throws Exception {
+        String body = mockMvc.perform(post("/auth/refresh")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of("refreshToken", refreshToken))))
+                .andExpect(status().is(expectedStatus))
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body);
+    }
+
+    private int statusOf(MockHttpServletRequestBuilder request, String token) throws Exception {
+        return mockMvc.perform(request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andReturn().getResponse().getStatus();
+    }
+}
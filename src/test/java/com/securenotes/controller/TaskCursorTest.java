@@ -0,0 +1,175 @@
+package com.securenotes.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.securenotes.model.User;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+Walks /task/list page by page with the cursors it hands out: tasks without a due date first in id order, then by due
+date and id, every task exactly once, also when a page ends among the undated tasks or between two tasks due the
+same day.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({"dev", "test"})
+class TaskCursorTest {
+
+    private static final AtomicInteger USERS = new AtomicInteger();
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void pagesGoThroughEveryTaskInDueDateOrder() throws Exception {
+        String token = login(signUp());
+        LocalDate today = LocalDate.now();
+        //created out of order, the ids alone would give a different order
+        createTask(token, "due later", today.plusDays(3), false);
+        createTask(token, "undated 1", null, false);
+        createTask(token, "due today 1", today, false);
+        createTask(token, "undated 2", null, false);
+        createTask(token, "overdue", today.minusDays(2), false);
+        createTask(token, "due today 2", today, false);
+        createTask(token, "undated 3", null, true);
+
+        List<String> expected = List.of("undated 1", "undated 2", "undated 3",
+                "overdue", "due today 1", "due today 2", "due later");
+        for (int size = 1; size <= 4; size++) {
+            assertEquals(expected, walk(token, "/task/list", size), "page size " + size);
+        }
+    }
+
+    @Test
+    void filtersApplyOnEveryPage() throws Exception {
+        String token = login(signUp());
+        LocalDate today = LocalDate.now();
+        createTask(token, "undated open", null, false);
+        createTask(token, "undated done", null, true);
+        createTask(token, "overdue open 1", today.minusDays(3), false);
+        createTask(token, "overdue done", today.minusDays(2), true);
+        createTask(token, "overdue open 2", today.minusDays(1), false);
+        createTask(token, "due today", today, false);
+
+        assertEquals(List.of("undated open", "overdue open 1", "overdue open 2", "due today"),
+                walk(token, "/task/list?completed=false", 1));
+        assertEquals(List.of("undated done", "overdue done"), walk(token, "/task/list?completed=true", 1));
+        //a completed task is not overdue, and an undated one never is
+        assertEquals(List.of("overdue open 1", "overdue open 2"), walk(token, "/task/list?due=overdue", 1));
+        assertEquals(List.of("due today"), walk(token, "/task/list?due=today", 1));
+    }
+
+    @Test
+    void lastPageHasNoCursor() throws Exception {
+        String token = login(signUp());
+        createTask(token, "only", null, false);
+
+        JsonNode page = page(token, "/task/list?size=5");
+
+        assertEquals(1, page.get("tasks").size());
+        assertNull(page.get("nextCursor"));
+    }
+
+    @Test
+    void malformedCursorIsABadRequest() throws Exception {
+        String token = login(signUp());
+
+        mockMvc.perform(get("/task/list").param("cursor", "not a cursor")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isBadRequest());
+        //"abc:1" in Base64, a cursor whose due date is no number
+        mockMvc.perform(get("/task/list").param("cursor", "YWJjOjE")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isBadRequest());
+    }
+
+    //titles of all pages, following nextCursor until there is none
+    private List<String> walk(String token, String path, int size) throws Exception {
+        List<String> titles = new ArrayList<>();
+        String cursor = null;
+        do {
+            String url = path + (path.contains("?") ? "&" : "?") + "size=" + size + (cursor == null ? "" : "&cursor=" + cursor);
+            JsonNode page = page(token, url);
+            page.get("tasks").forEach(task -> titles.add(task.get("title").asText()));
+            cursor = page.hasNonNull("nextCursor") ? page.get("nextCursor").asText() : null;
+        } while (cursor != null);
+        return titles;
+    }
+
+    private JsonNode page(String token, String url) throws Exception {
+        String body = mockMvc.perform(get(url).header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body);
+    }
+
+    private void createTask(String token, String title, LocalDate dueDate, boolean completed) throws Exception {
+        Map<String, Object> task = new HashMap<>();
+        task.put("title", title);
+        task.put("description", "Something to do");
+        task.put("completed", completed);
+        if (dueDate != null) {
+            task.put("dueDate", dueDate.toString());
+        }
+        mockMvc.perform(post("/task/create")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(task)))
+                .andExpect(status().isOk());
+    }
+
+    private String signUp() throws Exception {
+        String email = "tasks" + USERS.incrementAndGet() + "@example.com";
+        mockMvc.perform(post("/auth/signup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of(
+                                "name", "User", "email", email, "password", "password", "role", "USER"))))
+                .andExpect(status().isOk());
+        //stands in for the otp mail, written around hibernate so the cached user has to go
+        jdbcTemplate.update("update user set active = true");
+        entityManagerFactory.getCache().evict(User.class);
+        return email;
+    }
+
+    private String login(String email) throws Exception {
+        MockHttpServletRequestBuilder request = post("/auth/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("email", email, "password", "password")));
+        String body = mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body).get("token").asText();
+    }
+}
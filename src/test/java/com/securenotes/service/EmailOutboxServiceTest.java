@@ -0,0 +1,222 @@
+package com.securenotes.service;
+
+import com.securenotes.model.EmailOutbox;
+import com.securenotes.repository.EmailOutboxRepository;
+import com.securenotes.utils.DataKey;
+import com.securenotes.utils.EmailUtil;
+import com.securenotes.utils.EncryptionUtil;
+import com.securenotes.utils.KeyResolver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/*
+One dispatch pass against a mocked outbox table and SMTP server: what is sent is deleted, what fails is saved back
+with the next attempt pushed out, 30s, 1m ... up to max-backoff, and moved to DEAD on the last attempt.
+ */
+class EmailOutboxServiceTest {
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final Duration RETRY_BACKOFF = Duration.ofSeconds(30);
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(90);
+
+    private static KeyResolver applicationResolver;
+
+    private final EmailOutboxRepository repository = mock(EmailOutboxRepository.class);
+    private final JavaMailSender javaMailSender = mock(JavaMailSender.class);
+    private final EmailUtil emailUtil = mock(EmailUtil.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final EmailOutboxService emailOutboxService = new EmailOutboxService(repository, javaMailSender, emailUtil,
+            mock(ExecutorService.class), meterRegistry, 50, MAX_ATTEMPTS, RETRY_BACKOFF, MAX_BACKOFF);
+
+    //the message built for each recipient, and the messages handed to the SMTP server
+    private final Map<String, MimeMessage> messages = new HashMap<>();
+    private final List<MimeMessage> sent = new ArrayList<>();
+    private long nextId;
+
+    @BeforeAll
+    static void fixedDataKey() {
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+        DataKey key = new DataKey(EncryptionUtil.SYSTEM_OWNER, 1, new SecretKeySpec(keyBytes, "AES"));
+        applicationResolver = EncryptionUtil.setKeyResolver(new KeyResolver() {
+            @Override
+            public DataKey currentKey(int ownerId) {
+                return key;
+            }
+
+            @Override
+            public DataKey key(int ownerId, int generation) {
+                return key;
+            }
+        });
+    }
+
+    @AfterAll
+    static void restoreResolver() {
+        EncryptionUtil.setKeyResolver(applicationResolver);
+    }
+
+    @BeforeEach
+    void mockedSmtp() throws Exception {
+        when(emailUtil.otpEmailBody(anyString())).thenAnswer(invocation -> "Your otp is " + invocation.getArgument(0));
+        when(emailUtil.createMessage(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            MimeMessage message = mock(MimeMessage.class);
+            messages.put(invocation.getArgument(0), message);
+            return message;
+        });
+        doAnswer(invocation -> sent.addAll(Arrays.asList((MimeMessage[]) invocation.getRawArguments()[0])))
+                .when(javaMailSender).send(any(MimeMessage[].class));
+    }
+
+    @Test
+    void sentMailsAreDeleted() throws Exception {
+        EmailOutbox first = row(0);
+        EmailOutbox second = row(0);
+        due(first, second);
+
+        emailOutboxService.dispatchPending();
+
+        //both go out in one call, over one SMTP connection
+        verify(javaMailSender).send(any(MimeMessage[].class));
+        assertEquals(2, sent.size());
+        assertTrue(sent.containsAll(messages.values()));
+        verify(repository).deleteAllByIdInBatch(List.of(first.getEmailOutboxId(), second.getEmailOutboxId()));
+        verify(repository, never()).saveAll(anyIterable());
+        assertEquals(2, count("sent"));
+    }
+
+    @Test
+    void failedMailIsRetriedWithDoublingBackoff() throws Exception {
+        doThrow(new MailSendException("Connection refused")).when(javaMailSender).send(any(MimeMessage[].class));
+        EmailOutbox emailOutbox = row(0);
+
+        List<Duration> backoffs = new ArrayList<>();
+        for (int attempt = 1; attempt < MAX_ATTEMPTS; attempt++) {
+            due(emailOutbox);
+            LocalDateTime before = LocalDateTime.now();
+            emailOutboxService.dispatchPending();
+
+            assertEquals(attempt, emailOutbox.getAttempts());
+            assertEquals(EmailOutbox.Status.PENDING, emailOutbox.getStatus());
+            assertEquals("Connection refused", emailOutbox.getLastError());
+            backoffs.add(Duration.between(before, emailOutbox.getNextAttemptAt()).truncatedTo(ChronoUnit.SECONDS));
+        }
+
+        //30s, 1m, then the 90s max-backoff instead of 2m
+        assertEquals(List.of(Duration.ofSeconds(30), Duration.ofMinutes(1), Duration.ofSeconds(90)), backoffs);
+        verify(repository, never()).deleteAllByIdInBatch(anyIterable());
+        assertEquals(MAX_ATTEMPTS - 1, count("retry"));
+    }
+
+    @Test
+    void lastFailedAttemptMovesTheMailToDead() throws Exception {
+        doThrow(new MailSendException("550 mailbox unavailable")).when(javaMailSender).send(any(MimeMessage[].class));
+        EmailOutbox emailOutbox = row(MAX_ATTEMPTS - 1);
+        LocalDateTime nextAttemptAt = emailOutbox.getNextAttemptAt();
+        due(emailOutbox);
+
+        emailOutboxService.dispatchPending();
+
+        assertEquals(MAX_ATTEMPTS, emailOutbox.getAttempts());
+        assertEquals(EmailOutbox.Status.DEAD, emailOutbox.getStatus());
+        assertEquals("550 mailbox unavailable", emailOutbox.getLastError());
+        //a DEAD row is no longer scheduled
+        assertEquals(nextAttemptAt, emailOutbox.getNextAttemptAt());
+        verify(repository).saveAll(List.of(emailOutbox));
+        assertEquals(1, count("dead"));
+        assertEquals(0, count("retry"));
+    }
+
+    @Test
+    void onlyTheRejectedMailOfABatchIsRetried() throws Exception {
+        EmailOutbox accepted = row(0);
+        EmailOutbox rejected = row(0);
+        due(accepted, rejected);
+        //the server takes the first mail and refuses the recipient of the second
+        doAnswer(invocation -> {
+            throw new MailSendException(Map.<Object, Exception>of(
+                    messages.get(recipientOf(rejected)), new MessagingException("550 no such user")));
+        }).when(javaMailSender).send(any(MimeMessage[].class));
+
+        emailOutboxService.dispatchPending();
+
+        verify(repository).deleteAllByIdInBatch(List.of(accepted.getEmailOutboxId()));
+        verify(repository).saveAll(List.of(rejected));
+        assertEquals(0, accepted.getAttempts());
+        assertEquals(1, rejected.getAttempts());
+        assertEquals("550 no such user", rejected.getLastError());
+        assertEquals(1, count("sent"));
+        assertEquals(1, count("retry"));
+    }
+
+    @Test
+    void mailThatCannotBeBuiltIsRetriedWithoutBlockingTheOthers() throws Exception {
+        EmailOutbox broken = row(0);
+        EmailOutbox fine = row(0);
+        when(emailUtil.createMessage(eq(recipientOf(broken)), anyString(), anyString()))
+                .thenThrow(new MessagingException("Illegal address"));
+        due(broken, fine);
+
+        emailOutboxService.dispatchPending();
+
+        assertEquals(List.of(messages.get(recipientOf(fine))), sent);
+        verify(repository).deleteAllByIdInBatch(List.of(fine.getEmailOutboxId()));
+        verify(repository).saveAll(List.of(broken));
+        assertEquals("Illegal address", broken.getLastError());
+    }
+
+    //a stored PENDING row that is due, with the given number of failed attempts behind it
+    private EmailOutbox row(int attempts) throws Exception {
+        long id = ++nextId;
+        EmailOutbox emailOutbox = emailOutboxService.prepareOtpEmail("user" + id + "@example.com", "123456");
+        emailOutbox.setEmailOutboxId(id);
+        emailOutbox.setAttempts(attempts);
+        emailOutbox.setCreatedAt(LocalDateTime.now().minusMinutes(5));
+        emailOutbox.setNextAttemptAt(LocalDateTime.now().minusSeconds(1));
+        return emailOutbox;
+    }
+
+    private String recipientOf(EmailOutbox emailOutbox) {
+        return "user" + emailOutbox.getEmailOutboxId() + "@example.com";
+    }
+
+    private void due(EmailOutbox... rows) {
+        when(repository.findDue(eq(EmailOutbox.Status.PENDING), any(), any())).thenReturn(List.of(rows));
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("securenotes.mail.outbox.messages").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,149 @@
+package com.securenotes.utils;
+
+import com.securenotes.exceptions.NoteTooLargeException;
+import com.securenotes.model.Notes;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+Round trips through the note envelope with a fixed data key instead of DataKeyService, the header byte tells which
+path a description took: high nibble the version, low nibble 1 when it was compressed.
+ */
+class NoteCodecTest {
+
+    private static final int OWNER = 7;
+
+    private static KeyResolver applicationResolver;
+
+    @BeforeAll
+    static void fixedDataKey() {
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+        DataKey key = new DataKey(OWNER, 1, new SecretKeySpec(keyBytes, "AES"));
+        applicationResolver = EncryptionUtil.setKeyResolver(new KeyResolver() {
+            @Override
+            public DataKey currentKey(int ownerId) {
+                return key;
+            }
+
+            @Override
+            public DataKey key(int ownerId, int generation) {
+                return key;
+            }
+        });
+    }
+
+    @AfterAll
+    static void restoreResolver() {
+        //the spring context of the other tests is cached and registered its DataKeyService only once
+        EncryptionUtil.setKeyResolver(applicationResolver);
+    }
+
+    @Test
+    void shortTextIsStoredUncompressed() throws Exception {
+        String text = "Buy milk";
+        byte[] data = NoteCodec.encode(OWNER, text);
+
+        assertEquals(0x20, data[0]);
+        assertEquals(text, NoteCodec.decode(data));
+    }
+
+    @Test
+    void textThatDoesNotSaveABlockIsStoredUncompressed() throws Exception {
+        //128 chars, long enough to be compressed, but deflate's own overhead eats what random text saves
+        byte[] random = new byte[96];
+        new Random(42).nextBytes(random);
+        String text = Base64.getEncoder().encodeToString(random);
+        byte[] data = NoteCodec.encode(OWNER, text);
+
+        assertEquals(0x20, data[0]);
+        assertEquals(text, NoteCodec.decode(data));
+    }
+
+    @Test
+    void repetitiveTextIsCompressed() throws Exception {
+        String text = "Meeting notes: nothing was decided. ".repeat(200);
+        byte[] data = NoteCodec.encode(OWNER, text);
+
+        assertEquals(0x21, data[0]);
+        assertTrue(data.length < text.length() / 4, "stored " + data.length + " bytes");
+        assertEquals(text, NoteCodec.decode(data));
+    }
+
+    @Test
+    void textOfExactlyTheLimitIsWrittenAndReadBack() throws Exception {
+        //60000 chars of 4 byte UTF-8, the longest description the API takes
+        String emoji = "📝".repeat(60_000);
+        assertEquals(NoteCodec.MAX_TEXT_BYTES, emoji.getBytes(StandardCharsets.UTF_8).length);
+        byte[] compressed = NoteCodec.encode(OWNER, emoji);
+
+        byte[] random = new byte[NoteCodec.MAX_TEXT_BYTES / 4 * 3];
+        new Random(7).nextBytes(random);
+        String ascii = Base64.getEncoder().encodeToString(random);
+        assertEquals(NoteCodec.MAX_TEXT_BYTES, ascii.length());
+
+        //the length prefix of both is the limit inflate still accepts
+        assertEquals(emoji, NoteCodec.decode(compressed));
+        assertEquals(ascii, NoteCodec.decode(NoteCodec.encode(OWNER, ascii)));
+    }
+
+    @Test
+    void textOverTheLimitIsRefused() {
+        String text = "a".repeat(NoteCodec.MAX_TEXT_BYTES + 1);
+
+        assertThrows(NoteTooLargeException.class, () -> NoteCodec.encode(OWNER, text));
+    }
+
+    @Test
+    void headerByteIsAuthenticated() throws Exception {
+        byte[] data = NoteCodec.encode(OWNER, "Meeting notes: nothing was decided. ".repeat(10));
+        //claim the compressed payload is plain text
+        data[0] = 0x20;
+
+        assertThrows(GeneralSecurityException.class, () -> NoteCodec.decode(data));
+    }
+
+    @Test
+    void writeDescriptionClearsTheLegacyColumn() throws Exception {
+        Notes notes = Notes.builder().userId(OWNER).description("legacy ciphertext").build();
+        NoteCodec.writeDescription(notes, "New text");
+
+        assertNull(notes.getDescription());
+        assertEquals("New text", NoteCodec.readDescription(notes));
+    }
+
+    @Test
+    void legacyBase64DescriptionIsRead() throws Exception {
+        //rows from before the envelope: Base64 of AES under the hard-coded key, in the description column
+        String text = "Written before descriptionData existed";
+        byte[] ciphertext = EncryptionUtil.engine().encrypt(text.getBytes(StandardCharsets.UTF_8));
+        Notes notes = Notes.builder().userId(OWNER).description(Base64.getEncoder().encodeToString(ciphertext)).build();
+
+        assertEquals(text, NoteCodec.readDescription(notes));
+    }
+
+    @Test
+    void versionOneEnvelopeIsRead() throws Exception {
+        //the first envelope: the header byte followed by AES under the hard-coded key, without the data key header
+        String text = "Written with the hard-coded key";
+        byte[] ciphertext = EncryptionUtil.engine().encrypt(text.getBytes(StandardCharsets.UTF_8));
+        byte[] data = new byte[1 + ciphertext.length];
+        data[0] = 0x10;
+        System.arraycopy(ciphertext, 0, data, 1, ciphertext.length);
+
+        assertEquals(text, NoteCodec.decode(data));
+    }
+}
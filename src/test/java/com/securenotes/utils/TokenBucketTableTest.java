@@ -0,0 +1,110 @@
+package com.securenotes.utils;
+
+import com.securenotes.utils.TokenBucketTable.Limit;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/*
+The table takes the time as an argument, so refills and idle timeouts are tested with made up nanos instead of sleeps.
+ */
+class TokenBucketTableTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final Limit THREE_PER_MINUTE = Limit.parse("3/1m");
+
+    private final TokenBucketTable table = new TokenBucketTable(4, 64, Duration.ofHours(1));
+
+    @Test
+    void burstUpToCapacityThenWaitForTheNextToken() {
+        long key = TokenBucketTable.hash(1, "10.0.0.1");
+        long now = 1000 * SECOND;
+
+        assertEquals(0, table.tryAcquire(key, THREE_PER_MINUTE, now));
+        assertEquals(0, table.tryAcquire(key, THREE_PER_MINUTE, now));
+        assertEquals(0, table.tryAcquire(key, THREE_PER_MINUTE, now));
+        //one token every 20 seconds
+        assertEquals(20 * SECOND, table.tryAcquire(key, THREE_PER_MINUTE, now));
+        assertEquals(5 * SECOND, table.tryAcquire(key, THREE_PER_MINUTE, now + 15 * SECOND));
+        assertEquals(0, table.tryAcquire(key, THREE_PER_MINUTE, now + 20 * SECOND));
+        assertNotEquals(0, table.tryAcquire(key, THREE_PER_MINUTE, now + 20 * SECOND));
+    }
+
+    @Test
+    void refillStopsAtCapacity() {
+        long key = TokenBucketTable.hash(1, "10.0.0.2");
+        long now = 1000 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            table.tryAcquire(key, THREE_PER_MINUTE, now);
+        }
+
+        long later = now + TimeUnit.MINUTES.toNanos(50);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, table.tryAcquire(key, THREE_PER_MINUTE, later));
+        }
+        assertEquals(20 * SECOND, table.tryAcquire(key, THREE_PER_MINUTE, later));
+    }
+
+    @Test
+    void keysHaveTheirOwnBuckets() {
+        long first = TokenBucketTable.hash(1, "alice@example.com");
+        long second = TokenBucketTable.hash(1, "bob@example.com");
+        long now = 1000 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            table.tryAcquire(first, THREE_PER_MINUTE, now);
+        }
+
+        assertNotEquals(0, table.tryAcquire(first, THREE_PER_MINUTE, now));
+        assertEquals(0, table.tryAcquire(second, THREE_PER_MINUTE, now));
+    }
+
+    @Test
+    void seedSeparatesTheSameValue() {
+        assertNotEquals(TokenBucketTable.hash(1, "10.0.0.1"), TokenBucketTable.hash(2, "10.0.0.1"));
+    }
+
+    @Test
+    void fullProbeWindowEvictsTheLeastRecentlyTouchedBucket() {
+        //one stripe of 8 slots, every key lands in the same probe window
+        TokenBucketTable small = new TokenBucketTable(1, 8, Duration.ofHours(1));
+        assertEquals(8, small.capacity());
+        Limit onePerHour = Limit.parse("1/1h");
+        long now = 1000 * SECOND;
+        for (long key = 1; key <= 8; key++) {
+            assertEquals(0, small.tryAcquire(key, onePerHour, now + key));
+        }
+        assertNotEquals(0, small.tryAcquire(2, onePerHour, now + 100));
+
+        //a ninth key takes the slot of key 1, which was touched longest ago, and key 1 starts full again
+        assertEquals(0, small.tryAcquire(9, onePerHour, now + 200));
+        assertEquals(0, small.tryAcquire(1, onePerHour, now + 300));
+    }
+
+    @Test
+    void idleBucketIsReused() {
+        TokenBucketTable small = new TokenBucketTable(1, 8, Duration.ofMinutes(1));
+        Limit onePerHour = Limit.parse("1/1h");
+        long now = 1000 * SECOND;
+        for (long key = 1; key <= 8; key++) {
+            small.tryAcquire(key, onePerHour, now);
+        }
+
+        long afterIdle = now + TimeUnit.MINUTES.toNanos(2);
+        assertEquals(0, small.tryAcquire(9, onePerHour, afterIdle));
+    }
+
+    @Test
+    void limitsAreParsed() {
+        assertEquals("20/PT1M", Limit.parse("20/1m").toString());
+        assertEquals("5/PT30S", Limit.parse("5 / 30s").toString());
+        assertEquals("1000/PT1H", Limit.parse("1000/1h").toString());
+        assertEquals("2/PT24H", Limit.parse("2/1d").toString());
+        assertThrows(IllegalArgumentException.class, () -> Limit.parse("20"));
+        assertThrows(IllegalArgumentException.class, () -> Limit.parse("0/1m"));
+    }
+}